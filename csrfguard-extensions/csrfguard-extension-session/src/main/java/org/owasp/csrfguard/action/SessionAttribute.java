@@ -31,6 +31,7 @@ package org.owasp.csrfguard.action;
 
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.config.properties.ConfigParameters;
 import org.owasp.csrfguard.session.LogicalSession;
 
@@ -49,7 +50,7 @@ public final class SessionAttribute extends AbstractAction {
 	public void execute(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) throws CsrfGuardException {
 		final String attributeName = getParameter(ConfigParameters.ACTION_ATTRIBUTE_NAME);
 
-		final LogicalSession logicalSession = CsrfGuard.getInstance().getLogicalSessionExtractor().extract(request);
+		final LogicalSession logicalSession = CsrfGuardRequestContext.get(request).getLogicalSession();
 
 		if (Objects.nonNull(logicalSession)) {
 			logicalSession.setAttribute(attributeName, csrfe);
@@ -30,6 +30,7 @@
 package org.owasp.csrfguard.tag;
 
 import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.session.LogicalSession;
 import org.owasp.csrfguard.util.BrowserEncoder;
 
@@ -51,7 +52,7 @@ public final class ATag extends AbstractUriTag implements DynamicAttributes {
 		final CsrfGuard csrfGuard = CsrfGuard.getInstance();
 		final String tokenName = csrfGuard.getTokenName();
 
-		final LogicalSession logicalSession = csrfGuard.getLogicalSessionExtractor().extract((HttpServletRequest) this.pageContext.getRequest());
+		final LogicalSession logicalSession = CsrfGuardRequestContext.get((HttpServletRequest) this.pageContext.getRequest()).getLogicalSession();
 		final String tokenValue = Objects.nonNull(logicalSession) ? csrfGuard.getTokenService().getTokenValue(logicalSession.getKey(), buildUri(this.attributes.get("href"))) : null;
 
 		try {
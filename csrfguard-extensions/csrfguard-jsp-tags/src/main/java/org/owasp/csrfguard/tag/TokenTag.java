@@ -30,6 +30,7 @@
 package org.owasp.csrfguard.tag;
 
 import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.session.LogicalSession;
 
 import javax.servlet.http.HttpServletRequest;
@@ -49,7 +50,7 @@ public final class TokenTag extends AbstractUriTag {
 			throw new IllegalStateException("Must define 'uri' attribute when token per page is enabled");
 		}
 
-		final LogicalSession logicalSession = csrfGuard.getLogicalSessionExtractor().extract((HttpServletRequest) this.pageContext.getRequest());
+		final LogicalSession logicalSession = CsrfGuardRequestContext.get((HttpServletRequest) this.pageContext.getRequest()).getLogicalSession();
 		final String tokenValue = Objects.nonNull(logicalSession) ? csrfGuard.getTokenService().getTokenValue(logicalSession.getKey(), getUri()) : null;
 
 		try {
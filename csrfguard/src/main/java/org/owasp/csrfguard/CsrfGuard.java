@@ -32,17 +32,21 @@ package org.owasp.csrfguard;
 import org.owasp.csrfguard.action.IAction;
 import org.owasp.csrfguard.config.ConfigurationProvider;
 import org.owasp.csrfguard.config.ConfigurationProviderFactory;
+import org.owasp.csrfguard.config.ConfigurationSnapshot;
 import org.owasp.csrfguard.config.NullConfigurationProvider;
 import org.owasp.csrfguard.config.PropertiesConfigurationProviderFactory;
-import org.owasp.csrfguard.config.overlay.ExpirableCache;
 import org.owasp.csrfguard.config.properties.ConfigParameters;
 import org.owasp.csrfguard.log.ILogger;
+import org.owasp.csrfguard.servlet.JavaScriptTemplate;
 import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.SignedTokenKeyRing;
 import org.owasp.csrfguard.token.service.TokenService;
 import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.util.BoundedConcurrentCache;
 import org.owasp.csrfguard.util.CsrfGuardPropertiesToStringBuilder;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
+import org.owasp.csrfguard.util.TokenFormat;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,14 +61,18 @@ public class CsrfGuard {
     /**
      * cache the configuration for a minute
      */
-    private static final ExpirableCache<Boolean, ConfigurationProvider> configurationProviderExpirableCache = new ExpirableCache<>(1);
+    private static final Duration CONFIGURATION_TIME_TO_LIVE = Duration.ofMinutes(1);
+
+    private static final ConfigurationSnapshot NULL_CONFIGURATION_SNAPSHOT = new ConfigurationSnapshot(new NullConfigurationProvider(), CONFIGURATION_TIME_TO_LIVE);
+
+    private final Object configurationLock = new Object();
+
+    private volatile Properties properties = null;
 
     /**
-     * cache regex patterns here
+     * the currently published configuration, read without locking on every request
      */
-    private final Map<String, Pattern> regexPatternCache = new HashMap<>();
-
-    private Properties properties = null;
+    private volatile ConfigurationSnapshot configurationSnapshot = null;
 
     public CsrfGuard() {}
 
@@ -73,12 +81,20 @@ public class CsrfGuard {
     }
 
     public static void load(final Properties theProperties) {
-        getInstance().properties = theProperties;
-        configurationProviderExpirableCache.clear();
+        final CsrfGuard csrfGuard = getInstance();
+        synchronized (csrfGuard.configurationLock) {
+            csrfGuard.properties = theProperties;
+            csrfGuard.configurationSnapshot = null;
+        }
     }
 
+    /**
+     * @return an empty map, the patterns of the protected and unprotected pages are compiled once per configuration snapshot
+     * @deprecated use {@link #getProtectedPagesMatcher()} and {@link #getUnprotectedPagesMatcher()}
+     */
+    @Deprecated
     public Map<String, Pattern> getRegexPatternCache() {
-        return this.regexPatternCache;
+        return new HashMap<>();
     }
 
     public ILogger getLogger() {
@@ -105,6 +121,14 @@ public class CsrfGuard {
         return config().isTokenPerPagePrecreateEnabled();
     }
 
+    /**
+     * @return true if the page tokens are derived from the master token instead of being stored
+     * @see ConfigurationProvider#isTokenPerPageDerivedEnabled()
+     */
+    public boolean isTokenPerPageDerived() {
+        return isTokenPerPageEnabled() && config().isTokenPerPageDerivedEnabled();
+    }
+
     /**
      * If csrf guard filter should check even if there is no session for the user
      * Note: this changed in 2014/04/20, the default behavior used to be to
@@ -121,6 +145,38 @@ public class CsrfGuard {
         return config().getPrng();
     }
 
+    /**
+     * @return a new, independently seeded instance of the configured random generator
+     * @see ConfigurationProvider#createPrng()
+     */
+    public SecureRandom createPrng() {
+        return config().createPrng();
+    }
+
+    public TokenFormat getTokenFormat() {
+        return config().getTokenFormat();
+    }
+
+    public boolean isPrngPerThread() {
+        return config().isPrngPerThread();
+    }
+
+    public int getTokenPoolSize() {
+        return config().getTokenPoolSize();
+    }
+
+    public int getTokenPoolRefillWatermark() {
+        return config().getTokenPoolRefillWatermark();
+    }
+
+    public int getAsyncActionsThreads() {
+        return config().getAsyncActionsThreads();
+    }
+
+    public int getAsyncActionsQueueSize() {
+        return config().getAsyncActionsQueueSize();
+    }
+
     public String getNewTokenLandingPage() {
         return config().getNewTokenLandingPage();
     }
@@ -156,6 +212,47 @@ public class CsrfGuard {
         return config().getUnprotectedPages();
     }
 
+    /**
+     * @return the compiled form of {@link #getProtectedPages()}
+     */
+    public UriMatcher getProtectedPagesMatcher() {
+        return configurationSnapshot().getProtectedPagesMatcher();
+    }
+
+    /**
+     * @return the JavaScript template compiled for the current configuration
+     */
+    public JavaScriptTemplate getJavaScriptTemplate() {
+        return configurationSnapshot().getJavaScriptTemplate();
+    }
+
+    /**
+     * @return the compiled form of {@link #getUnprotectedPages()}
+     */
+    public UriMatcher getUnprotectedPagesMatcher() {
+        return configurationSnapshot().getUnprotectedPagesMatcher();
+    }
+
+    /**
+     * @return the cache of the page protection decisions bound to the current configuration, or null if caching is disabled
+     * @see ConfigurationProvider#getProtectionDecisionCacheSize()
+     */
+    public BoundedConcurrentCache<String, ProtectionResult> getProtectionDecisionCache() {
+        return configurationSnapshot().getProtectionDecisionCache();
+    }
+
+    /**
+     * @return true if the master tokens are stateless signed values instead of stored random values
+     * @see ConfigurationProvider#getSignedTokenKeyRing()
+     */
+    public boolean isSignedTokenEnabled() {
+        return Objects.nonNull(config().getSignedTokenKeyRing());
+    }
+
+    public SignedTokenKeyRing getSignedTokenKeyRing() {
+        return config().getSignedTokenKeyRing();
+    }
+
     public TokenHolder getTokenHolder() {
         return config().getTokenHolder();
     }
@@ -220,6 +317,10 @@ public class CsrfGuard {
         return config().isJavascriptInjectIntoDynamicallyCreatedNodes();
     }
 
+    public boolean isJavascriptStaticScript() {
+        return config().isJavascriptStaticScript();
+    }
+
     public String getJavascriptDynamicNodeCreationEventName() {
         return config().getJavascriptDynamicNodeCreationEventName();
     }
@@ -278,7 +379,7 @@ public class CsrfGuard {
      * @return True if rotation is enabled and possible
      */
     public boolean isRotateEnabled(final HttpServletRequest request) {
-        return isRotateEnabled() && !CsrfGuardUtils.isAjaxRequest(request);
+        return isRotateEnabled() && !CsrfGuardRequestContext.get(request).isAjaxRequest();
     }
 
     /**
@@ -315,7 +416,7 @@ public class CsrfGuard {
      */
     public void onSessionDestroyed(final LogicalSession logicalSession) {
         final TokenHolder tokenHolder = getTokenHolder();
-        if (Objects.nonNull(tokenHolder)) {
+        if (Objects.nonNull(tokenHolder) && !isSignedTokenEnabled()) {
             tokenHolder.remove(logicalSession.getKey());
         }
     }
@@ -375,30 +476,69 @@ public class CsrfGuard {
 
 
     private ConfigurationProvider config() {
+        return configurationSnapshot().getConfigurationProvider();
+    }
+
+    private ConfigurationSnapshot configurationSnapshot() {
         if (this.properties == null) {
-            return new NullConfigurationProvider();
+            return NULL_CONFIGURATION_SNAPSHOT;
         }
 
-        ConfigurationProvider configurationProvider = configurationProviderExpirableCache.get(Boolean.TRUE);
+        final ConfigurationSnapshot snapshot = this.configurationSnapshot;
 
-        if (configurationProvider == null) {
+        return Objects.nonNull(snapshot) && !snapshot.isExpired() ? snapshot : reloadConfiguration(snapshot);
+    }
 
-            synchronized (CsrfGuard.class) {
-                configurationProvider = retrieveNewConfig();
-            }
-        } else if (!configurationProvider.isCacheable()) {
+    /**
+     * Publishes a new configuration snapshot. Only the thread that finds the snapshot expired takes the lock,
+     * the others keep reading the published snapshot without any synchronization.
+     *
+     * @param expiredSnapshot the snapshot that was found expired, or null if none was published yet
+     * @return the snapshot to be used by the calling thread
+     */
+    private ConfigurationSnapshot reloadConfiguration(final ConfigurationSnapshot expiredSnapshot) {
+        if (Objects.nonNull(expiredSnapshot) && !expiredSnapshot.getConfigurationProvider().isCacheable()) {
             /* don't synchronize if not cacheable */
-            configurationProvider = retrieveNewConfig();
+            final ConfigurationProvider configurationProvider = retrieveNewConfig();
+
+            if (configurationProvider == expiredSnapshot.getConfigurationProvider()) {
+                return expiredSnapshot;
+            }
+
+            return publish(expiredSnapshot, configurationProvider);
+        }
+
+        synchronized (this.configurationLock) {
+            final ConfigurationSnapshot currentSnapshot = this.configurationSnapshot;
+
+            /* another thread might have already reloaded the configuration while this one was waiting for the lock */
+            if (currentSnapshot != expiredSnapshot && Objects.nonNull(currentSnapshot) && !currentSnapshot.isExpired()) {
+                return currentSnapshot;
+            }
+
+            final ConfigurationSnapshot newSnapshot = new ConfigurationSnapshot(retrieveNewConfig(), CONFIGURATION_TIME_TO_LIVE);
+            this.configurationSnapshot = newSnapshot;
+            return newSnapshot;
+        }
+    }
+
+    private ConfigurationSnapshot publish(final ConfigurationSnapshot expiredSnapshot, final ConfigurationProvider configurationProvider) {
+        final ConfigurationSnapshot newSnapshot = new ConfigurationSnapshot(configurationProvider, CONFIGURATION_TIME_TO_LIVE);
+
+        synchronized (this.configurationLock) {
+            /* do not overwrite a snapshot published in the meantime, e.g. by a call to load() */
+            if (this.configurationSnapshot == expiredSnapshot) {
+                this.configurationSnapshot = newSnapshot;
+            }
         }
 
-        return configurationProvider;
+        return newSnapshot;
     }
 
     /**
      * @return new provider
      */
     private ConfigurationProvider retrieveNewConfig() {
-        final ConfigurationProvider configurationProvider;
         /* lets see what provider we are using */
         final String configurationProviderFactoryClassName = this.properties.getProperty(ConfigParameters.CONFIG_PROVIDER_FACTORY_PROPERTY_NAME, PropertiesConfigurationProviderFactory.class.getName());
 
@@ -406,9 +546,7 @@ public class CsrfGuard {
 
         final ConfigurationProviderFactory configurationProviderFactory = CsrfGuardUtils.newInstance(configurationProviderFactoryClass);
 
-        configurationProvider = configurationProviderFactory.retrieveConfiguration(this.properties);
-        configurationProviderExpirableCache.put(Boolean.TRUE, configurationProvider);
-        return configurationProvider;
+        return configurationProviderFactory.retrieveConfiguration(this.properties);
     }
 
     private static final class SingletonHolder {
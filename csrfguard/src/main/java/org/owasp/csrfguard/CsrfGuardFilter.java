@@ -31,8 +31,8 @@ package org.owasp.csrfguard;
 
 import org.owasp.csrfguard.http.InterceptRedirectResponse;
 import org.owasp.csrfguard.log.LogLevel;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
 import org.owasp.csrfguard.session.LogicalSession;
-import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 import org.owasp.csrfguard.token.transferobject.TokenTO;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
 
@@ -75,42 +75,51 @@ public final class CsrfGuardFilter implements Filter {
     private void doFilter(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse, final FilterChain filterChain, final CsrfGuard csrfGuard) throws IOException, ServletException {
         final InterceptRedirectResponse interceptRedirectResponse = new InterceptRedirectResponse(httpServletResponse, httpServletRequest, csrfGuard);
 
-        final LogicalSessionExtractor sessionKeyExtractor = csrfGuard.getLogicalSessionExtractor();
-        final LogicalSession logicalSession = sessionKeyExtractor.extract(httpServletRequest);
+        final CsrfGuardRequestContext requestContext = CsrfGuardRequestContext.get(httpServletRequest);
+
+        if (!requestContext.getProtectionResult().isProtected()) {
+            /* unprotected resources (e.g. static assets) do not need the session or any token, only the redirects are intercepted */
+            CsrfGuardMetrics.getUnprotectedRequests().increment();
+            filterChain.doFilter(httpServletRequest, interceptRedirectResponse);
+            return;
+        }
+
+        final LogicalSession logicalSession = requestContext.getLogicalSession();
 
         if (Objects.isNull(logicalSession)) {
-            handleNoSession(httpServletRequest, httpServletResponse, interceptRedirectResponse, filterChain, csrfGuard);
+            handleNoSession(httpServletRequest, httpServletResponse, interceptRedirectResponse, filterChain, requestContext, csrfGuard);
         } else {
-            handleSession(httpServletRequest, interceptRedirectResponse, filterChain, logicalSession, csrfGuard);
+            handleSession(httpServletRequest, interceptRedirectResponse, filterChain, logicalSession, requestContext, csrfGuard);
         }
     }
 
     private void handleSession(final HttpServletRequest httpServletRequest, final InterceptRedirectResponse interceptRedirectResponse, final FilterChain filterChain,
-                               final LogicalSession logicalSession, final CsrfGuard csrfGuard) throws IOException, ServletException {
+                               final LogicalSession logicalSession, final CsrfGuardRequestContext requestContext, final CsrfGuard csrfGuard) throws IOException, ServletException {
 
         final String logicalSessionKey = logicalSession.getKey();
 
         if (logicalSession.isNew() && csrfGuard.isUseNewTokenLandingPage()) {
             csrfGuard.writeLandingPage(httpServletRequest, interceptRedirectResponse, logicalSessionKey);
         } else if (new CsrfValidator().isValid(httpServletRequest, interceptRedirectResponse)) {
-            filterChain.doFilter(httpServletRequest, interceptRedirectResponse);
+            doFilterChain(httpServletRequest, interceptRedirectResponse, filterChain, requestContext);
+        } else if (requestContext.isPreempted()) {
+            return;
         } else {
             logInvalidRequest(httpServletRequest, csrfGuard);
         }
 
-        // TODO this is not needed in case of un-protected pages
         final String requestURI = httpServletRequest.getRequestURI();
-        final String generatedToken = csrfGuard.getTokenService().generateTokensIfAbsent(logicalSessionKey, httpServletRequest.getMethod(), requestURI);
+        final String generatedToken = csrfGuard.getTokenService().generateTokensIfAbsent(logicalSessionKey, requestContext.getProtectionResult());
 
         CsrfGuardUtils.addResponseTokenHeader(csrfGuard, httpServletRequest, interceptRedirectResponse, new TokenTO(Collections.singletonMap(requestURI, generatedToken)));
     }
 
     private void handleNoSession(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse, final InterceptRedirectResponse interceptRedirectResponse, final FilterChain filterChain,
-                                 final CsrfGuard csrfGuard) throws IOException, ServletException {
+                                 final CsrfGuardRequestContext requestContext, final CsrfGuard csrfGuard) throws IOException, ServletException {
         if (csrfGuard.isValidateWhenNoSessionExists()) {
             if (new CsrfValidator().isValid(httpServletRequest, interceptRedirectResponse)) {
-                filterChain.doFilter(httpServletRequest, interceptRedirectResponse);
-            } else {
+                doFilterChain(httpServletRequest, interceptRedirectResponse, filterChain, requestContext);
+            } else if (!requestContext.isPreempted()) {
                 logInvalidRequest(httpServletRequest, csrfGuard);
             }
         } else {
@@ -118,6 +127,13 @@ public final class CsrfGuardFilter implements Filter {
         }
     }
 
+    private static void doFilterChain(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse, final FilterChain filterChain,
+                                      final CsrfGuardRequestContext requestContext) throws IOException, ServletException {
+        /* the application might invalidate or replace the session, so it is extracted again when needed afterwards */
+        requestContext.resetLogicalSession();
+        filterChain.doFilter(httpServletRequest, httpServletResponse);
+    }
+
     private void handleNonHttpServletMessages(final ServletRequest request, final ServletResponse response, final FilterChain filterChain, final CsrfGuard csrfGuard) throws IOException, ServletException {
         final String message = String.format("CSRFGuard does not know how to work with requests of class %s ", request.getClass().getName());
         csrfGuard.getLogger().log(LogLevel.Warning, message);
@@ -127,9 +143,6 @@ public final class CsrfGuardFilter implements Filter {
     }
 
     private void logInvalidRequest(final HttpServletRequest httpRequest, final CsrfGuard csrfGuard) {
-        final String requestURI = httpRequest.getRequestURI();
-        final String remoteAddress = httpRequest.getRemoteAddr();
-
-        csrfGuard.getLogger().log(LogLevel.Warning, String.format("Invalid request: \r\nURI: \r\n%s\r\n Remote Address: %s", requestURI, remoteAddress));
+        csrfGuard.getLogger().log(LogLevel.Warning, "Invalid request: \r\nURI: \r\n%s\r\n Remote Address: %s", httpRequest.getRequestURI(), httpRequest.getRemoteAddr());
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard;
+
+import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.util.CsrfGuardUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Objects;
+
+/**
+ * Holds the CSRFGuard related information of a single HTTP request, so that it is computed at most once, regardless of how many components
+ * (filter, validator, token service, actions, response wrapper, tags) need it.
+ * <p>
+ * The context is bound to the request as an attribute, and every value is computed lazily on first access. It is not thread-safe, as it is
+ * meant to be used by the thread processing the request.
+ * <p>
+ * A missing logical session is not memoized, because the application might create one while processing the request.
+ */
+public final class CsrfGuardRequestContext {
+
+    private static final String ATTRIBUTE_NAME = CsrfGuardRequestContext.class.getName();
+
+    private final HttpServletRequest request;
+    private final CsrfGuard csrfGuard;
+
+    private LogicalSession logicalSession;
+    private String normalizedResourceUri;
+    private ProtectionResult protectionResult;
+    private Boolean ajaxRequest;
+    private boolean tokenFromRequestExtracted;
+    private String tokenFromRequest;
+    private boolean preempted;
+
+    private CsrfGuardRequestContext(final HttpServletRequest request, final CsrfGuard csrfGuard) {
+        this.request = request;
+        this.csrfGuard = csrfGuard;
+    }
+
+    /**
+     * @param request the current HTTP servlet request
+     * @return the context bound to the request, or a newly created one, bound to the request
+     */
+    public static CsrfGuardRequestContext get(final HttpServletRequest request) {
+        final Object attribute = request.getAttribute(ATTRIBUTE_NAME);
+
+        final CsrfGuardRequestContext requestContext;
+        if (attribute instanceof CsrfGuardRequestContext) {
+            requestContext = (CsrfGuardRequestContext) attribute;
+        } else {
+            requestContext = new CsrfGuardRequestContext(request, CsrfGuard.getInstance());
+            request.setAttribute(ATTRIBUTE_NAME, requestContext);
+        }
+        return requestContext;
+    }
+
+    /**
+     * @return the logical session of the request, or null if it does not exist
+     */
+    public LogicalSession getLogicalSession() {
+        if (Objects.isNull(this.logicalSession)) {
+            this.logicalSession = this.csrfGuard.getLogicalSessionExtractor().extract(this.request);
+        }
+        return this.logicalSession;
+    }
+
+    /**
+     * Forgets the extracted logical session, e.g. after it was invalidated or when the application takes over the request and might replace it.
+     */
+    public void resetLogicalSession() {
+        this.logicalSession = null;
+    }
+
+    public String getNormalizedResourceUri() {
+        if (Objects.isNull(this.normalizedResourceUri)) {
+            this.normalizedResourceUri = CsrfGuardUtils.normalizeResourceURI(this.request);
+        }
+        return this.normalizedResourceUri;
+    }
+
+    public ProtectionResult getProtectionResult() {
+        if (Objects.isNull(this.protectionResult)) {
+            this.protectionResult = new CsrfValidator().isProtectedPageAndMethod(getNormalizedResourceUri(), this.request.getMethod());
+        }
+        return this.protectionResult;
+    }
+
+    /**
+     * @return true if the request was sent using AJAX (regardless of whether the AJAX support is enabled)
+     */
+    public boolean isAjaxRequest() {
+        if (Objects.isNull(this.ajaxRequest)) {
+            this.ajaxRequest = CsrfGuardUtils.isAjaxRequest(this.request);
+        }
+        return this.ajaxRequest;
+    }
+
+    /**
+     * @return true if the AJAX support is enabled and the request was sent using AJAX
+     */
+    public boolean isAjaxEnabledRequest() {
+        return this.csrfGuard.isAjaxEnabled() && isAjaxRequest();
+    }
+
+    /**
+     * Marks the rejected request as fully handled by an {@link org.owasp.csrfguard.action.IPreemptiveAction}.
+     */
+    public void setPreempted() {
+        this.preempted = true;
+    }
+
+    /**
+     * @return true if the rejected request was fully handled by an {@link org.owasp.csrfguard.action.IPreemptiveAction},
+     * so no further processing (e.g. logging or token generation) is needed
+     */
+    public boolean isPreempted() {
+        return this.preempted;
+    }
+
+    /**
+     * @return the token sent in the request header (AJAX) or parameter, or null if the request does not contain it
+     */
+    public String getTokenFromRequest() {
+        if (!this.tokenFromRequestExtracted) {
+            final String tokenName = this.csrfGuard.getTokenName();
+            this.tokenFromRequest = isAjaxEnabledRequest() ? this.request.getHeader(tokenName) : this.request.getParameter(tokenName);
+            this.tokenFromRequestExtracted = true;
+        }
+        return this.tokenFromRequest;
+    }
+}
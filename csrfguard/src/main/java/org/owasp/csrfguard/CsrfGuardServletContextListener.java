@@ -30,7 +30,11 @@
 package org.owasp.csrfguard;
 
 import org.apache.commons.lang3.StringUtils;
+import org.owasp.csrfguard.action.DeferredActionExecutor;
 import org.owasp.csrfguard.config.overlay.ConfigurationOverlayProvider;
+import org.owasp.csrfguard.log.AsyncLogger;
+import org.owasp.csrfguard.token.TokenUtils;
+import org.owasp.csrfguard.token.storage.TokenHolder;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
@@ -104,6 +108,9 @@ public class CsrfGuardServletContextListener implements ServletContextListener {
 			throw new RuntimeException(e);
 		}
 
+		/* initialize the token holder eagerly, so the persistent implementations restore their tokens before the first request */
+		CsrfGuard.getInstance().getTokenHolder();
+
 		printConfigIfConfigured(context, "Printing properties before JavaScript servlet, note, the JavaScript properties might not be initialized yet: ");
 	}
 
@@ -140,7 +147,22 @@ public class CsrfGuardServletContextListener implements ServletContextListener {
 
 	@Override
 	public void contextDestroyed(final ServletContextEvent event) {
-		/* nothing to do */
+		TokenUtils.shutdownTokenPool();
+		DeferredActionExecutor.shutdown();
+
+		final TokenHolder tokenHolder = CsrfGuard.getInstance().getTokenHolder();
+
+		/* e.g. persist the pending changes of the token holder */
+		if (tokenHolder instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) tokenHolder).close();
+			} catch (final Exception e) {
+				event.getServletContext().log("Could not close the OWASP CSRFGuard token holder.", e);
+			}
+		}
+
+		/* writes the pending messages, so it is done last */
+		AsyncLogger.shutdown();
 	}
 
 	private InputStream getResourceStream(final String resourceName, final ServletContext context, final boolean failIfNotFound) throws IOException {
@@ -28,26 +28,27 @@
  */
 package org.owasp.csrfguard;
 
-import org.apache.commons.lang3.StringUtils;
+import org.owasp.csrfguard.action.DeferredActionExecutor;
 import org.owasp.csrfguard.action.IAction;
+import org.owasp.csrfguard.action.IDeferredAction;
+import org.owasp.csrfguard.action.IPreemptiveAction;
 import org.owasp.csrfguard.log.ILogger;
 import org.owasp.csrfguard.log.LogLevel;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
 import org.owasp.csrfguard.servlet.JavaScriptServlet;
 import org.owasp.csrfguard.session.LogicalSession;
 import org.owasp.csrfguard.token.businessobject.TokenBO;
 import org.owasp.csrfguard.token.mapper.TokenMapper;
 import org.owasp.csrfguard.token.service.TokenService;
 import org.owasp.csrfguard.token.transferobject.TokenTO;
+import org.owasp.csrfguard.util.BoundedConcurrentCache;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
 import org.owasp.csrfguard.util.MessageConstants;
-import org.owasp.csrfguard.util.RegexValidationUtil;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.UnaryOperator;
-import java.util.regex.Pattern;
 
 public final class CsrfValidator {
 
@@ -58,19 +59,26 @@ public final class CsrfValidator {
     }
 
     public boolean isValid(final HttpServletRequest request, final HttpServletResponse response) {
+        final long start = System.nanoTime();
         final boolean isValid;
 
         final ILogger logger = this.csrfGuard.getLogger();
-        final String normalizedResourceURI = CsrfGuardUtils.normalizeResourceURI(request);
-        final ProtectionResult protectionResult = isProtectedPageAndMethod(request);
+        final CsrfGuardRequestContext requestContext = CsrfGuardRequestContext.get(request);
+        final String normalizedResourceURI = requestContext.getNormalizedResourceUri();
+        final ProtectionResult protectionResult = requestContext.getProtectionResult();
         if (protectionResult.isProtected()) {
-            logger.log(LogLevel.Debug, String.format("CSRFGuard analyzing protected resource: '%s'", normalizedResourceURI));
+            logger.log(LogLevel.Debug, "CSRFGuard analyzing protected resource: '%s'", normalizedResourceURI);
             isValid = isTokenValidInRequest(request, response, protectionResult.getResourceIdentifier());
+            if (isValid) {
+                CsrfGuardMetrics.getValidatedRequests().increment();
+            }
         } else {
-            logger.log(LogLevel.Debug, String.format("Unprotected page: %s", normalizedResourceURI));
+            /* counted by the filter, which does not validate the unprotected requests */
+            logger.log(LogLevel.Debug, "Unprotected page: %s", normalizedResourceURI);
             isValid = true;
         }
 
+        CsrfGuardMetrics.getValidationDuration().recordSince(start);
         return isValid;
     }
 
@@ -88,63 +96,36 @@ public final class CsrfValidator {
         if (JavaScriptServlet.getJavascriptUris().contains(normalizedResourceUri)) {
             /* if this is a javascript page, let it go through */
             protectionResult = new ProtectionResult(false, normalizedResourceUri);
-        } else if (this.csrfGuard.isProtectEnabled()) {
-            /* all links are unprotected, except the ones that were explicitly specified */
-            protectionResult = isUriMatch(normalizedResourceUri, this.csrfGuard.getProtectedPages(), v -> v, false);
         } else {
-            /* all links are protected, except the ones were explicitly excluded */
-            protectionResult = isUriMatch(normalizedResourceUri, this.csrfGuard.getUnprotectedPages(), v -> new ProtectionResult(false, v.getResourceIdentifier()), true);
+            final BoundedConcurrentCache<String, ProtectionResult> protectionDecisionCache = this.csrfGuard.getProtectionDecisionCache();
+
+            protectionResult = Objects.isNull(protectionDecisionCache) ? computePageProtection(normalizedResourceUri)
+                                                                       : protectionDecisionCache.computeIfAbsent(normalizedResourceUri, this::computePageProtection);
         }
         return protectionResult;
     }
 
-    private static boolean isUriPathMatch(final String configuredPageUri, final String requestUri) {
-        return configuredPageUri.equals("/*") || (configuredPageUri.endsWith("/*") && (configuredPageUri.regionMatches(0, requestUri, 0, configuredPageUri.length() - 2)
-                                                                                   && ((requestUri.length() == (configuredPageUri.length() - 2)) || ('/' == requestUri.charAt(configuredPageUri.length() - 2)))));
-    }
+    private ProtectionResult computePageProtection(final String normalizedResourceUri) {
+        final ProtectionResult protectionResult;
 
-    /**
-     * FIXME: taken from Tomcat - <a href="https://github.com/apache/tomcat/blob/master/java/org/apache/catalina/core/ApplicationFilterFactory.java">ApplicationFilterFactory#matchFiltersURL</a>
-     */
-    private static boolean isExtensionMatch(final String testPath, final String requestPath) {
-        final boolean result;
-        if (StringUtils.startsWith(testPath, "*.")) {
-            final int slash = requestPath.lastIndexOf('/');
-            final int period = requestPath.lastIndexOf('.');
-
-            if ((slash >= 0)
-                && (period > slash)
-                && (period != requestPath.length() - 1)
-                && ((requestPath.length() - period) == (testPath.length() - 1))) {
-                result = testPath.regionMatches(2, requestPath, period + 1, testPath.length() - 2);
-            } else {
-                result = false;
-            }
+        if (this.csrfGuard.isProtectEnabled()) {
+            /* all links are unprotected, except the ones that were explicitly specified */
+            final String resourceIdentifier = this.csrfGuard.getProtectedPagesMatcher().match(normalizedResourceUri);
+            protectionResult = Objects.nonNull(resourceIdentifier) ? new ProtectionResult(true, resourceIdentifier)
+                                                                   : new ProtectionResult(false, normalizedResourceUri);
         } else {
-            result = false;
-        }
-
-        return result;
-    }
-
-    private ProtectionResult isUriMatch(final String normalizedResourceUri, final Set<String> pages, final UnaryOperator<ProtectionResult> operator, final boolean isProtected) {
-        for (final String page : pages) {
-            final ProtectionResult protectionResult = isUriMatch(page, normalizedResourceUri);
-            if (protectionResult.isProtected()) {
-                return operator.apply(protectionResult);
-            }
+            /* all links are protected, except the ones were explicitly excluded */
+            final String resourceIdentifier = this.csrfGuard.getUnprotectedPagesMatcher().match(normalizedResourceUri);
+            protectionResult = Objects.nonNull(resourceIdentifier) ? new ProtectionResult(false, resourceIdentifier)
+                                                                   : new ProtectionResult(true, normalizedResourceUri);
         }
-        return new ProtectionResult(isProtected, normalizedResourceUri);
+        return protectionResult;
     }
 
     private TokenService getTokenService() {
         return new TokenService(this.csrfGuard);
     }
 
-    private ProtectionResult isProtectedPageAndMethod(final HttpServletRequest request) {
-        return isProtectedPageAndMethod(request.getRequestURI(), request.getMethod());
-    }
-
     /**
      * Whether or not the HTTP method is protected, i.e. should be checked for token.
      *
@@ -167,43 +148,19 @@ public final class CsrfValidator {
         return isProtected;
     }
 
-    /**
-     * @param configuredPageUri the pattern to match.
-     * @param requestUri        the current request path.
-     * @return {@code true} if {@code requestUri} matches {@code configuredPageUri}.
-     */
-    private ProtectionResult isUriMatch(final String configuredPageUri, final String requestUri) {
-        if (Objects.nonNull(configuredPageUri)) {
-            if (configuredPageUri.equals(requestUri) || isUriPathMatch(configuredPageUri, requestUri) || isExtensionMatch(configuredPageUri, requestUri)) {
-                return new ProtectionResult(true, requestUri);
-            } else if (isUriRegexMatch(configuredPageUri, requestUri)) {
-                return new ProtectionResult(true, configuredPageUri);
-            } else {
-                return new ProtectionResult(false, requestUri);
-            }
-        } else {
-            return new ProtectionResult(false, requestUri);
-        }
-    }
-
-    private boolean isUriRegexMatch(final String configuredPageUri, final String requestUri) {
-        return RegexValidationUtil.isTestPathRegex(configuredPageUri) && this.csrfGuard.getRegexPatternCache().computeIfAbsent(configuredPageUri, k -> Pattern.compile(configuredPageUri))
-                                                                                       .matcher(requestUri)
-                                                                                       .matches();
-    }
-
     private boolean isTokenValidInRequest(final HttpServletRequest request, final HttpServletResponse response, final String resourceIdentifier) {
         boolean isValid = false;
 
         final CsrfGuard csrfGuard = CsrfGuard.getInstance();
-        final LogicalSession logicalSession = csrfGuard.getLogicalSessionExtractor().extract(request);
+        final LogicalSession logicalSession = CsrfGuardRequestContext.get(request).getLogicalSession();
 
         if (Objects.nonNull(logicalSession)) {
             final TokenService tokenService = getTokenService();
             final String logicalSessionKey = logicalSession.getKey();
-            final String masterToken = tokenService.getMasterToken(logicalSessionKey);
+            /* signed tokens are verified by computation, there is no stored master token to compare with */
+            final String masterToken = csrfGuard.isSignedTokenEnabled() ? null : tokenService.getMasterToken(logicalSessionKey);
 
-            if (Objects.nonNull(masterToken)) {
+            if (csrfGuard.isSignedTokenEnabled() || Objects.nonNull(masterToken)) {
                 try {
                     final TokenBO tokenBO = tokenService.verifyToken(request, resourceIdentifier, logicalSessionKey, masterToken);
 
@@ -228,7 +185,8 @@ public final class CsrfValidator {
 
     /**
      * Invoked when there was a CsrfGuardException such as a token mismatch error.
-     * Calls the configured actions.
+     * Calls the configured actions. A {@link IPreemptiveAction} can skip the remaining actions,
+     * and the work of a {@link IDeferredAction} might be executed on a background thread.
      *
      * @param request            The HttpServletRequest
      * @param response           The HttpServletResponse
@@ -236,9 +194,23 @@ public final class CsrfValidator {
      * @see IAction#execute(HttpServletRequest, HttpServletResponse, CsrfGuardException, CsrfGuard)
      */
     private void callActionsOnError(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfGuardException) {
+        CsrfGuardMetrics.getRejectedRequests(csrfGuardException).increment();
+
         for (final IAction action : this.csrfGuard.getActions()) {
             try {
-                action.execute(request, response, csrfGuardException, this.csrfGuard);
+                if (action instanceof IPreemptiveAction) {
+                    if (!((IPreemptiveAction) action).preempt(request, response, csrfGuardException, this.csrfGuard)) {
+                        CsrfGuardRequestContext.get(request).setPreempted();
+                        return;
+                    }
+                } else if (action instanceof IDeferredAction) {
+                    final Runnable task = ((IDeferredAction) action).defer(request, csrfGuardException, this.csrfGuard);
+                    if (Objects.nonNull(task)) {
+                        DeferredActionExecutor.execute(this.csrfGuard, task);
+                    }
+                } else {
+                    action.execute(request, response, csrfGuardException, this.csrfGuard);
+                }
             } catch (final CsrfGuardException exception) {
                 this.csrfGuard.getLogger().log(LogLevel.Error, exception);
             }
@@ -0,0 +1,277 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of OWASP nor the names of its contributors may be used
+ *     to endorse or promote products derived from this software without specific
+ *     prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard;
+
+import org.owasp.csrfguard.util.RegexValidationUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches request URIs against a set of configured page descriptors (exact URIs, {@code /path/*} prefixes, {@code *.extension} wildcards
+ * and {@code ^regex$} expressions) without iterating over every descriptor on each request.
+ * <p>
+ * The descriptors are compiled once into a hash map for the exact URIs, a path segment trie for the prefix wildcards,
+ * a table for the extensions and a single alternation for the regular expressions.
+ * <p>
+ * The result is the same as evaluating the descriptors one by one in the iteration order of the configured collection:
+ * the first matching descriptor wins, and the resource identifier is the request URI itself, unless the first match is a regular expression,
+ * in which case it is the regular expression.
+ */
+public final class UriMatcher {
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private static final Pattern BACK_REFERENCE_PATTERN = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+    private final Map<String, Integer> exactMatches = new HashMap<>();
+
+    private final PathNode pathRoot = new PathNode();
+
+    private final Map<String, Integer> extensionMatches = new HashMap<>();
+
+    private final List<RegexEntry> regexEntries = new ArrayList<>();
+
+    private final Pattern combinedRegex;
+
+    private int matchAllIndex = NO_MATCH;
+
+    /**
+     * @param configuredPages the page descriptors, evaluated in the iteration order of the collection
+     */
+    public UriMatcher(final Collection<String> configuredPages) {
+        int index = 0;
+
+        for (final String configuredPage : configuredPages) {
+            if (Objects.nonNull(configuredPage)) {
+                addPage(configuredPage, index);
+            }
+            index++;
+        }
+
+        this.combinedRegex = combineRegexEntries(this.regexEntries);
+    }
+
+    /**
+     * @param normalizedResourceUri the normalized request URI
+     * @return the resource identifier of the first matching page descriptor, or null if none of them matches
+     */
+    public String match(final String normalizedResourceUri) {
+        final int nonRegexIndex = findNonRegexMatchIndex(normalizedResourceUri);
+        final RegexEntry regexEntry = findRegexMatch(normalizedResourceUri, nonRegexIndex);
+
+        if (Objects.nonNull(regexEntry)) {
+            return regexEntry.regex;
+        }
+
+        return nonRegexIndex != NO_MATCH ? normalizedResourceUri : null;
+    }
+
+    private void addPage(final String configuredPage, final int index) {
+        this.exactMatches.putIfAbsent(configuredPage, index);
+
+        if (configuredPage.equals("/*")) {
+            this.matchAllIndex = Math.min(this.matchAllIndex, index);
+        } else if (configuredPage.endsWith("/*")) {
+            this.pathRoot.add(configuredPage.substring(0, configuredPage.length() - 2), index);
+        }
+
+        if (configuredPage.startsWith("*.")) {
+            this.extensionMatches.putIfAbsent(configuredPage.substring(2), index);
+        }
+
+        if (RegexValidationUtil.isTestPathRegex(configuredPage)) {
+            this.regexEntries.add(new RegexEntry(configuredPage, index));
+        }
+    }
+
+    private int findNonRegexMatchIndex(final String requestUri) {
+        int index = Math.min(this.matchAllIndex, this.exactMatches.getOrDefault(requestUri, NO_MATCH));
+
+        index = Math.min(index, this.pathRoot.findLowestIndex(requestUri));
+
+        if (!this.extensionMatches.isEmpty()) {
+            /* see isExtensionMatch in the Tomcat ApplicationFilterFactory#matchFiltersURL */
+            final int slash = requestUri.lastIndexOf('/');
+            final int period = requestUri.lastIndexOf('.');
+
+            if (slash >= 0 && period > slash && period != requestUri.length() - 1) {
+                index = Math.min(index, this.extensionMatches.getOrDefault(requestUri.substring(period + 1), NO_MATCH));
+            }
+        }
+
+        return index;
+    }
+
+    private RegexEntry findRegexMatch(final String requestUri, final int nonRegexIndex) {
+        if (this.regexEntries.isEmpty() || this.regexEntries.get(0).index > nonRegexIndex) {
+            return null;
+        }
+
+        if (Objects.nonNull(this.combinedRegex)) {
+            final Matcher matcher = this.combinedRegex.matcher(requestUri);
+
+            if (matcher.matches()) {
+                for (final RegexEntry regexEntry : this.regexEntries) {
+                    if (matcher.start(regexEntry.group) >= 0) {
+                        return regexEntry.index < nonRegexIndex ? regexEntry : null;
+                    }
+                }
+            }
+        } else {
+            for (final RegexEntry regexEntry : this.regexEntries) {
+                if (regexEntry.index > nonRegexIndex) {
+                    break;
+                }
+
+                if (regexEntry.pattern.matcher(requestUri).matches()) {
+                    return regexEntry;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Joins the regular expressions into a single alternation, each of them wrapped into its own capturing group, so that the matching
+     * expression can be identified from the group that took part in the match. Expressions with back references can not be safely renumbered
+     * so in that case the expressions are evaluated one by one.
+     */
+    private static Pattern combineRegexEntries(final List<RegexEntry> regexEntries) {
+        if (regexEntries.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder combinedExpression = new StringBuilder();
+        int group = 1;
+
+        for (final RegexEntry regexEntry : regexEntries) {
+            if (BACK_REFERENCE_PATTERN.matcher(regexEntry.regex).find()) {
+                return null;
+            }
+
+            if (combinedExpression.length() > 0) {
+                combinedExpression.append('|');
+            }
+            combinedExpression.append('(').append(regexEntry.regex).append(')');
+
+            regexEntry.group = group;
+            group += regexEntry.pattern.matcher("").groupCount() + 1;
+        }
+
+        try {
+            return Pattern.compile(combinedExpression.toString());
+        } catch (final PatternSyntaxException e) {
+            /* e.g. the same named group is used in multiple expressions */
+            return null;
+        }
+    }
+
+    private static final class RegexEntry {
+
+        private final String regex;
+        private final Pattern pattern;
+        private final int index;
+        private int group;
+
+        private RegexEntry(final String regex, final int index) {
+            this.regex = regex;
+            this.pattern = Pattern.compile(regex);
+            this.index = index;
+        }
+    }
+
+    /**
+     * Trie node keyed by path segments. The index of a {@code /path/*} descriptor is stored on the node of its last segment.
+     */
+    private static final class PathNode {
+
+        private final Map<String, PathNode> children = new HashMap<>();
+        private int index = NO_MATCH;
+
+        private void add(final String path, final int pathIndex) {
+            PathNode node = this;
+            int segmentStart = 0;
+
+            while (true) {
+                final int segmentEnd = nextSegmentEnd(path, segmentStart);
+                node = node.children.computeIfAbsent(path.substring(segmentStart, segmentEnd), k -> new PathNode());
+
+                if (segmentEnd == path.length()) {
+                    break;
+                }
+                segmentStart = segmentEnd + 1;
+            }
+
+            node.index = Math.min(node.index, pathIndex);
+        }
+
+        private int findLowestIndex(final String requestUri) {
+            if (this.children.isEmpty()) {
+                return NO_MATCH;
+            }
+
+            int lowestIndex = NO_MATCH;
+            PathNode node = this;
+            int segmentStart = 0;
+
+            while (true) {
+                final int segmentEnd = nextSegmentEnd(requestUri, segmentStart);
+                node = node.children.get(requestUri.substring(segmentStart, segmentEnd));
+
+                if (Objects.isNull(node)) {
+                    break;
+                }
+
+                lowestIndex = Math.min(lowestIndex, node.index);
+
+                if (segmentEnd == requestUri.length() || node.children.isEmpty()) {
+                    break;
+                }
+                segmentStart = segmentEnd + 1;
+            }
+
+            return lowestIndex;
+        }
+
+        private static int nextSegmentEnd(final String path, final int segmentStart) {
+            final int slash = path.indexOf('/', segmentStart);
+            return slash < 0 ? path.length() : slash;
+        }
+    }
+}
@@ -29,6 +29,8 @@
 
 package org.owasp.csrfguard.action;
 
+import org.apache.commons.lang3.StringUtils;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -70,4 +72,14 @@ public abstract class AbstractAction implements IAction {
 	public Map<String, String> getParameterMap() {
 		return this.parameters;
 	}
+
+	/**
+	 * @param parameterName the name of an optional integer parameter
+	 * @param defaultValue  the value used if the parameter is not set
+	 * @return the value of the parameter, or the default value if it is not set
+	 */
+	protected int getIntParameter(final String parameterName, final int defaultValue) {
+		final String value = this.parameters.get(parameterName);
+		return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+	}
 }
@@ -0,0 +1,180 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.action;
+
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.log.LogLevel;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes the tasks of the {@link IDeferredAction}s on a bounded pool of background threads.
+ * <p>
+ * If the queue of the pool is full, the task is executed on the request thread, which slows down the clients producing the
+ * rejected requests instead of dropping the work. The number of tasks executed in the background and on the request thread is counted.
+ */
+public final class DeferredActionExecutor {
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+	private static final LongAdder deferredCount = new LongAdder();
+	private static final LongAdder callerRunCount = new LongAdder();
+
+	private static volatile ThreadPoolExecutor executor;
+	private static volatile int executorThreads;
+	private static volatile int executorQueueSize;
+
+	private DeferredActionExecutor() {}
+
+	/**
+	 * Executes the task on a background thread if the background execution is enabled, otherwise on the calling thread.
+	 *
+	 * @param csrfGuard the current configuration
+	 * @param task      the task of a deferred action
+	 */
+	public static void execute(final CsrfGuard csrfGuard, final Runnable task) {
+		final ThreadPoolExecutor currentExecutor = getExecutor(csrfGuard);
+
+		if (Objects.isNull(currentExecutor)) {
+			run(csrfGuard, task);
+		} else {
+			currentExecutor.execute(() -> run(csrfGuard, task));
+		}
+	}
+
+	/**
+	 * Executes the pending tasks and stops the background threads. Invoked when the application is shut down.
+	 */
+	public static synchronized void shutdown() {
+		if (Objects.nonNull(executor)) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the number of tasks executed on a background thread
+	 */
+	public static long getDeferredCount() {
+		return deferredCount.sum();
+	}
+
+	/**
+	 * @return the number of tasks executed on the request thread, because the queue was full
+	 */
+	public static long getCallerRunCount() {
+		return callerRunCount.sum();
+	}
+
+	/**
+	 * @return the number of tasks waiting for execution
+	 */
+	public static int getQueueSize() {
+		final ThreadPoolExecutor currentExecutor = executor;
+		return Objects.isNull(currentExecutor) ? 0 : currentExecutor.getQueue().size();
+	}
+
+	private static void run(final CsrfGuard csrfGuard, final Runnable task) {
+		try {
+			task.run();
+		} catch (final RuntimeException e) {
+			csrfGuard.getLogger().log(LogLevel.Error, e);
+		}
+	}
+
+	/**
+	 * @return the executor matching the current configuration (re-created only if the relevant settings have changed), or null if it is disabled
+	 */
+	private static ThreadPoolExecutor getExecutor(final CsrfGuard csrfGuard) {
+		final int threads = csrfGuard.getAsyncActionsThreads();
+		final int queueSize = csrfGuard.getAsyncActionsQueueSize();
+		final ThreadPoolExecutor currentExecutor = executor;
+
+		if (threads < 1) {
+			if (Objects.nonNull(currentExecutor)) {
+				synchronized (DeferredActionExecutor.class) {
+					if (Objects.nonNull(executor)) {
+						/* the pending tasks are still executed by the previous threads, the request thread does not wait for them */
+						executor.shutdown();
+						executor = null;
+					}
+				}
+			}
+			return null;
+		}
+
+		if (Objects.nonNull(currentExecutor) && executorThreads == threads && executorQueueSize == queueSize) {
+			return currentExecutor;
+		}
+
+		synchronized (DeferredActionExecutor.class) {
+			if (Objects.isNull(executor) || executorThreads != threads || executorQueueSize != queueSize) {
+				if (Objects.nonNull(executor)) {
+					/* the pending tasks are still executed by the previous threads */
+					executor.shutdown();
+				}
+				executor = createExecutor(threads, queueSize);
+				executorThreads = threads;
+				executorQueueSize = queueSize;
+			}
+			return executor;
+		}
+	}
+
+	private static ThreadPoolExecutor createExecutor(final int threads, final int queueSize) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+									  runnable -> {
+										  final Thread thread = new Thread(runnable, "CSRFGuard-DeferredAction-" + threadNumber.incrementAndGet());
+										  thread.setDaemon(true);
+										  return thread;
+									  },
+									  (runnable, threadPoolExecutor) -> {
+										  /* back pressure: the request thread does the work itself */
+										  callerRunCount.increment();
+										  runnable.run();
+									  }) {
+			@Override
+			protected void beforeExecute(final Thread thread, final Runnable runnable) {
+				deferredCount.increment();
+			}
+		};
+	}
+}
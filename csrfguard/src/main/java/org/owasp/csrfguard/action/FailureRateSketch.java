@@ -0,0 +1,121 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.action;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of leaky buckets, limiting the rate of failures per client in a fixed amount of memory.
+ * <p>
+ * Every row of the sketch maps the client to one of its cells, which holds the time at which the bucket of the client
+ * (and of the other clients sharing the cell) becomes empty, following the generic cell rate algorithm. A failure is accepted if the
+ * least filled bucket of the client has room for it, so a client is only throttled by mistake if it shares a cell with
+ * a throttled client in every row. The hash functions are seeded randomly, so the collisions can not be predicted.
+ * <p>
+ * The cells are updated lock-free.
+ */
+final class FailureRateSketch {
+
+	private static final int DEPTH = 4;
+
+	private static final int WIDTH = 4096;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final AtomicLongArray cells = new AtomicLongArray(DEPTH * WIDTH);
+
+	/**
+	 * the time it takes to drain one failure from a bucket
+	 */
+	private final long intervalNanos;
+
+	/**
+	 * the maximum time it takes to drain a bucket holding the failure budget
+	 */
+	private final long capacityNanos;
+
+	private final long firstSeed = ThreadLocalRandom.current().nextLong();
+	private final long secondSeed = ThreadLocalRandom.current().nextLong();
+
+	private final long origin = System.nanoTime();
+
+	/**
+	 * @param failureBudget     the number of failures accepted in a burst
+	 * @param failuresPerMinute the rate at which further failures are accepted
+	 */
+	FailureRateSketch(final int failureBudget, final int failuresPerMinute) {
+		if (failureBudget < 1 || failuresPerMinute < 1) {
+			throw new IllegalArgumentException("The failure budget and the failure rate must be positive.");
+		}
+
+		this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / failuresPerMinute;
+		this.capacityNanos = this.intervalNanos * failureBudget;
+	}
+
+	/**
+	 * Registers a failure of the client if it fits into its budget.
+	 *
+	 * @param clientKey identifies the client
+	 * @return true if the failure was accepted, false if the client exceeded its budget
+	 */
+	boolean tryAcquire(final String clientKey) {
+		final long now = System.nanoTime() - this.origin;
+		final long firstHash = hash(clientKey, this.firstSeed);
+		final long secondHash = hash(clientKey, this.secondSeed) | 1;
+
+		final int[] indexes = new int[DEPTH];
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			indexes[row] = row * WIDTH + (int) (((firstHash + row * secondHash) >>> 1) % WIDTH);
+			estimate = Math.min(estimate, Math.max(this.cells.get(indexes[row]), now));
+		}
+
+		if (estimate + this.intervalNanos - now > this.capacityNanos) {
+			return false;
+		}
+
+		for (final int index : indexes) {
+			long cell;
+			do {
+				cell = this.cells.get(index);
+			} while (!this.cells.compareAndSet(index, cell, Math.max(cell, now) + this.intervalNanos));
+		}
+		return true;
+	}
+
+	private static long hash(final String value, final long seed) {
+		long hash = seed;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return hash ^ hash >>> 29;
+	}
+}
@@ -31,6 +31,7 @@ package org.owasp.csrfguard.action;
 
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.session.LogicalSession;
 
 import javax.servlet.http.HttpServletRequest;
@@ -44,10 +45,12 @@ public final class Invalidate extends AbstractAction {
 	@Override
 	public void execute(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) throws CsrfGuardException {
 
-		final LogicalSession logicalSession = csrfGuard.getLogicalSessionExtractor().extract(request);
+		final CsrfGuardRequestContext requestContext = CsrfGuardRequestContext.get(request);
+		final LogicalSession logicalSession = requestContext.getLogicalSession();
 
 		if (Objects.nonNull(logicalSession)) {
 			csrfGuard.getTokenService().invalidate(logicalSession);
+			requestContext.resetLogicalSession();
 		}
 	}
 }
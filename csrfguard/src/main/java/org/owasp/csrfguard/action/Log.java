@@ -29,66 +29,106 @@
 
 package org.owasp.csrfguard.action;
 
-import org.apache.commons.lang3.StringUtils;
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.log.ILogger;
 import org.owasp.csrfguard.log.LogLevel;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-import java.security.Principal;
-
-public final class Log extends AbstractAction {
+import java.util.Objects;
+
+/**
+ * Logs the rejected requests using the configured message template.
+ * <p>
+ * If the aggregation is enabled, the same (remote IP, URI, error) combination is only logged a few times within a time window,
+ * and the suppressed occurrences are summarized with their counts afterwards, see {@link LogAggregator}.
+ * <p>
+ * The message can be written on a background thread, see {@link IDeferredAction}.
+ */
+public final class Log extends AbstractAction implements IDeferredAction {
 
     private static final long serialVersionUID = 8238761463376338707L;
 
-    @Override
-    public void execute(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) throws CsrfGuardException {
-        String logMessage = getParameter("Message");
-
-        /* Exception Information */
-        logMessage = logMessage.replace("%exception%", String.valueOf(csrfe))
-                               .replace("%exception_message%", csrfe.getLocalizedMessage());
+    private static final String MESSAGE_PARAMETER_NAME = "Message";
+    private static final String AGGREGATE_PARAMETER_NAME = "Aggregate";
+    private static final String AGGREGATE_WINDOW_PARAMETER_NAME = "AggregateWindowSeconds";
+    private static final String MAX_MESSAGES_PER_KEY_PARAMETER_NAME = "MaxMessagesPerKey";
+    private static final String MAX_MESSAGES_PARAMETER_NAME = "MaxMessages";
 
-        /* Remote Network Information */
-        logMessage = logMessage.replace("%remote_ip%", StringUtils.defaultString(request.getRemoteAddr()))
-                               .replace("%remote_host%", StringUtils.defaultString(request.getRemoteHost()))
-                               .replace("%remote_port%", String.valueOf(request.getRemotePort()));
+    private transient volatile LogMessageTemplate messageTemplate;
+    private transient volatile LogAggregator logAggregator;
 
-        /* Local Network Information */
-        logMessage = logMessage.replace("%local_ip%", StringUtils.defaultString(request.getLocalAddr()))
-                               .replace("%local_host%", StringUtils.defaultString(request.getLocalName()))
-                               .replace("%local_port%", String.valueOf(request.getLocalPort()));
-
-        /* Requested Resource Information */
-        logMessage = logMessage.replace("%request_method%", StringUtils.defaultString(request.getMethod()))
-                               .replace("%request_uri%", StringUtils.defaultString(request.getRequestURI()))
-                               .replace("%request_url%", request.getRequestURL().toString());
-
-        logMessage = logMessage.replace("%user%", getUserName(request));
+    @Override
+    public void setParameter(final String name, final String value) {
+        super.setParameter(name, value);
 
-        csrfGuard.getLogger().log(LogLevel.Error, logMessage);
+        /* the template and the limits are (re-)initialized on first use */
+        this.messageTemplate = null;
+        this.logAggregator = null;
     }
 
-    private String getUserName(final HttpServletRequest request) {
-        // JavaEE Principal Information
-        String user = request.getRemoteUser();
+    /**
+     * The message is rendered on the request thread, only the writing of the message is deferred.
+     * The summary of an expired aggregation window is both rendered and written by the deferred task.
+     */
+    @Override
+    public Runnable defer(final HttpServletRequest request, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) {
+        final ILogger logger = csrfGuard.getLogger();
+
+        if (logger.isEnabled(LogLevel.Error)) {
+            final LogAggregator currentLogAggregator = getLogAggregator();
+            if (Objects.isNull(currentLogAggregator)) {
+                final String logMessage = getMessageTemplate().render(request, csrfe);
+                return () -> logger.log(LogLevel.Error, logMessage);
+            }
 
-        if (StringUtils.isBlank(user)) {
-            user = (String) request.getAttribute("REMOTE_USER");
+            final Runnable summaryWriter = currentLogAggregator.rollOver(logger);
+            final String logMessage = currentLogAggregator.register(request.getRemoteAddr(), request.getRequestURI(), csrfe.getLocalizedMessage())
+                                      ? getMessageTemplate().render(request, csrfe) : null;
+
+            if (Objects.nonNull(summaryWriter) || Objects.nonNull(logMessage)) {
+                return () -> {
+                    if (Objects.nonNull(summaryWriter)) {
+                        summaryWriter.run();
+                    }
+                    if (Objects.nonNull(logMessage)) {
+                        logger.log(LogLevel.Error, logMessage);
+                    }
+                };
+            }
         }
+        return null;
+    }
 
-        if (StringUtils.isBlank(user)) {
-            final Principal userPrincipal = request.getUserPrincipal();
-            if (userPrincipal != null) {
-                user = userPrincipal.getName();
-            }
+    private LogMessageTemplate getMessageTemplate() {
+        LogMessageTemplate currentMessageTemplate = this.messageTemplate;
+        if (Objects.isNull(currentMessageTemplate)) {
+            currentMessageTemplate = new LogMessageTemplate(getParameter(MESSAGE_PARAMETER_NAME));
+            this.messageTemplate = currentMessageTemplate;
         }
+        return currentMessageTemplate;
+    }
 
-        if (StringUtils.isBlank(user)) {
-            user = "<anonymous>";
+    /**
+     * @return the aggregator of the messages, or null if the aggregation is disabled
+     */
+    private LogAggregator getLogAggregator() {
+        if (!Boolean.parseBoolean(getParameterMap().get(AGGREGATE_PARAMETER_NAME))) {
+            return null;
         }
 
-        return user;
+        LogAggregator currentLogAggregator = this.logAggregator;
+        if (Objects.isNull(currentLogAggregator)) {
+            synchronized (this) {
+                currentLogAggregator = this.logAggregator;
+                if (Objects.isNull(currentLogAggregator)) {
+                    currentLogAggregator = new LogAggregator(getIntParameter(AGGREGATE_WINDOW_PARAMETER_NAME, 60),
+                                                             getIntParameter(MAX_MESSAGES_PER_KEY_PARAMETER_NAME, 1),
+                                                             getIntParameter(MAX_MESSAGES_PARAMETER_NAME, 100));
+                    this.logAggregator = currentLogAggregator;
+                }
+            }
+        }
+        return currentLogAggregator;
     }
 }
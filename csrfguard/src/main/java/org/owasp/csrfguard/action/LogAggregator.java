@@ -0,0 +1,193 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.action;
+
+import org.owasp.csrfguard.log.ILogger;
+import org.owasp.csrfguard.log.LogLevel;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the messages of the {@link Log} action within a time window: only the first few occurrences of the same
+ * (remote IP, URI, error) combination are logged in full, up to a global limit, and the suppressed occurrences are
+ * reported as summary lines with their counts once the window is over.
+ * <p>
+ * The summary is handed over to the first request logged after the window, so no dedicated thread is needed. It is written by the
+ * deferred task of that request, so it is not rendered on the request thread when a {@link DeferredActionExecutor} is used.
+ */
+final class LogAggregator {
+
+    /**
+     * Bounds the memory used by a window, the occurrences of further combinations are only counted in total
+     */
+    private static final int MAX_KEYS = 10_000;
+
+    private final long windowNanos;
+    private final int maxMessagesPerKey;
+    private final int maxMessages;
+
+    private volatile Window window;
+
+    LogAggregator(final long windowSeconds, final int maxMessagesPerKey, final int maxMessages) {
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxMessages = maxMessages;
+        this.window = new Window(System.nanoTime());
+    }
+
+    /**
+     * Starts a new window if the current one is over.
+     *
+     * @return the task writing the summary of the expired window, or null if the window is not over or its summary is written by another request
+     */
+    Runnable rollOver(final ILogger logger) {
+        final long now = System.nanoTime();
+        final Window currentWindow = this.window;
+
+        if (now - currentWindow.start < this.windowNanos) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (this.window == currentWindow) {
+                this.window = new Window(now);
+            }
+        }
+
+        /* the occurrences registered concurrently into the expired window might be missing from its summary */
+        return currentWindow.summarized.compareAndSet(false, true) ? () -> writeSummary(currentWindow, logger) : null;
+    }
+
+    /**
+     * Registers an occurrence in the current window.
+     *
+     * @return true if the occurrence should be logged in full
+     */
+    boolean register(final String remoteIp, final String uri, final String error) {
+        final Window currentWindow = this.window;
+
+        final Key key = new Key(remoteIp, uri, error);
+        Counter counter = currentWindow.counters.get(key);
+        if (Objects.isNull(counter)) {
+            if (currentWindow.counters.size() >= MAX_KEYS) {
+                currentWindow.untrackedCount.incrementAndGet();
+                return false;
+            }
+            counter = currentWindow.counters.computeIfAbsent(key, k -> new Counter());
+        }
+
+        final boolean isLogged = counter.occurrences.incrementAndGet() <= this.maxMessagesPerKey
+                                 && currentWindow.messageCount.incrementAndGet() <= this.maxMessages;
+        if (isLogged) {
+            counter.logged.incrementAndGet();
+        }
+        return isLogged;
+    }
+
+    private void writeSummary(final Window expiredWindow, final ILogger logger) {
+        final long windowSeconds = TimeUnit.NANOSECONDS.toSeconds(this.windowNanos);
+
+        int summaryLines = 0;
+        int remainingKeys = 0;
+        long remainingCount = expiredWindow.untrackedCount.get();
+        for (final Map.Entry<Key, Counter> entry : expiredWindow.counters.entrySet()) {
+            final int suppressed = entry.getValue().occurrences.get() - entry.getValue().logged.get();
+            if (suppressed > 0) {
+                if (summaryLines < this.maxMessages) {
+                    final Key key = entry.getKey();
+                    logger.log(LogLevel.Error, "potential cross-site request forgery (CSRF) attack thwarted %d more times in the last %d seconds (ip:%s, uri:%s, error:%s)",
+                               suppressed, windowSeconds, key.remoteIp, key.uri, key.error);
+                    summaryLines++;
+                } else {
+                    remainingKeys++;
+                    remainingCount += suppressed;
+                }
+            }
+        }
+
+        if (remainingCount > 0) {
+            logger.log(LogLevel.Error, "potential cross-site request forgery (CSRF) attack thwarted %d more times in the last %d seconds (%s)",
+                       remainingCount, windowSeconds, remainingKeys > 0 ? remainingKeys + " further ip, uri and error combinations" : "untracked combinations");
+        }
+    }
+
+    private static final class Window {
+
+        private final long start;
+        private final Map<Key, Counter> counters = new ConcurrentHashMap<>();
+        private final AtomicInteger messageCount = new AtomicInteger();
+        private final AtomicInteger untrackedCount = new AtomicInteger();
+        private final AtomicBoolean summarized = new AtomicBoolean();
+
+        private Window(final long start) {
+            this.start = start;
+        }
+    }
+
+    private static final class Counter {
+
+        private final AtomicInteger occurrences = new AtomicInteger();
+        private final AtomicInteger logged = new AtomicInteger();
+    }
+
+    private static final class Key {
+
+        private final String remoteIp;
+        private final String uri;
+        private final String error;
+
+        private Key(final String remoteIp, final String uri, final String error) {
+            this.remoteIp = remoteIp;
+            this.uri = uri;
+            this.error = error;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(this.remoteIp, key.remoteIp) && Objects.equals(this.uri, key.uri) && Objects.equals(this.error, key.error);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.remoteIp, this.uri, this.error);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.action;
+
+import org.apache.commons.lang3.StringUtils;
+import org.owasp.csrfguard.CsrfGuardException;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The message template of the {@link Log} action, parsed once into literal and placeholder segments,
+ * so a message is rendered in a single pass. The values are never scanned for placeholders themselves.
+ */
+final class LogMessageTemplate {
+
+    private final Segment[] segments;
+    private final int literalsLength;
+
+    LogMessageTemplate(final String template) {
+        final List<Segment> segmentList = new ArrayList<>();
+        int literalsLength = 0;
+
+        int literalStart = 0;
+        int position = 0;
+        while ((position = template.indexOf('%', position)) >= 0) {
+            final int end = template.indexOf('%', position + 1);
+            final Placeholder placeholder = end < 0 ? null : Placeholder.from(template.substring(position + 1, end));
+
+            if (placeholder == null) {
+                position++;
+            } else {
+                if (position > literalStart) {
+                    final String literal = template.substring(literalStart, position);
+                    segmentList.add((stringBuilder, request, csrfe) -> stringBuilder.append(literal));
+                    literalsLength += literal.length();
+                }
+                segmentList.add((stringBuilder, request, csrfe) -> stringBuilder.append(placeholder.resolve(request, csrfe)));
+                literalStart = position = end + 1;
+            }
+        }
+
+        if (literalStart < template.length()) {
+            final String literal = template.substring(literalStart);
+            segmentList.add((stringBuilder, request, csrfe) -> stringBuilder.append(literal));
+            literalsLength += literal.length();
+        }
+
+        this.segments = segmentList.toArray(new Segment[0]);
+        this.literalsLength = literalsLength;
+    }
+
+    String render(final HttpServletRequest request, final CsrfGuardException csrfe) {
+        final StringBuilder stringBuilder = new StringBuilder(this.literalsLength + 64 * this.segments.length);
+        for (final Segment segment : this.segments) {
+            segment.appendTo(stringBuilder, request, csrfe);
+        }
+        return stringBuilder.toString();
+    }
+
+    @FunctionalInterface
+    private interface Segment {
+        void appendTo(StringBuilder stringBuilder, HttpServletRequest request, CsrfGuardException csrfe);
+    }
+
+    private enum Placeholder {
+
+        /* Exception Information */
+        EXCEPTION("exception") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return String.valueOf(csrfe);
+            }
+        },
+        EXCEPTION_MESSAGE("exception_message") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(csrfe.getLocalizedMessage());
+            }
+        },
+
+        /* Remote Network Information */
+        REMOTE_IP("remote_ip") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getRemoteAddr());
+            }
+        },
+        REMOTE_HOST("remote_host") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getRemoteHost());
+            }
+        },
+        REMOTE_PORT("remote_port") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return String.valueOf(request.getRemotePort());
+            }
+        },
+
+        /* Local Network Information */
+        LOCAL_IP("local_ip") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getLocalAddr());
+            }
+        },
+        LOCAL_HOST("local_host") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getLocalName());
+            }
+        },
+        LOCAL_PORT("local_port") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return String.valueOf(request.getLocalPort());
+            }
+        },
+
+        /* Requested Resource Information */
+        REQUEST_METHOD("request_method") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getMethod());
+            }
+        },
+        REQUEST_URI("request_uri") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return StringUtils.defaultString(request.getRequestURI());
+            }
+        },
+        REQUEST_URL("request_url") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                return request.getRequestURL().toString();
+            }
+        },
+
+        USER("user") {
+            @Override
+            String resolve(final HttpServletRequest request, final CsrfGuardException csrfe) {
+                // JavaEE Principal Information
+                String user = request.getRemoteUser();
+
+                if (StringUtils.isBlank(user)) {
+                    user = (String) request.getAttribute("REMOTE_USER");
+                }
+
+                if (StringUtils.isBlank(user)) {
+                    final Principal userPrincipal = request.getUserPrincipal();
+                    if (userPrincipal != null) {
+                        user = userPrincipal.getName();
+                    }
+                }
+
+                if (StringUtils.isBlank(user)) {
+                    user = "<anonymous>";
+                }
+
+                return user;
+            }
+        };
+
+        private final String name;
+
+        Placeholder(final String name) {
+            this.name = name;
+        }
+
+        abstract String resolve(HttpServletRequest request, CsrfGuardException csrfe);
+
+        static Placeholder from(final String name) {
+            for (final Placeholder placeholder : values()) {
+                if (placeholder.name.equals(name)) {
+                    return placeholder;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -31,8 +31,8 @@ package org.owasp.csrfguard.action;
 
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.session.LogicalSession;
-import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -44,8 +44,7 @@ public class Rotate extends AbstractAction {
 
     @Override
     public void execute(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) throws CsrfGuardException {
-        final LogicalSessionExtractor logicalSessionExtractor = csrfGuard.getLogicalSessionExtractor();
-        final LogicalSession logicalSession = logicalSessionExtractor.extract(request);
+        final LogicalSession logicalSession = CsrfGuardRequestContext.get(request).getLogicalSession();
 
         if (Objects.nonNull(logicalSession)) {
             csrfGuard.getTokenService().rotateAllTokens(logicalSession.getKey());
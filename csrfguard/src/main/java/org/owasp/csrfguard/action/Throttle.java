@@ -0,0 +1,136 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.action;
+
+import org.apache.commons.lang3.StringUtils;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
+import org.owasp.csrfguard.session.LogicalSession;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Limits the rate of the rejected requests per client. Once a client exceeds its failure budget, its further rejected requests
+ * are answered with an empty 403 response, skipping the other (more expensive) actions and the logging, until the budget is refilled.
+ * <p>
+ * The budget of a client is tracked in a fixed-size {@link FailureRateSketch}, so the memory used does not depend on the number of clients.
+ * Being a {@link IPreemptiveAction}, this action is executed before all the other actions.
+ */
+public final class Throttle extends AbstractAction implements IPreemptiveAction {
+
+	private static final long serialVersionUID = -6370263315564283125L;
+
+	private static final String CLIENT_KEY_PARAMETER_NAME = "ClientKey";
+	private static final String FAILURE_BUDGET_PARAMETER_NAME = "FailureBudget";
+	private static final String FAILURES_PER_MINUTE_PARAMETER_NAME = "FailuresPerMinute";
+
+	/**
+	 * Tells how the clients are identified
+	 */
+	private enum ClientKey {
+		REMOTEADDRESS,
+		LOGICALSESSION
+	}
+
+	private volatile ClientKey clientKey = ClientKey.REMOTEADDRESS;
+
+	private transient volatile FailureRateSketch failureRateSketch;
+
+	@Override
+	public void setParameter(final String name, final String value) {
+		/* the parameters are validated here, so that a typo fails the configuration instead of the rejected requests */
+		if (CLIENT_KEY_PARAMETER_NAME.equals(name)) {
+			this.clientKey = parseClientKey(value);
+		} else if ((FAILURE_BUDGET_PARAMETER_NAME.equals(name) || FAILURES_PER_MINUTE_PARAMETER_NAME.equals(name)) && StringUtils.isNotBlank(value)) {
+			Integer.parseInt(value.trim());
+		}
+
+		super.setParameter(name, value);
+
+		/* the budget is (re-)initialized on first use */
+		this.failureRateSketch = null;
+	}
+
+	@Override
+	public boolean preempt(final HttpServletRequest request, final HttpServletResponse response, final CsrfGuardException csrfe, final CsrfGuard csrfGuard) {
+		if (getFailureRateSketch().tryAcquire(getClientKey(request))) {
+			return true;
+		}
+
+		/* no error page, the client is not supposed to be a browser any more */
+		if (!response.isCommitted()) {
+			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+			response.setContentLength(0);
+		}
+		return false;
+	}
+
+	private static ClientKey parseClientKey(final String value) {
+		if (StringUtils.isBlank(value)) {
+			return ClientKey.REMOTEADDRESS;
+		}
+
+		try {
+			return ClientKey.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("Invalid %s parameter value '%s', expected one of %s", CLIENT_KEY_PARAMETER_NAME, value, Arrays.toString(ClientKey.values())), e);
+		}
+	}
+
+	private String getClientKey(final HttpServletRequest request) {
+		if (this.clientKey == ClientKey.LOGICALSESSION) {
+			final LogicalSession logicalSession = CsrfGuardRequestContext.get(request).getLogicalSession();
+			if (Objects.nonNull(logicalSession)) {
+				return logicalSession.getKey();
+			}
+		}
+
+		return StringUtils.defaultString(request.getRemoteAddr());
+	}
+
+	private FailureRateSketch getFailureRateSketch() {
+		FailureRateSketch currentFailureRateSketch = this.failureRateSketch;
+		if (Objects.isNull(currentFailureRateSketch)) {
+			synchronized (this) {
+				currentFailureRateSketch = this.failureRateSketch;
+				if (Objects.isNull(currentFailureRateSketch)) {
+					currentFailureRateSketch = new FailureRateSketch(getIntParameter(FAILURE_BUDGET_PARAMETER_NAME, 20),
+																	 getIntParameter(FAILURES_PER_MINUTE_PARAMETER_NAME, 10));
+					this.failureRateSketch = currentFailureRateSketch;
+				}
+			}
+		}
+		return currentFailureRateSketch;
+	}
+}
@@ -32,7 +32,9 @@ package org.owasp.csrfguard.config;
 import org.owasp.csrfguard.action.IAction;
 import org.owasp.csrfguard.log.ILogger;
 import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
+import org.owasp.csrfguard.token.SignedTokenKeyRing;
 import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.util.TokenFormat;
 
 import java.security.SecureRandom;
 import java.time.Duration;
@@ -111,6 +113,14 @@ public interface ConfigurationProvider {
      */
     boolean isTokenPerPagePrecreateEnabled();
 
+    /**
+     * If enabled, the page tokens are computed from the master token and the resource identifier instead of being generated and stored.
+     *
+     * @return true if the page tokens are derived from the master token
+     * @see org.owasp.csrfguard.token.DerivedPageTokens
+     */
+    boolean isTokenPerPageDerivedEnabled();
+
     /**
      * TODO document
      *
@@ -276,6 +286,14 @@ public interface ConfigurationProvider {
      */
     boolean isJavascriptInjectIntoDynamicallyCreatedNodes();
 
+    /**
+     * If enabled, the JavaScript does not contain the tokens, so it can be cached by the browsers (revalidated using its ETag, or for good if
+     * requested using its versioned URL), and it fetches the tokens of the session from the JavaScript servlet using a POST request instead.
+     *
+     * @return whether the JavaScript is served without the tokens
+     */
+    boolean isJavascriptStaticScript();
+
     /**
      * TODO
      * @return
@@ -321,4 +339,71 @@ public interface ConfigurationProvider {
      * @return
      */
     Duration getPageTokenSynchronizationTolerance();
+
+    /**
+     * The keys of the stateless signed master tokens. If present, the master tokens are not stored in the {@link TokenHolder}
+     * but they are issued as signed values and verified by computation.
+     *
+     * @return the signing keys, or null if the signed token mode is disabled
+     */
+    SignedTokenKeyRing getSignedTokenKeyRing();
+
+    /**
+     * The maximum number of resource URIs for which the protection decision is cached.
+     * Values lower than 2 disable the cache.
+     *
+     * @return the maximum size of the protection decision cache
+     */
+    int getProtectionDecisionCacheSize();
+
+    /**
+     * The textual format of the generated (and derived) tokens.
+     *
+     * @return the token format
+     */
+    TokenFormat getTokenFormat();
+
+    /**
+     * Creates a new, independently seeded {@link SecureRandom} instance using the same algorithm and provider as {@link #getPrng()}.
+     *
+     * @return a new secure random instance
+     */
+    SecureRandom createPrng();
+
+    /**
+     * If enabled, every thread generating tokens uses its own {@link SecureRandom} instance (see {@link #createPrng()})
+     * instead of the shared {@link #getPrng()} instance.
+     *
+     * @return true if the random generators are thread confined
+     */
+    boolean isPrngPerThread();
+
+    /**
+     * The number of pre-generated random tokens kept in the token pool. Zero disables the pool.
+     *
+     * @return the size of the token pool
+     */
+    int getTokenPoolSize();
+
+    /**
+     * The token pool is refilled in the background when the number of its tokens drops below this percentage of its size.
+     *
+     * @return the refill watermark as a percentage of the pool size
+     */
+    int getTokenPoolRefillWatermark();
+
+    /**
+     * The number of background threads executing the actions that do not affect the response (see {@link org.owasp.csrfguard.action.IDeferredAction}).
+     * Zero disables the background execution, so all the actions are executed on the request thread.
+     *
+     * @return the number of threads executing the deferred actions
+     */
+    int getAsyncActionsThreads();
+
+    /**
+     * The maximum number of deferred actions waiting for execution. If the queue is full, the action is executed on the request thread.
+     *
+     * @return the capacity of the queue of the deferred actions
+     */
+    int getAsyncActionsQueueSize();
 }
@@ -0,0 +1,135 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.config;
+
+import org.owasp.csrfguard.ProtectionResult;
+import org.owasp.csrfguard.UriMatcher;
+import org.owasp.csrfguard.servlet.JavaScriptTemplate;
+import org.owasp.csrfguard.util.BoundedConcurrentCache;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Immutable holder of a loaded {@link ConfigurationProvider} and of the state derived from it.
+ * <p>
+ * A snapshot is published through a single volatile reference, so request threads can read the configuration without acquiring any lock.
+ * Reloading the configuration builds a new snapshot and swaps the reference, which keeps every reader on a consistent view.
+ */
+public final class ConfigurationSnapshot {
+
+    private final ConfigurationProvider configurationProvider;
+
+    private final long creationTime;
+
+    private final long timeToLive;
+
+    private volatile UriMatcher protectedPagesMatcher;
+
+    private volatile UriMatcher unprotectedPagesMatcher;
+
+    private final BoundedConcurrentCache<String, ProtectionResult> protectionDecisionCache;
+
+    private volatile JavaScriptTemplate javaScriptTemplate;
+
+    /**
+     * @param configurationProvider the loaded configuration provider
+     * @param timeToLive            the period after which the configuration should be retrieved again from its factory
+     */
+    public ConfigurationSnapshot(final ConfigurationProvider configurationProvider, final Duration timeToLive) {
+        this.configurationProvider = Objects.requireNonNull(configurationProvider);
+        this.creationTime = System.nanoTime();
+        this.timeToLive = timeToLive.toNanos();
+
+        final int protectionDecisionCacheSize = configurationProvider.getProtectionDecisionCacheSize();
+        this.protectionDecisionCache = protectionDecisionCacheSize < 2 ? null : new BoundedConcurrentCache<>(protectionDecisionCacheSize);
+    }
+
+    public ConfigurationProvider getConfigurationProvider() {
+        return this.configurationProvider;
+    }
+
+    /**
+     * @return the compiled matcher of the configured protected pages, built on first use
+     */
+    public UriMatcher getProtectedPagesMatcher() {
+        UriMatcher matcher = this.protectedPagesMatcher;
+        if (Objects.isNull(matcher)) {
+            /* concurrent initialization is harmless, the outcome is the same */
+            matcher = new UriMatcher(this.configurationProvider.getProtectedPages());
+            this.protectedPagesMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    /**
+     * @return the compiled matcher of the configured unprotected pages, built on first use
+     */
+    public UriMatcher getUnprotectedPagesMatcher() {
+        UriMatcher matcher = this.unprotectedPagesMatcher;
+        if (Objects.isNull(matcher)) {
+            matcher = new UriMatcher(this.configurationProvider.getUnprotectedPages());
+            this.unprotectedPagesMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    /**
+     * The JavaScript parameters are only available after the JavaScript servlet was initialized, so the template is compiled on first use.
+     *
+     * @return the JavaScript template compiled for this configuration
+     */
+    public JavaScriptTemplate getJavaScriptTemplate() {
+        JavaScriptTemplate template = this.javaScriptTemplate;
+        if (Objects.isNull(template)) {
+            template = JavaScriptTemplate.compile(this.configurationProvider);
+            this.javaScriptTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * The cached protection decisions are derived from this snapshot only, so they are discarded together with it.
+     *
+     * @return the cache of the page protection decisions keyed by the normalized resource URI, or null if caching is disabled
+     */
+    public BoundedConcurrentCache<String, ProtectionResult> getProtectionDecisionCache() {
+        return this.protectionDecisionCache;
+    }
+
+    /**
+     * @return true if the snapshot can not be served anymore, either because its time to live elapsed
+     * or because the underlying provider is not completely set up yet
+     * @see ConfigurationProvider#isCacheable()
+     */
+    public boolean isExpired() {
+        return !this.configurationProvider.isCacheable() || System.nanoTime() - this.creationTime >= this.timeToLive;
+    }
+}
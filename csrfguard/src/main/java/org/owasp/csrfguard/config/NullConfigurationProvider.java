@@ -33,8 +33,10 @@ import org.owasp.csrfguard.action.IAction;
 import org.owasp.csrfguard.config.properties.ConfigParameters;
 import org.owasp.csrfguard.log.ConsoleLogger;
 import org.owasp.csrfguard.log.ILogger;
+import org.owasp.csrfguard.token.SignedTokenKeyRing;
 import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.util.TokenFormat;
 
 import java.security.SecureRandom;
 import java.time.Duration;
@@ -98,6 +100,11 @@ public final class NullConfigurationProvider implements ConfigurationProvider {
         return false;
     }
 
+    @Override
+    public boolean isTokenPerPageDerivedEnabled() {
+        return false;
+    }
+
     @Override
     public SecureRandom getPrng() {
         try {
@@ -217,6 +224,11 @@ public final class NullConfigurationProvider implements ConfigurationProvider {
         return false;
     }
 
+    @Override
+    public boolean isJavascriptStaticScript() {
+        return false;
+    }
+
     @Override
     public String getJavascriptDynamicNodeCreationEventName() {
         return null;
@@ -251,4 +263,49 @@ public final class NullConfigurationProvider implements ConfigurationProvider {
     public Duration getPageTokenSynchronizationTolerance() {
         return null;
     }
+
+    @Override
+    public SignedTokenKeyRing getSignedTokenKeyRing() {
+        return null;
+    }
+
+    @Override
+    public int getProtectionDecisionCacheSize() {
+        return 0;
+    }
+
+    @Override
+    public TokenFormat getTokenFormat() {
+        return TokenFormat.DASHED;
+    }
+
+    @Override
+    public SecureRandom createPrng() {
+        return getPrng();
+    }
+
+    @Override
+    public boolean isPrngPerThread() {
+        return false;
+    }
+
+    @Override
+    public int getTokenPoolSize() {
+        return 0;
+    }
+
+    @Override
+    public int getTokenPoolRefillWatermark() {
+        return 0;
+    }
+
+    @Override
+    public int getAsyncActionsThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getAsyncActionsQueueSize() {
+        return 0;
+    }
 }
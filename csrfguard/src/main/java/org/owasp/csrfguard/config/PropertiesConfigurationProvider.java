@@ -32,24 +32,29 @@ package org.owasp.csrfguard.config;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.owasp.csrfguard.action.IAction;
+import org.owasp.csrfguard.action.IPreemptiveAction;
 import org.owasp.csrfguard.config.properties.ConfigParameters;
 import org.owasp.csrfguard.config.properties.HttpMethod;
 import org.owasp.csrfguard.config.properties.PropertyUtils;
 import org.owasp.csrfguard.config.properties.javascript.JavaScriptConfigParameters;
 import org.owasp.csrfguard.config.properties.javascript.JsConfigParameter;
+import org.owasp.csrfguard.log.AsyncLogger;
 import org.owasp.csrfguard.log.ILogger;
 import org.owasp.csrfguard.log.LogLevel;
 import org.owasp.csrfguard.servlet.JavaScriptServlet;
+import org.owasp.csrfguard.token.SignedTokenKeyRing;
 import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 import org.owasp.csrfguard.token.storage.TokenHolder;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
 import org.owasp.csrfguard.util.RegexValidationUtil;
+import org.owasp.csrfguard.util.TokenFormat;
 
 import javax.servlet.ServletConfig;
 import java.io.IOException;
 import java.security.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.IntPredicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -60,6 +65,12 @@ import java.util.stream.Stream;
  */
 public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
+	/**
+	 * The token holders are reused across configuration reloads (keyed by class name), otherwise the stored tokens would be lost
+	 * every time the configuration is re-read.
+	 */
+	private static final Map<String, TokenHolder> TOKEN_HOLDERS = new ConcurrentHashMap<>();
+
 	private final ILogger logger;
 
 	private final Set<String> protectedPages;
@@ -86,6 +97,8 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
 	private boolean tokenPerPagePrecreate;
 
+	private boolean tokenPerPageDerived;
+
 	private boolean printConfig;
 
 	private SecureRandom prng;
@@ -102,9 +115,25 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
 	private Duration pageTokenSynchronizationTolerance;
 
+	private int protectionDecisionCacheSize;
+
+	private TokenFormat tokenFormat;
+
+	private boolean prngPerThread;
+
+	private int tokenPoolSize;
+
+	private int tokenPoolRefillWatermark;
+
+	private int asyncActionsThreads;
+
+	private int asyncActionsQueueSize;
+
+	private SignedTokenKeyRing signedTokenKeyRing;
+
 	private boolean validationWhenNoSessionExists;
 
-	private boolean javascriptParamsInitialized = false;
+	private volatile boolean javascriptParamsInitialized = false;
 
 	private String javascriptTemplateCode;
 
@@ -124,6 +153,8 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
 	private boolean isJavascriptInjectIntoDynamicallyCreatedNodes;
 
+	private boolean javascriptStaticScript;
+
 	private String javascriptDynamicNodeCreationEventName;
 
 	private String javascriptXrequestedWith;
@@ -149,21 +180,40 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 			this.protectedMethods = new HashSet<>();
 			this.unprotectedMethods = new HashSet<>();
 
-			this.logger = CsrfGuardUtils.<ILogger>forName(PropertyUtils.getProperty(properties, ConfigParameters.LOGGER)).newInstance();
+			this.logger = getLogger(properties);
 
             this.enabled = PropertyUtils.getProperty(properties, ConfigParameters.CSRFGUARD_ENABLED);
 
             if (this.enabled) {
 				this.tokenName = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_NAME);
 				this.tokenLength = getTokenLength(properties);
+				this.tokenFormat = TokenFormat.valueOf(PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_FORMAT).trim().toUpperCase(Locale.ROOT));
 				this.rotate = PropertyUtils.getProperty(properties, ConfigParameters.ROTATE);
 				this.tokenPerPage = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_PER_PAGE);
 
 				this.validationWhenNoSessionExists = PropertyUtils.getProperty(properties, ConfigParameters.VALIDATE_WHEN_NO_SESSION_EXISTS);
 				this.domainOrigin = PropertyUtils.getProperty(properties, ConfigParameters.DOMAIN_ORIGIN);
 				this.tokenPerPagePrecreate = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_PER_PAGE_PRECREATE);
+				this.tokenPerPageDerived = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_PER_PAGE_DERIVED);
 
 				this.prng = getSecureRandomInstance(properties);
+				this.prngPerThread = PropertyUtils.getProperty(properties, ConfigParameters.PRNG_PER_THREAD);
+
+				this.tokenPoolSize = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_POOL_SIZE);
+				this.tokenPoolRefillWatermark = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_POOL_REFILL_WATERMARK);
+				if (this.tokenPoolSize < 0 || this.tokenPoolRefillWatermark < 0 || this.tokenPoolRefillWatermark > 100) {
+					throw new IllegalArgumentException(String.format("The [%s] must not be negative and the [%s] must be a percentage between 0 and 100!",
+																	 ConfigParameters.TOKEN_POOL_SIZE.getName(), ConfigParameters.TOKEN_POOL_REFILL_WATERMARK.getName()));
+				}
+
+				this.asyncActionsThreads = PropertyUtils.getProperty(properties, ConfigParameters.ASYNC_ACTIONS_THREADS);
+				this.asyncActionsQueueSize = PropertyUtils.getProperty(properties, ConfigParameters.ASYNC_ACTIONS_QUEUE_SIZE);
+				if (this.asyncActionsThreads < 0 || this.asyncActionsQueueSize < 1) {
+					throw new IllegalArgumentException(String.format("The [%s] must not be negative and the [%s] must be positive!",
+																	 ConfigParameters.ASYNC_ACTIONS_THREADS.getName(), ConfigParameters.ASYNC_ACTIONS_QUEUE_SIZE.getName()));
+				}
+
+				this.signedTokenKeyRing = initializeSignedTokenKeyRing(properties);
 
 				this.printConfig = PropertyUtils.getProperty(properties, ConfigParameters.PRINT_ENABLED);
 
@@ -176,6 +226,8 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
 				this.pageTokenSynchronizationTolerance = PropertyUtils.getProperty(properties, ConfigParameters.PAGE_TOKEN_SYNCHRONIZATION_TOLERANCE);
 
+				this.protectionDecisionCacheSize = PropertyUtils.getProperty(properties, ConfigParameters.PROTECTION_DECISION_CACHE_SIZE);
+
 				initializeTokenPersistenceConfigurations(properties);
 
 				initializeActionParameters(properties, instantiateActions(properties));
@@ -189,6 +241,19 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 		}
 	}
 
+	private static ILogger getLogger(final Properties properties) throws InstantiationException, IllegalAccessException {
+		final ILogger logger = CsrfGuardUtils.<ILogger>forName(PropertyUtils.getProperty(properties, ConfigParameters.LOGGER)).newInstance();
+
+		if (PropertyUtils.getProperty(properties, ConfigParameters.LOGGER_ASYNC)) {
+			final int capacity = PropertyUtils.getProperty(properties, ConfigParameters.LOGGER_ASYNC_CAPACITY);
+			final String overflowPolicy = PropertyUtils.getProperty(properties, ConfigParameters.LOGGER_ASYNC_OVERFLOW_POLICY);
+
+			return new AsyncLogger(logger, capacity, AsyncLogger.OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT)));
+		}
+
+		return logger;
+	}
+
 	@Override
 	public ILogger getLogger() {
 		return this.logger;
@@ -224,6 +289,11 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 		return this.tokenPerPagePrecreate;
 	}
 
+	@Override
+	public boolean isTokenPerPageDerivedEnabled() {
+		return this.tokenPerPageDerived;
+	}
+
 	@Override
 	public SecureRandom getPrng() {
 		return this.prng;
@@ -333,6 +403,12 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 		return this.isJavascriptInjectIntoDynamicallyCreatedNodes;
     }
 
+	@Override
+	public boolean isJavascriptStaticScript() {
+		this.javascriptInitParamsIfNeeded();
+		return this.javascriptStaticScript;
+	}
+
     @Override
     public String getJavascriptDynamicNodeCreationEventName() {
 		this.javascriptInitParamsIfNeeded();
@@ -399,6 +475,56 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
         return this.pageTokenSynchronizationTolerance;
     }
 
+	@Override
+	public SignedTokenKeyRing getSignedTokenKeyRing() {
+		return this.signedTokenKeyRing;
+	}
+
+	@Override
+	public int getProtectionDecisionCacheSize() {
+		return this.protectionDecisionCacheSize;
+	}
+
+	@Override
+	public TokenFormat getTokenFormat() {
+		return this.tokenFormat;
+	}
+
+	@Override
+	public SecureRandom createPrng() {
+		try {
+			return SecureRandom.getInstance(this.prng.getAlgorithm(), this.prng.getProvider());
+		} catch (final NoSuchAlgorithmException e) {
+			/* e.g. the platform default instance does not report its algorithm */
+			return new SecureRandom();
+		}
+	}
+
+	@Override
+	public boolean isPrngPerThread() {
+		return this.prngPerThread;
+	}
+
+	@Override
+	public int getTokenPoolSize() {
+		return this.tokenPoolSize;
+	}
+
+	@Override
+	public int getTokenPoolRefillWatermark() {
+		return this.tokenPoolRefillWatermark;
+	}
+
+	@Override
+	public int getAsyncActionsThreads() {
+		return this.asyncActionsThreads;
+	}
+
+	@Override
+	public int getAsyncActionsQueueSize() {
+		return this.asyncActionsQueueSize;
+	}
+
     private Map<String, IAction> instantiateActions(final Properties properties) throws InstantiationException, IllegalAccessException {
 		final Map<String, IAction> actionsMap = new HashMap<>();
 
@@ -416,6 +542,10 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 				this.actions.add(action);
 			}
 		}
+
+		/* the preemptive actions can make the others unnecessary, so they are executed first */
+		this.actions.sort(Comparator.comparing(action -> !(action instanceof IPreemptiveAction)));
+
 		return actionsMap;
 	}
 
@@ -524,7 +654,7 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 
 	/**
 	 * Decides whether the given resourceUri is a static descriptor or a matching rule
-	 * Has to be in sync with org.owasp.csrfguard.CsrfValidator.isUriMatch(java.lang.String, java.lang.String) and calculatePageTokenForUri in the JS logic
+	 * Has to be in sync with org.owasp.csrfguard.UriMatcher#match(java.lang.String) and calculatePageTokenForUri in the JS logic
 	 */
 	private boolean isSpecialUriDescriptor(final String resourceUri) {
 		if (this.tokenPerPage && (resourceUri.endsWith("/*") || resourceUri.startsWith("*."))) {
@@ -552,6 +682,7 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 				this.javascriptInjectIntoForms = getProperty(JavaScriptConfigParameters.INJECT_INTO_FORMS, servletConfig);
 				this.isJavascriptInjectIntoDynamicallyCreatedNodes = getProperty(JavaScriptConfigParameters.INJECT_INTO_DYNAMICALLY_CREATED_NODES, servletConfig);
 				this.javascriptDynamicNodeCreationEventName = getProperty(JavaScriptConfigParameters.DYNAMIC_NODE_CREATION_EVENT_NAME, servletConfig);
+				this.javascriptStaticScript = getProperty(JavaScriptConfigParameters.STATIC_SCRIPT, servletConfig);
 				this.javascriptRefererPattern = Pattern.compile(getProperty(JavaScriptConfigParameters.REFERER_PATTERN, servletConfig));
 				this.javascriptRefererMatchProtocol = getProperty(JavaScriptConfigParameters.REFERER_MATCH_PROTOCOL, servletConfig);
 				this.javascriptRefererMatchDomain = getProperty(JavaScriptConfigParameters.REFERER_MATCH_DOMAIN, servletConfig);
@@ -590,12 +721,63 @@ public class PropertiesConfigurationProvider implements ConfigurationProvider {
 			this.logicalSessionExtractor = CsrfGuardUtils.<LogicalSessionExtractor>forName(logicalSessionExtractorName).newInstance();
 
 			final String tokenHolderClassName = StringUtils.defaultIfBlank(PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER), ConfigParameters.TOKEN_HOLDER.getValue());
-			this.tokenHolder = CsrfGuardUtils.<TokenHolder>forName(tokenHolderClassName).newInstance();
+			this.tokenHolder = TOKEN_HOLDERS.computeIfAbsent(tokenHolderClassName, PropertiesConfigurationProvider::instantiateTokenHolder);
+
+			if (this.tokenHolder instanceof Configurable) {
+				((Configurable) this.tokenHolder).configure(properties);
+			}
 		} else {
 			throw new IllegalArgumentException(String.format("Mandatory parameter [%s] is missing from the configuration!", ConfigParameters.LOGICAL_SESSION_EXTRACTOR_NAME));
 		}
 	}
 
+	private static TokenHolder instantiateTokenHolder(final String tokenHolderClassName) {
+		try {
+			return CsrfGuardUtils.<TokenHolder>forName(tokenHolderClassName).newInstance();
+		} catch (final InstantiationException | IllegalAccessException e) {
+			throw new IllegalArgumentException(String.format("Could not instantiate the token holder [%s]!", tokenHolderClassName), e);
+		}
+	}
+
+	private SignedTokenKeyRing initializeSignedTokenKeyRing(final Properties properties) {
+		if (!PropertyUtils.getProperty(properties, ConfigParameters.SIGNED_TOKEN)) {
+			return null;
+		}
+
+		if (this.tokenPerPage) {
+			throw new IllegalArgumentException(String.format("The [%s] and the [%s] options cannot be enabled at the same time.", ConfigParameters.SIGNED_TOKEN.getName(), ConfigParameters.TOKEN_PER_PAGE.getName()));
+		}
+
+		final Duration maxAge = PropertyUtils.getProperty(properties, ConfigParameters.SIGNED_TOKEN_MAX_AGE);
+
+		final Map<String, byte[]> keys = new HashMap<>();
+		for (final Object obj : properties.keySet()) {
+			final String propertyKey = (String) obj;
+
+			if (propertyKey.startsWith(ConfigParameters.SIGNED_TOKEN_KEY_PREFIX)) {
+				final String keyId = propertyKey.substring(ConfigParameters.SIGNED_TOKEN_KEY_PREFIX.length());
+				keys.put(keyId, Base64.getDecoder().decode(StringUtils.trimToEmpty(PropertyUtils.getProperty(properties, propertyKey))));
+			}
+		}
+
+		if (keys.isEmpty()) {
+			this.logger.log(LogLevel.Warning, String.format("No [%s*] signing key is configured, using a generated one. The signed tokens will not be accepted by other nodes or after a restart.",
+															ConfigParameters.SIGNED_TOKEN_KEY_PREFIX));
+			return SignedTokenKeyRing.withGeneratedKey(maxAge);
+		}
+
+		String activeKeyId = StringUtils.trimToNull(PropertyUtils.getProperty(properties, ConfigParameters.SIGNED_TOKEN_ACTIVE_KEY));
+		if (Objects.isNull(activeKeyId)) {
+			if (keys.size() > 1) {
+				throw new IllegalArgumentException(String.format("Mandatory parameter [%s] is missing from the configuration, it is required when multiple signing keys are defined!",
+																 ConfigParameters.SIGNED_TOKEN_ACTIVE_KEY));
+			}
+			activeKeyId = keys.keySet().iterator().next();
+		}
+
+		return new SignedTokenKeyRing(keys, activeKeyId, maxAge);
+	}
+
 	private int getTokenLength(final Properties properties) {
 		final int tokenLength = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_LENGTH);
 
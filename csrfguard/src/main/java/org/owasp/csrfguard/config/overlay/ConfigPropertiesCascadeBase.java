@@ -572,12 +572,14 @@ public abstract class ConfigPropertiesCascadeBase {
 	 */
 	protected ConfigPropertiesCascadeBase retrieveFromConfigFileOrCache() {
 
-		Map<String, Object> debugMap = new LinkedHashMap<String, Object>();
+		ILogger iLogger = iLogger();
+		boolean debug = iLogger != null && iLogger.isEnabled(LogLevel.Debug);
+		Map<String, Object> debugMap = debug ? new LinkedHashMap<String, Object>() : null;
 
 		try {
 
 			if (configFileCache == null) {
-				if (true) {
+				if (debug) {
 					debugMap.put("configFileCache", null);
 				}
 
@@ -589,7 +591,7 @@ public abstract class ConfigPropertiesCascadeBase {
 
 			if (configObject == null) {
 
-				if (true) {
+				if (debug) {
 					debugMap.put("mainConfigClasspath", this.getMainConfigClasspath());
 				}
 
@@ -601,7 +603,7 @@ public abstract class ConfigPropertiesCascadeBase {
 				//see if that much time has passed
 				if (configObject.needToCheckIfFilesNeedReloading()) {
 
-					if (true) {
+					if (debug) {
 						debugMap.put("needToCheckIfFilesNeedReloading", true);
 					}
 					synchronized (configObject) {
@@ -611,11 +613,11 @@ public abstract class ConfigPropertiesCascadeBase {
 						//check again in case another thread did it
 						if (configObject.needToCheckIfFilesNeedReloading()) {
 
-							if (true) {
+							if (debug) {
 								debugMap.put("needToCheckIfFilesNeedReloading2", true);
 							}
 							if (configObject.filesNeedReloadingBasedOnContents()) {
-								if (true) {
+								if (debug) {
 									debugMap.put("filesNeedReloadingBasedOnContents", true);
 								}
 								configObject = retrieveFromConfigFiles();
@@ -625,15 +627,14 @@ public abstract class ConfigPropertiesCascadeBase {
 					}
 				}
 			}
-			if (true) {
+			if (debug) {
 				debugMap.put("configObjectPropertyCount", configObject == null ? null 
 						: (configObject.properties() == null ? "propertiesNull" : configObject.properties().size()));
 			}
 
 			return configObject;
 		} finally {
-			ILogger iLogger = iLogger();
-			if (iLogger != null) {
+			if (debug) {
 				iLogger.log(LogLevel.Debug, ConfigPropertiesCascadeUtils.mapToString(debugMap));
 			}
 		}
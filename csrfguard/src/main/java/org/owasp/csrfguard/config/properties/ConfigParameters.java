@@ -40,28 +40,56 @@ public final class ConfigParameters {
     public static final SimpleBooleanConfigParameter TOKEN_PER_PAGE = new SimpleBooleanConfigParameter("org.owasp.csrfguard.TokenPerPage", false);
     public static final SimpleBooleanConfigParameter VALIDATE_WHEN_NO_SESSION_EXISTS = new SimpleBooleanConfigParameter("org.owasp.csrfguard.ValidateWhenNoSessionExists", true);
     public static final SimpleBooleanConfigParameter TOKEN_PER_PAGE_PRECREATE = new SimpleBooleanConfigParameter("org.owasp.csrfguard.TokenPerPagePrecreate", false);
+    public static final SimpleBooleanConfigParameter TOKEN_PER_PAGE_DERIVED = new SimpleBooleanConfigParameter("org.owasp.csrfguard.TokenPerPageDerived", false);
     public static final SimpleBooleanConfigParameter PRINT_ENABLED = new SimpleBooleanConfigParameter("org.owasp.csrfguard.Config.Print", false);
     public static final SimpleBooleanConfigParameter CSRFGUARD_ENABLED = new SimpleBooleanConfigParameter("org.owasp.csrfguard.Enabled", true);
     public static final SimpleBooleanConfigParameter AJAX_ENABLED = new SimpleBooleanConfigParameter("org.owasp.csrfguard.Ajax", false);
     public static final SimpleBooleanConfigParameter CSRFGUARD_PROTECT = new SimpleBooleanConfigParameter("org.owasp.csrfguard.Protect", false);
 
     public static final SimpleIntConfigParameter TOKEN_LENGTH = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenLength", 32);
+    public static final SimpleIntConfigParameter TOKEN_POOL_SIZE = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenPool.Size", 0);
+    public static final SimpleIntConfigParameter TOKEN_POOL_REFILL_WATERMARK = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenPool.RefillWatermark", 50);
+    public static final SimpleIntConfigParameter ASYNC_ACTIONS_THREADS = new SimpleIntConfigParameter("org.owasp.csrfguard.AsyncActions.Threads", 0);
+    public static final SimpleIntConfigParameter ASYNC_ACTIONS_QUEUE_SIZE = new SimpleIntConfigParameter("org.owasp.csrfguard.AsyncActions.QueueSize", 1024);
+    public static final SimpleBooleanConfigParameter PRNG_PER_THREAD = new SimpleBooleanConfigParameter("org.owasp.csrfguard.PRNG.PerThread", false);
+    public static final SimpleIntConfigParameter PROTECTION_DECISION_CACHE_SIZE = new SimpleIntConfigParameter("org.owasp.csrfguard.ProtectionDecisionCacheSize", 10_000);
+    public static final SimpleBooleanConfigParameter SIGNED_TOKEN = new SimpleBooleanConfigParameter("org.owasp.csrfguard.SignedToken", false);
+    public static final SimpleDurationParameter SIGNED_TOKEN_MAX_AGE = new SimpleDurationParameter("org.owasp.csrfguard.SignedToken.MaxAge", Duration.of(8, ChronoUnit.HOURS));
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_MAX_ENTRIES = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.MaxEntries", 100_000);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_SHARDS = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.Shards", 16);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_MAX_PAGE_TOKENS = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.MaxPageTokens", 1_000_000);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_MAX_KEY_LENGTH = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.MaxKeyLength", 128);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_MAX_URI_LENGTH = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.MaxUriLength", 256);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_MAX_TOKEN_LENGTH = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.MaxTokenLength", 64);
+    public static final SimpleDurationParameter TOKEN_HOLDER_IDLE_TIMEOUT = new SimpleDurationParameter("org.owasp.csrfguard.TokenHolder.IdleTimeout", Duration.of(30, ChronoUnit.MINUTES));
+    public static final SimpleDurationParameter TOKEN_HOLDER_ABSOLUTE_TIMEOUT = new SimpleDurationParameter("org.owasp.csrfguard.TokenHolder.AbsoluteTimeout", Duration.of(8, ChronoUnit.HOURS));
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_FILE_INITIAL_SIZE = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.File.InitialSize", 16 * 1024 * 1024);
+    public static final SimpleIntConfigParameter TOKEN_HOLDER_FILE_SYNC_RECORDS = new SimpleIntConfigParameter("org.owasp.csrfguard.TokenHolder.File.SyncRecords", 1000);
+    public static final SimpleDurationParameter TOKEN_HOLDER_FILE_SYNC_INTERVAL = new SimpleDurationParameter("org.owasp.csrfguard.TokenHolder.File.SyncInterval", Duration.of(1, ChronoUnit.SECONDS));
     public static final SimpleDurationParameter PAGE_TOKEN_SYNCHRONIZATION_TOLERANCE = new SimpleDurationParameter("org.owasp.csrfguard.PageTokenSynchronizationTolerance", Duration.of(2, ChronoUnit.SECONDS));
 
     public static final Pair<String, String> TOKEN_NAME = Pair.of("org.owasp.csrfguard.TokenName", "OWASP-CSRFGUARD");
     public static final Pair<String, String> LOGGER = Pair.of("org.owasp.csrfguard.Logger", "org.owasp.csrfguard.log.ConsoleLogger");
+    public static final SimpleBooleanConfigParameter LOGGER_ASYNC = new SimpleBooleanConfigParameter("org.owasp.csrfguard.Logger.Async", false);
+    public static final SimpleIntConfigParameter LOGGER_ASYNC_CAPACITY = new SimpleIntConfigParameter("org.owasp.csrfguard.Logger.Async.Capacity", 1024);
+    public static final Pair<String, String> LOGGER_ASYNC_OVERFLOW_POLICY = Pair.of("org.owasp.csrfguard.Logger.Async.OverflowPolicy", "DROP");
     public static final Pair<String, String> DOMAIN_ORIGIN = Pair.of("org.owasp.csrfguard.domainOrigin", null);
     public static final Pair<String, String> DEFAULT_PRNG = Pair.of("SUN", "SHA1PRNG");
     public static final Pair<String, String> PRNG = Pair.of("org.owasp.csrfguard.PRNG", DEFAULT_PRNG.getValue());
     public static final Pair<String, String> PRNG_PROVIDER = Pair.of("org.owasp.csrfguard.PRNG.Provider", DEFAULT_PRNG.getKey());
+    public static final Pair<String, String> TOKEN_FORMAT = Pair.of("org.owasp.csrfguard.TokenFormat", "DASHED");
     public static final Pair<String, String> TOKEN_HOLDER = Pair.of("org.owasp.csrfguard.TokenHolder", "org.owasp.csrfguard.token.storage.impl.InMemoryTokenHolder");
 
+    public static final String TOKEN_HOLDER_FILE = "org.owasp.csrfguard.TokenHolder.File";
     public static final String LOGICAL_SESSION_EXTRACTOR_NAME = "org.owasp.csrfguard.LogicalSessionExtractor";
 
     public static final String NEW_TOKEN_LANDING_PAGE = "org.owasp.csrfguard.NewTokenLandingPage";
     public static final String UNPROTECTED_METHODS = "org.owasp.csrfguard.UnprotectedMethods";
     public static final String PROTECTED_METHODS = "org.owasp.csrfguard.ProtectedMethods";
 
+    public static final String SIGNED_TOKEN_KEY_PREFIX = "org.owasp.csrfguard.SignedToken.Key.";
+    public static final String SIGNED_TOKEN_ACTIVE_KEY = "org.owasp.csrfguard.SignedToken.ActiveKey";
+
     public static final String CONFIG_OVERLAY_HIERARCHY_PROPERTY_NAME = "org.owasp.csrfguard.configOverlay.hierarchy";
     public static final String CONFIG_OVERLAY_UPDATE_CHECK_PROPERTY_NAME = "org.owasp.csrfguard.configOverlay.secondsBetweenUpdateChecks";
     public static final String CONFIG_PROVIDER_FACTORY_PROPERTY_NAME = "org.owasp.csrfguard.configuration.provider.factory";
@@ -30,6 +30,7 @@
 package org.owasp.csrfguard.http;
 
 import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.CsrfValidator;
 import org.owasp.csrfguard.ProtectionResult;
 import org.owasp.csrfguard.session.LogicalSession;
@@ -102,7 +103,7 @@ public class InterceptRedirectResponse extends HttpServletResponseWrapper {
     private String computeTokenValue(final String locationUri) {
         final TokenService tokenService = CsrfGuard.getInstance().getTokenService();
 
-        final LogicalSession logicalSession = this.csrfGuard.getLogicalSessionExtractor().extract(this.request);
+        final LogicalSession logicalSession = CsrfGuardRequestContext.get(this.request).getLogicalSession();
 
         return Objects.nonNull(logicalSession) ? tokenService.generateTokensIfAbsent(logicalSession.getKey(), "GET", locationUri) : null;
     }
@@ -0,0 +1,351 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.log;
+
+import org.owasp.csrfguard.util.RingBuffer;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger handing the messages over to another logger on a background thread, so the request threads do not contend on the locks of the
+ * underlying logging framework (e.g. while rejecting a flood of forged requests).
+ * <p>
+ * The messages are passed through a bounded, lock-free {@link RingBuffer} to a single daemon thread, shared by all the instances.
+ * If the buffer is full, the message is either dropped (and the number of dropped messages is logged later) or the caller waits
+ * until there is free space, depending on the {@link OverflowPolicy}. The messages that the underlying logger fails to write are
+ * counted and reported the same way. The pending messages are flushed by {@link #shutdown()},
+ * invoked when the application is shut down. After that, the messages are written by the calling thread, so no new thread is started
+ * (which would keep the class loader of the undeployed application alive).
+ */
+public class AsyncLogger implements ILogger {
+
+	private static final long serialVersionUID = -2906437812474911453L;
+
+	/**
+	 * Tells what happens with a message if the buffer is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * the message is discarded and counted
+		 */
+		DROP,
+		/**
+		 * the caller waits until the message can be buffered
+		 */
+		BLOCK
+	}
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private static volatile Dispatcher dispatcher;
+
+	/**
+	 * Also counts the failures of the synchronous writes after {@link #shutdown()}, so it is not bound to a dispatcher
+	 */
+	private static final LongAdder failedCount = new LongAdder();
+
+	/**
+	 * Set for good by {@link #shutdown()}, guarded by the monitor of the class
+	 */
+	private static boolean shutDown;
+
+	private final ILogger delegate;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * @param delegate       the logger writing the messages on the background thread
+	 * @param capacity       the maximum number of buffered messages, rounded up to a power of two
+	 * @param overflowPolicy tells what happens if the buffer is full
+	 */
+	public AsyncLogger(final ILogger delegate, final int capacity, final OverflowPolicy overflowPolicy) {
+		this.delegate = Objects.requireNonNull(delegate, "The delegate logger cannot be null");
+		this.capacity = capacity;
+		this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "The overflow policy cannot be null");
+	}
+
+	@Override
+	public void log(final String msg) {
+		log(LogLevel.Info, msg);
+	}
+
+	@Override
+	public boolean isEnabled(final LogLevel level) {
+		return this.delegate.isEnabled(level);
+	}
+
+	@Override
+	public void log(final LogLevel level, final String msg) {
+		if (isEnabled(level)) {
+			dispatch(new LogEvent(this.delegate, level, msg, null));
+		}
+	}
+
+	@Override
+	public void log(final Exception exception) {
+		dispatch(new LogEvent(this.delegate, null, null, exception));
+	}
+
+	@Override
+	public void log(final LogLevel level, final Exception exception) {
+		if (isEnabled(level)) {
+			dispatch(new LogEvent(this.delegate, level, null, exception));
+		}
+	}
+
+	/**
+	 * @return the number of messages dropped because the buffer was full, since the buffer was created
+	 */
+	public static long getDroppedCount() {
+		final Dispatcher currentDispatcher = dispatcher;
+		return Objects.isNull(currentDispatcher) ? 0 : currentDispatcher.droppedCount.sum();
+	}
+
+	/**
+	 * @return the number of messages that the underlying logger failed to write, since the class was loaded
+	 */
+	public static long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	/**
+	 * Writes the pending messages and stops the background thread. Invoked when the application is shut down,
+	 * the subsequent messages are written synchronously.
+	 */
+	public static synchronized void shutdown() {
+		shutDown = true;
+		if (Objects.nonNull(dispatcher)) {
+			dispatcher.stop();
+			dispatcher.awaitTermination();
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * Leaves the shut down state, so the tests can start a new background thread.
+	 */
+	static synchronized void restart() {
+		shutdown();
+		shutDown = false;
+	}
+
+	private void dispatch(final LogEvent logEvent) {
+		final Dispatcher currentDispatcher = getDispatcher(this.capacity);
+		if (Objects.isNull(currentDispatcher)) {
+			Dispatcher.write(logEvent);
+		} else {
+			currentDispatcher.dispatch(logEvent, this.overflowPolicy);
+		}
+	}
+
+	/**
+	 * @return the dispatcher with the given capacity (re-created only if the capacity has changed), or null if the logger was shut down
+	 */
+	private static Dispatcher getDispatcher(final int capacity) {
+		final Dispatcher currentDispatcher = dispatcher;
+		if (Objects.nonNull(currentDispatcher) && currentDispatcher.capacity == capacity) {
+			return currentDispatcher;
+		}
+
+		synchronized (AsyncLogger.class) {
+			if (shutDown) {
+				return null;
+			}
+
+			if (Objects.isNull(dispatcher) || dispatcher.capacity != capacity) {
+				if (Objects.nonNull(dispatcher)) {
+					/* the pending messages are still written by the previous thread */
+					dispatcher.stop();
+				}
+				dispatcher = new Dispatcher(capacity);
+			}
+			return dispatcher;
+		}
+	}
+
+	private static final class LogEvent {
+
+		private final ILogger delegate;
+		private final LogLevel level;
+		private final String msg;
+		private final Exception exception;
+
+		private LogEvent(final ILogger delegate, final LogLevel level, final String msg, final Exception exception) {
+			this.delegate = delegate;
+			this.level = level;
+			this.msg = msg;
+			this.exception = exception;
+		}
+
+		private void write() {
+			if (Objects.isNull(this.exception)) {
+				this.delegate.log(this.level, this.msg);
+			} else if (Objects.isNull(this.level)) {
+				this.delegate.log(this.exception);
+			} else {
+				this.delegate.log(this.level, this.exception);
+			}
+		}
+	}
+
+	private static final class Dispatcher {
+
+		private final int capacity;
+		private final RingBuffer<LogEvent> logEvents;
+		private final Thread consumerThread;
+
+		private final LongAdder droppedCount = new LongAdder();
+		private long reportedDroppedCount;
+
+		private long reportedFailedCount = failedCount.sum();
+
+		private volatile boolean running = true;
+		private volatile boolean idle;
+
+		private Dispatcher(final int capacity) {
+			this.capacity = capacity;
+			this.logEvents = new RingBuffer<>(capacity);
+
+			this.consumerThread = new Thread(this::consume, "CSRFGuard-AsyncLogger");
+			this.consumerThread.setDaemon(true);
+			this.consumerThread.start();
+		}
+
+		private void dispatch(final LogEvent logEvent, final OverflowPolicy overflowPolicy) {
+			while (this.running) {
+				if (this.logEvents.offer(logEvent)) {
+					if (!this.running) {
+						/* stopped meanwhile, the background thread might have drained the buffer for the last time already */
+						drain();
+					} else if (this.idle) {
+						LockSupport.unpark(this.consumerThread);
+					}
+					return;
+				}
+
+				if (overflowPolicy == OverflowPolicy.DROP) {
+					this.droppedCount.increment();
+					return;
+				}
+
+				LockSupport.unpark(this.consumerThread);
+				LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			}
+
+			/* the background thread is stopped, the message is written by the caller */
+			write(logEvent);
+		}
+
+		private void stop() {
+			this.running = false;
+			LockSupport.unpark(this.consumerThread);
+		}
+
+		private void awaitTermination() {
+			try {
+				this.consumerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void consume() {
+			ILogger lastDelegate = null;
+
+			while (this.running || this.logEvents.size() > 0) {
+				final LogEvent logEvent = this.logEvents.poll();
+
+				if (Objects.nonNull(logEvent)) {
+					write(logEvent);
+					lastDelegate = logEvent.delegate;
+				} else {
+					reportLostMessages(lastDelegate);
+
+					this.idle = true;
+					if (this.running && this.logEvents.size() == 0) {
+						LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					}
+					this.idle = false;
+				}
+			}
+
+			/* the messages buffered by the callers that have not noticed the stop yet */
+			drain();
+			reportLostMessages(lastDelegate);
+		}
+
+		private void drain() {
+			for (LogEvent logEvent = this.logEvents.poll(); Objects.nonNull(logEvent); logEvent = this.logEvents.poll()) {
+				write(logEvent);
+			}
+		}
+
+		private void reportLostMessages(final ILogger delegate) {
+			if (Objects.isNull(delegate)) {
+				return;
+			}
+
+			final long dropped = this.droppedCount.sum();
+			if (dropped > this.reportedDroppedCount) {
+				report(delegate, String.format("%d log messages were dropped, because the asynchronous log buffer was full.", dropped - this.reportedDroppedCount));
+				this.reportedDroppedCount = dropped;
+			}
+
+			final long failed = failedCount.sum();
+			if (failed > this.reportedFailedCount) {
+				report(delegate, String.format("%d log messages were lost, because the underlying logger failed to write them.", failed - this.reportedFailedCount));
+				this.reportedFailedCount = failed;
+			}
+		}
+
+		private static void report(final ILogger delegate, final String message) {
+			try {
+				delegate.log(LogLevel.Warning, message);
+			} catch (final RuntimeException e) {
+				/* there is nowhere else to report to, the counts are still available through the getters */
+			}
+		}
+
+		private static void write(final LogEvent logEvent) {
+			try {
+				logEvent.write();
+			} catch (final RuntimeException e) {
+				/* the background thread must survive the failures of the underlying logger */
+				failedCount.increment();
+			}
+		}
+	}
+}
@@ -30,6 +30,7 @@
 package org.owasp.csrfguard.log;
 
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * TODO use slf4j instead
@@ -49,6 +50,42 @@ public interface ILogger extends Serializable {
 	 */
 	void log(LogLevel level, String msg);
 
+	/**
+	 * Tells whether the messages of the given level are written, so the callers can skip building messages that would be discarded anyway.
+	 * The default implementation writes every level.
+	 *
+	 * @param level the level to check
+	 * @return true if the messages of the level are written
+	 */
+	default boolean isEnabled(final LogLevel level) {
+		return true;
+	}
+
+	/**
+	 * Logs the message built by the supplier, which is only invoked if the level is enabled.
+	 *
+	 * @param level the level of the message
+	 * @param msgSupplier builds the message
+	 */
+	default void log(final LogLevel level, final Supplier<String> msgSupplier) {
+		if (isEnabled(level)) {
+			log(level, msgSupplier.get());
+		}
+	}
+
+	/**
+	 * Logs the message formatted using {@link String#format(String, Object...)}, which is only done if the level is enabled.
+	 *
+	 * @param level the level of the message
+	 * @param format the format string of the message
+	 * @param arguments the arguments referenced by the format string
+	 */
+	default void log(final LogLevel level, final String format, final Object... arguments) {
+		if (isEnabled(level)) {
+			log(level, String.format(format, arguments));
+		}
+	}
+
 	/**
 	 * TODO document
 	 * @param exception
@@ -40,35 +40,21 @@ public class JavaLogger implements ILogger {
 
 	@Override
 	public void log(final String msg) {
-		LOGGER.info(msg.replaceAll("(\\r|\\n)", ""));
+		log(LogLevel.Info, msg);
+	}
+
+	@Override
+	public boolean isEnabled(final LogLevel level) {
+		return LOGGER.isLoggable(toLevel(level));
 	}
 
 	@Override
 	public void log(final LogLevel level, final String msg) {
-		// Remove CR and LF characters to prevent CRLF injection
-		final String sanitizedMsg = msg.replaceAll("(\\r|\\n)", "");
-		
-		switch(level) {
-			case Trace:
-				LOGGER.finest(sanitizedMsg);
-				break;
-			case Debug:
-				LOGGER.fine(sanitizedMsg);
-				break;
-			case Info:
-				LOGGER.info(sanitizedMsg);
-				break;
-			case Warning:
-				LOGGER.warning(sanitizedMsg);
-				break;
-			case Error:
-				LOGGER.warning(sanitizedMsg);
-				break;
-			case Fatal:
-				LOGGER.severe(sanitizedMsg);
-				break;
-			default:
-				throw new RuntimeException("unsupported log level " + level);
+		final Level javaLevel = toLevel(level);
+
+		if (LOGGER.isLoggable(javaLevel)) {
+			// Remove CR and LF characters to prevent CRLF injection
+			LOGGER.log(javaLevel, removeLineBreaks(msg));
 		}
 	}
 
@@ -79,23 +65,52 @@ public class JavaLogger implements ILogger {
 
 	@Override
 	public void log(final LogLevel level, final Exception exception) {
-			switch(level) {
+		LOGGER.log(toLevel(level), exception.getLocalizedMessage(), exception);
+	}
+
+	/**
+	 * Removes the CR and LF characters in a single pass, without copying the message if it does not contain any.
+	 *
+	 * @param msg the message to sanitize
+	 * @return the message without line breaks
+	 */
+	static String removeLineBreaks(final String msg) {
+		int i = 0;
+		while (i < msg.length() && !isLineBreak(msg.charAt(i))) {
+			i++;
+		}
+
+		if (i == msg.length()) {
+			return msg;
+		}
+
+		final StringBuilder sanitizedMsg = new StringBuilder(msg.length() - 1).append(msg, 0, i);
+		for (i++; i < msg.length(); i++) {
+			final char c = msg.charAt(i);
+			if (!isLineBreak(c)) {
+				sanitizedMsg.append(c);
+			}
+		}
+		return sanitizedMsg.toString();
+	}
+
+	private static boolean isLineBreak(final char c) {
+		return c == '\r' || c == '\n';
+	}
+
+	private static Level toLevel(final LogLevel level) {
+		switch(level) {
 			case Trace:
-				LOGGER.log(Level.FINEST, exception.getLocalizedMessage(), exception);
-				break;
+				return Level.FINEST;
 			case Debug:
-				LOGGER.log(Level.FINE, exception.getLocalizedMessage(), exception);
-				break;
+				return Level.FINE;
 			case Info:
-				LOGGER.log(Level.INFO, exception.getLocalizedMessage(), exception);
-				break;
+				return Level.INFO;
 			case Warning:
 			case Error:
-				LOGGER.log(Level.WARNING, exception.getLocalizedMessage(), exception);
-				break;
+				return Level.WARNING;
 			case Fatal:
-				LOGGER.log(Level.SEVERE, exception.getLocalizedMessage(), exception);
-				break;
+				return Level.SEVERE;
 			default:
 				throw new RuntimeException("unsupported log level " + level);
 		}
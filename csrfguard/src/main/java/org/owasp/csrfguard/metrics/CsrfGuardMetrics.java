@@ -0,0 +1,131 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.metrics;
+
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.util.MessageConstants;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * The metrics of the validation pipeline. Recording is lock-free and allocation-free, so it is always enabled.
+ * <p>
+ * The metrics can be read by passing a {@link MetricsExporter} (e.g. the {@link PrometheusExporter}) to {@link #getRegistry()}{@code .export(...)}.
+ * The durations are recorded in nanoseconds.
+ */
+public final class CsrfGuardMetrics {
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    private static final String REJECTED_REQUESTS = "csrfguard_requests_rejected_total";
+    private static final String REJECTED_REQUESTS_DESCRIPTION = "Requests rejected by CSRFGuard, by reason";
+
+    private static final Counter VALIDATED_REQUESTS = REGISTRY.counter("csrfguard_requests_validated_total", "Protected requests with a valid token");
+    private static final Counter UNPROTECTED_REQUESTS = REGISTRY.counter("csrfguard_requests_unprotected_total", "Requests not requiring a token");
+    private static final Map<String, Counter> REJECTED_REQUESTS_BY_MESSAGE = createRejectedRequestCounters();
+    private static final Counter OTHER_REJECTED_REQUESTS = rejectedRequests("other");
+
+    private static final Histogram VALIDATION_DURATION = REGISTRY.histogram("csrfguard_validation_duration_seconds", "Duration of the request validation");
+    private static final Histogram TOKEN_VERIFICATION_DURATION = REGISTRY.histogram("csrfguard_token_verification_duration_seconds", "Duration of the token verification");
+    private static final Histogram TOKEN_GENERATION_DURATION = REGISTRY.histogram("csrfguard_token_generation_duration_seconds", "Duration of the random token generation");
+    private static final Histogram JAVASCRIPT_RENDERING_DURATION = REGISTRY.histogram("csrfguard_javascript_rendering_duration_seconds", "Duration of the JavaScript servlet responses");
+
+    static {
+        REGISTRY.gauge("csrfguard_sessions", "Logical sessions stored by the token holder", () -> fromTokenHolder(TokenHolder::getSessionCount));
+        REGISTRY.gauge("csrfguard_page_tokens", "Page tokens stored by the token holder", () -> fromTokenHolder(TokenHolder::getPageTokenCount));
+    }
+
+    private CsrfGuardMetrics() {}
+
+    /**
+     * @return the registry holding the CSRFGuard metrics, can be used to register additional metrics as well
+     */
+    public static MetricsRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    public static Counter getValidatedRequests() {
+        return VALIDATED_REQUESTS;
+    }
+
+    public static Counter getUnprotectedRequests() {
+        return UNPROTECTED_REQUESTS;
+    }
+
+    /**
+     * @param csrfGuardException the exception describing why the request was rejected
+     * @return the rejected requests counter matching the reason of the exception
+     */
+    public static Counter getRejectedRequests(final CsrfGuardException csrfGuardException) {
+        final String message = csrfGuardException.getMessage();
+        final Counter counter = Objects.isNull(message) ? null : REJECTED_REQUESTS_BY_MESSAGE.get(message);
+        return Objects.nonNull(counter) ? counter : OTHER_REJECTED_REQUESTS;
+    }
+
+    public static Histogram getValidationDuration() {
+        return VALIDATION_DURATION;
+    }
+
+    public static Histogram getTokenVerificationDuration() {
+        return TOKEN_VERIFICATION_DURATION;
+    }
+
+    public static Histogram getTokenGenerationDuration() {
+        return TOKEN_GENERATION_DURATION;
+    }
+
+    public static Histogram getJavaScriptRenderingDuration() {
+        return JAVASCRIPT_RENDERING_DURATION;
+    }
+
+    private static Map<String, Counter> createRejectedRequestCounters() {
+        final Map<String, Counter> counters = new HashMap<>();
+        counters.put(MessageConstants.REQUEST_MISSING_TOKEN_MSG, rejectedRequests("missing_token"));
+        counters.put(MessageConstants.MISMATCH_PAGE_TOKEN_MSG, rejectedRequests("page_token_mismatch"));
+        counters.put(MessageConstants.MISMATCH_MASTER_TOKEN_MSG, rejectedRequests("master_token_mismatch"));
+        counters.put(MessageConstants.TOKEN_MISSING_FROM_STORAGE_MSG, rejectedRequests("token_missing_from_storage"));
+        return Collections.unmodifiableMap(counters);
+    }
+
+    private static Counter rejectedRequests(final String reason) {
+        return REGISTRY.counter(REJECTED_REQUESTS, REJECTED_REQUESTS_DESCRIPTION, Collections.singletonMap("reason", reason));
+    }
+
+    private static long fromTokenHolder(final ToIntFunction<TokenHolder> valueFunction) {
+        final CsrfGuard csrfGuard = CsrfGuard.getInstance();
+        final TokenHolder tokenHolder = csrfGuard.isSignedTokenEnabled() ? null : csrfGuard.getTokenHolder();
+        return Objects.isNull(tokenHolder) ? -1 : valueFunction.applyAsInt(tokenHolder);
+    }
+}
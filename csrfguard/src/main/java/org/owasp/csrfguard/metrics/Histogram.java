@@ -0,0 +1,166 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values, typically latencies in nanoseconds.
+ * <p>
+ * The values are counted in log-linear buckets (as done by HdrHistogram): every power of two range is split in
+ * {@link #SUB_BUCKET_COUNT} linear sub-buckets, so the recorded values are kept with a relative error below 12.5%
+ * using a fixed number of buckets. All buckets are allocated upfront and counted by {@link LongAdder}s,
+ * so recording a value is lock-free and does not allocate.
+ */
+public final class Histogram extends Metric {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(final String name, final String description, final Map<String, String> labels) {
+        super(name, description, labels);
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value the value to be recorded, negative values are recorded as zero
+     */
+    public void record(final long value) {
+        final long positiveValue = Math.max(value, 0);
+        this.buckets[bucketIndex(positiveValue)].increment();
+        this.count.increment();
+        this.sum.add(positiveValue);
+        this.max.accumulate(positiveValue);
+    }
+
+    /**
+     * Records the time elapsed since the provided start time
+     *
+     * @param startNanos a value previously returned by {@link System#nanoTime()}
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return the largest recorded value, or zero if there is none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the value below or equal to which the given percentage of the recorded values fall.
+     * As the values are bucketed, the result is the upper bound of the matching bucket (capped by the maximum value).
+     *
+     * @param percentile a percentage between 0 and 100
+     * @return the value at the given percentile, or zero if there are no recorded values
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100!");
+        }
+
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.buckets[i].sum();
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Utility for exporters reporting seconds, as e.g. expected by Prometheus
+     *
+     * @param nanos a duration in nanoseconds
+     * @return the duration in seconds
+     */
+    public static double toSeconds(final long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKET_COUNT) + (int) (value >>> shift);
+    }
+
+    static long lowestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index / SUB_BUCKET_COUNT) - 1;
+        return (long) (SUB_BUCKET_COUNT + (index % SUB_BUCKET_COUNT)) << shift;
+    }
+
+    static long highestEquivalentValue(final int index) {
+        return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowestEquivalentValue(index + 1) - 1;
+    }
+}
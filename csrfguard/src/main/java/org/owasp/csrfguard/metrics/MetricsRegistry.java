@@ -0,0 +1,114 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Holds metrics by their name and labels.
+ * <p>
+ * The metrics are meant to be looked up once and kept in a field, so recording does not involve the registry at all.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentNavigableMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    private final Map<String, Class<? extends Metric>> typesByName = new ConcurrentHashMap<>();
+
+    /**
+     * @return the existing counter with the provided name and no labels or a newly registered one
+     */
+    public Counter counter(final String name, final String description) {
+        return counter(name, description, Collections.emptyMap());
+    }
+
+    /**
+     * @return the existing counter with the provided name and labels or a newly registered one
+     */
+    public Counter counter(final String name, final String description, final Map<String, String> labels) {
+        return register(Counter.class, name, labels, () -> new Counter(name, description, labels));
+    }
+
+    /**
+     * @return the existing histogram with the provided name and no labels or a newly registered one
+     */
+    public Histogram histogram(final String name, final String description) {
+        return register(Histogram.class, name, Collections.emptyMap(), () -> new Histogram(name, description, Collections.emptyMap()));
+    }
+
+    /**
+     * Registers a gauge, replacing any existing gauge having the same name.
+     *
+     * @param valueSupplier samples the value of the gauge when the registry is exported
+     * @return the registered gauge
+     */
+    public Gauge gauge(final String name, final String description, final LongSupplier valueSupplier) {
+        checkType(Gauge.class, name);
+        final Gauge gauge = new Gauge(name, description, Collections.emptyMap(), valueSupplier);
+        this.metrics.put(Metric.key(name, gauge.getLabels()), gauge);
+        return gauge;
+    }
+
+    /**
+     * Passes all the registered metrics to the exporter, ordered by name.
+     *
+     * @param exporter the exporter receiving the metrics
+     */
+    public void export(final MetricsExporter exporter) {
+        for (final Metric metric : this.metrics.values()) {
+            if (metric instanceof Counter) {
+                exporter.exportCounter((Counter) metric);
+            } else if (metric instanceof Gauge) {
+                exporter.exportGauge((Gauge) metric);
+            } else if (metric instanceof Histogram) {
+                exporter.exportHistogram((Histogram) metric);
+            }
+        }
+    }
+
+    private <T extends Metric> T register(final Class<T> type, final String name, final Map<String, String> labels, final Supplier<T> factory) {
+        checkType(type, name);
+        return type.cast(this.metrics.computeIfAbsent(Metric.key(name, labels), k -> factory.get()));
+    }
+
+    /**
+     * The metrics sharing a name must have the same type, whatever their labels are
+     */
+    private void checkType(final Class<? extends Metric> type, final String name) {
+        final Class<? extends Metric> registeredType = this.typesByName.computeIfAbsent(name, k -> type);
+        if (registeredType != type) {
+            throw new IllegalArgumentException(String.format("Metric '%s' is already registered as a %s!", name, registeredType.getSimpleName()));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.metrics;
+
+import java.util.Map;
+
+/**
+ * Renders the metrics in the Prometheus text exposition format.
+ * <p>
+ * The histograms are expected to hold nanoseconds and are rendered as summaries in seconds with the
+ * {@link #QUANTILES} quantiles. The gauges with an unknown (negative) value are omitted.
+ * <p>
+ * An instance is meant to be used for a single export:
+ * <pre>
+ * final PrometheusExporter exporter = new PrometheusExporter();
+ * CsrfGuardMetrics.getRegistry().export(exporter);
+ * response.getWriter().write(exporter.toString());
+ * </pre>
+ */
+public class PrometheusExporter implements MetricsExporter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder output = new StringBuilder();
+    private String previousName;
+
+    @Override
+    public void exportCounter(final Counter counter) {
+        writeHeader(counter, "counter");
+        writeSample(counter.getName(), counter.getLabels(), null, Long.toString(counter.getCount()));
+    }
+
+    @Override
+    public void exportGauge(final Gauge gauge) {
+        final long value = gauge.getValue();
+        if (value >= 0) {
+            writeHeader(gauge, "gauge");
+            writeSample(gauge.getName(), gauge.getLabels(), null, Long.toString(value));
+        }
+    }
+
+    @Override
+    public void exportHistogram(final Histogram histogram) {
+        writeHeader(histogram, "summary");
+        for (final double quantile : QUANTILES) {
+            final String value = Double.toString(Histogram.toSeconds(histogram.getValueAtPercentile(quantile * 100)));
+            writeSample(histogram.getName(), histogram.getLabels(), Double.toString(quantile), value);
+        }
+        writeSample(histogram.getName() + "_sum", histogram.getLabels(), null, Double.toString(Histogram.toSeconds(histogram.getSum())));
+        writeSample(histogram.getName() + "_count", histogram.getLabels(), null, Long.toString(histogram.getCount()));
+    }
+
+    /**
+     * @return the metrics exported so far
+     */
+    @Override
+    public String toString() {
+        return this.output.toString();
+    }
+
+    private void writeHeader(final Metric metric, final String type) {
+        if (!metric.getName().equals(this.previousName)) {
+            this.previousName = metric.getName();
+            this.output.append("# HELP ").append(metric.getName()).append(' ').append(escape(metric.getDescription(), false)).append('\n');
+            this.output.append("# TYPE ").append(metric.getName()).append(' ').append(type).append('\n');
+        }
+    }
+
+    private void writeSample(final String name, final Map<String, String> labels, final String quantile, final String value) {
+        this.output.append(name);
+        if (!labels.isEmpty() || quantile != null) {
+            this.output.append('{');
+            String separator = "";
+            for (final Map.Entry<String, String> label : labels.entrySet()) {
+                this.output.append(separator).append(label.getKey()).append("=\"").append(escape(label.getValue(), true)).append('"');
+                separator = ",";
+            }
+            if (quantile != null) {
+                this.output.append(separator).append("quantile=\"").append(quantile).append('"');
+            }
+            this.output.append('}');
+        }
+        this.output.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(final String value, final boolean escapeQuotes) {
+        final String escaped = value.replace("\\", "\\\\").replace("\n", "\\n");
+        return escapeQuotes ? escaped.replace("\"", "\\\"") : escaped;
+    }
+}
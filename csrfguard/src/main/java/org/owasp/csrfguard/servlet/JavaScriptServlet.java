@@ -29,13 +29,14 @@
 
 package org.owasp.csrfguard.servlet;
 
-import org.apache.commons.lang3.ObjectUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.CsrfGuardServletContextListener;
 import org.owasp.csrfguard.CsrfValidator;
 import org.owasp.csrfguard.log.LogLevel;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
 import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.service.TokenService;
 import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
 import org.owasp.csrfguard.token.transferobject.TokenTO;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
@@ -45,11 +46,11 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -58,41 +59,25 @@ public final class JavaScriptServlet extends HttpServlet {
 
     private static final long serialVersionUID = -1459584282530150483L;
 
-    private static final String TOKEN_NAME_IDENTIFIER = "%TOKEN_NAME%";
-
-    private static final String TOKEN_VALUE_IDENTIFIER = "%TOKEN_VALUE%";
-
-    private static final String DOMAIN_ORIGIN_IDENTIFIER = "%DOMAIN_ORIGIN%";
-
-    private static final String CONTEXT_PATH_IDENTIFIER = "%CONTEXT_PATH%";
-
-    private static final String SERVLET_PATH_IDENTIFIER = "%SERVLET_PATH%";
-
-    private static final String X_REQUESTED_WITH_IDENTIFIER = "%X_REQUESTED_WITH%";
-
-    private static final String UNPROTECTED_EXTENSIONS_IDENTIFIER = "%UNPROTECTED_EXTENSIONS%";
-
-    private static final String DYNAMIC_NODE_CREATION_EVENT_NAME_IDENTIFIER = "%DYNAMIC_NODE_CREATION_EVENT_NAME%";
-
     /**
-     * Non-string configuration placeholder names that has to be replaced together with the single quotes
-     * The single quotes around the attribute names are needed so the template code would be parsable by linters and automated code minifiers.
+     * The request parameter carrying the version of the static script, see {@link JavaScriptTemplate#getVersion(HttpServletRequest)}
      */
-    private static final String DOMAIN_STRICT_IDENTIFIER = "'%DOMAIN_STRICT%'";
-
-    private static final String INJECT_INTO_XHR_IDENTIFIER = "'%INJECT_XHR%'";
+    public static final String VERSION_PARAMETER_NAME = "v";
 
-    private static final String INJECT_INTO_FORMS_IDENTIFIER = "'%INJECT_FORMS%'";
-
-    private static final String INJECT_GET_FORMS_IDENTIFIER = "'%INJECT_GET_FORMS%'";
-
-    private static final String INJECT_FORM_ATTRIBUTES_IDENTIFIER = "'%INJECT_FORM_ATTRIBUTES%'";
+    /**
+     * The request parameter carrying the version of the page tokens already known by the client,
+     * see {@link TokenService#getPageTokensChangedSince(String, String)}
+     */
+    public static final String PAGE_TOKENS_VERSION_PARAMETER_NAME = "version";
 
-    private static final String INJECT_INTO_ATTRIBUTES_IDENTIFIER = "'%INJECT_ATTRIBUTES%'";
+    /**
+     * The request parameter carrying the URIs of the resources whose page tokens are requested, see {@link TokenService#getPageTokens(String, java.util.Collection)}
+     */
+    public static final String PAGE_TOKEN_URI_PARAMETER_NAME = "uri";
 
-    private static final String INJECT_INTO_DYNAMIC_NODES_IDENTIFIER = "'%INJECT_DYNAMIC_NODES%'";
+    private static final int MAX_PAGE_TOKEN_URIS = 100;
 
-    private static final String TOKENS_PER_PAGE_IDENTIFIER = "'%TOKENS_PER_PAGE%'";
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
 
     /* MIME Type constants */
     private static final String JSON_MIME_TYPE = "application/json";
@@ -131,7 +116,12 @@ public final class JavaScriptServlet extends HttpServlet {
         final CsrfGuard csrfGuard = CsrfGuard.getInstance();
 
         if (csrfGuard.isEnabled()) {
-            writeJavaScript(csrfGuard, request, response);
+            final long start = System.nanoTime();
+            try {
+                writeJavaScript(csrfGuard, request, response);
+            } finally {
+                CsrfGuardMetrics.getJavaScriptRenderingDuration().recordSince(start);
+            }
         } else {
             response.setContentType(JAVASCRIPT_MIME_TYPE);
             final String javaScriptCode = "console.log('CSRFGuard is disabled');";
@@ -143,16 +133,16 @@ public final class JavaScriptServlet extends HttpServlet {
     public void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
         final CsrfGuard csrfGuard = CsrfGuard.getInstance();
 
-        if (new CsrfValidator().isValid(request, response)) {
+        if (csrfGuard.isJavascriptStaticScript()) {
+            writeSessionTokens(csrfGuard, request, response);
+        } else if (new CsrfValidator().isValid(request, response)) {
             if (csrfGuard.isTokenPerPageEnabled()) {
                 // TODO pass the logical session downstream, see whether the null check can be done from here
-                final LogicalSession logicalSession = csrfGuard.getLogicalSessionExtractor().extract(request);
+                final LogicalSession logicalSession = CsrfGuardRequestContext.get(request).getLogicalSession();
                 if (Objects.isNull(logicalSession)) {
                     throw new IllegalStateException("This should not happen. A logical session should already exist at this point.");
                 } else {
-                    final Map<String, String> pageTokens = csrfGuard.getTokenService().getPageTokens(logicalSession.getKey());
-                    final TokenTO tokenTO = new TokenTO(pageTokens);
-                    writeTokens(response, tokenTO);
+                    writePageTokens(csrfGuard, request, response, null);
                 }
             } else {
                 response.sendError(400, "This endpoint should not be invoked if the Token-Per-Page functionality is disabled!");
@@ -162,6 +152,58 @@ public final class JavaScriptServlet extends HttpServlet {
         }
     }
 
+    /**
+     * The static script does not contain any token, it requests the tokens of the session using an AJAX request.
+     * The custom header can not be set cross-origin without a CORS preflight, so only same-origin scripts can read the tokens.
+     */
+    private static void writeSessionTokens(final CsrfGuard csrfGuard, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        if (!CsrfGuardRequestContext.get(request).isAjaxRequest()) {
+            response.sendError(403, "The tokens can only be requested using AJAX.");
+        } else if (isValidReferer(csrfGuard, request, response)) {
+            final String masterToken = getMasterToken(request, csrfGuard);
+
+            if (csrfGuard.isTokenPerPageEnabled()) {
+                writePageTokens(csrfGuard, request, response, masterToken);
+            } else {
+                response.setHeader("Cache-Control", "no-cache, no-store");
+                writeTokens(response, new TokenTO(masterToken, Collections.emptyMap()));
+            }
+        }
+    }
+
+    /**
+     * Writes the page tokens of the listed resources if the client requested them one by one, otherwise the page tokens changed since
+     * the version sent by the client (or all of them). If no page token changed since that version, only the status is sent.
+     *
+     * @param masterToken the master token to send along with the page tokens, can be null
+     */
+    private static void writePageTokens(final CsrfGuard csrfGuard, final HttpServletRequest request, final HttpServletResponse response, final String masterToken) throws IOException {
+        final String logicalSessionKey = CsrfGuardRequestContext.get(request).getLogicalSession().getKey();
+        final TokenService tokenService = csrfGuard.getTokenService();
+        final String[] resourceUris = request.getParameterValues(PAGE_TOKEN_URI_PARAMETER_NAME);
+
+        response.setHeader("Cache-Control", "no-cache, no-store");
+
+        if (Objects.nonNull(resourceUris)) {
+            if (resourceUris.length > MAX_PAGE_TOKEN_URIS) {
+                response.sendError(400, String.format("At most %d page tokens can be requested at once.", MAX_PAGE_TOKEN_URIS));
+            } else {
+                writeTokens(response, new TokenTO(masterToken, tokenService.getPageTokens(logicalSessionKey, Arrays.asList(resourceUris))));
+            }
+        } else {
+            /* the version only applies to the tokens of the client's current session, which is proven by its master token */
+            final String clientVersion = Objects.equals(tokenService.getMasterToken(logicalSessionKey), request.getHeader(csrfGuard.getTokenName()))
+                                         ? request.getParameter(PAGE_TOKENS_VERSION_PARAMETER_NAME) : null;
+            final TokenTO changedPageTokens = tokenService.getPageTokensChangedSince(logicalSessionKey, clientVersion);
+
+            if (changedPageTokens.isDelta() && changedPageTokens.getPageTokens().isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            } else {
+                writeTokens(response, new TokenTO(masterToken, changedPageTokens.getPageTokens(), changedPageTokens.getVersion(), changedPageTokens.isDelta()));
+            }
+        }
+    }
+
     private static void writeTokens(final HttpServletResponse response, final TokenTO tokenTO) throws IOException {
         final String jsonTokenTO = tokenTO.toString();
 
@@ -175,63 +217,124 @@ public final class JavaScriptServlet extends HttpServlet {
     private static void writeJavaScript(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
         final CsrfGuard csrfGuard = CsrfGuard.getInstance();
 
+        final JavaScriptTemplate javaScriptTemplate = csrfGuard.getJavaScriptTemplate();
+        final String masterToken = getMasterToken(request, csrfGuard);
+
         /* cannot cache if rotate or token-per-page is enabled */
         if (csrfGuard.isRotateEnabled() || csrfGuard.isTokenPerPageEnabled()) {
             response.setHeader("Cache-Control", "no-cache, no-store");
             response.setHeader("Pragma", "no-cache");
             response.setHeader("Expires", "0");
+
+            writeJavaScript(javaScriptTemplate, null, masterToken, request, response);
         } else {
             response.setHeader("Cache-Control", csrfGuard.getJavascriptCacheControl());
+
+            writeJavaScript(javaScriptTemplate, javaScriptTemplate.getEntityTag(request, masterToken), masterToken, request, response);
+        }
+    }
+
+    /**
+     * The static script does not contain any token, so it can be cached. It is revalidated using its ETag, unless requested using its
+     * versioned URL, which is cached for good, because a different content has a different version.
+     */
+    private static void writeStaticJavaScript(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final JavaScriptTemplate javaScriptTemplate = CsrfGuard.getInstance().getJavaScriptTemplate();
+        final String version = javaScriptTemplate.getVersion(request);
+
+        response.setHeader("Cache-Control", version.equals(request.getParameter(VERSION_PARAMETER_NAME)) ? IMMUTABLE_CACHE_CONTROL : "no-cache");
+
+        writeJavaScript(javaScriptTemplate, version, null, request, response);
+    }
+
+    /**
+     * Writes the script compressed using gzip if the client accepts it, or a not modified response if the client already has the current representation.
+     *
+     * @param entityTag the entity tag of the rendered content, or null if the response must not be cached
+     */
+    private static void writeJavaScript(final JavaScriptTemplate javaScriptTemplate, final String entityTag, final String tokenValue,
+                                        final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final boolean gzip = isGzipAccepted(request.getHeader("Accept-Encoding"));
+        response.setHeader("Vary", "Accept-Encoding");
+
+        /* the representations are different, so they have different strong entity tags */
+        final String eTag = Objects.isNull(entityTag) ? null : '"' + entityTag + (gzip ? "-gzip" : "") + '"';
+        if (Objects.nonNull(eTag)) {
+            response.setHeader("ETag", eTag);
         }
 
-        response.setContentType(JAVASCRIPT_MIME_TYPE);
-
-        String code = csrfGuard.getJavascriptTemplateCode();
-
-        code = code.replace(TOKEN_NAME_IDENTIFIER, StringUtils.defaultString(csrfGuard.getTokenName()))
-                   .replace(TOKEN_VALUE_IDENTIFIER, StringUtils.defaultString(getMasterToken(request, csrfGuard)))
-                   .replace(INJECT_INTO_FORMS_IDENTIFIER, Boolean.toString(csrfGuard.isJavascriptInjectIntoForms()))
-                   .replace(INJECT_GET_FORMS_IDENTIFIER, Boolean.toString(csrfGuard.isJavascriptInjectGetForms()))
-                   .replace(INJECT_FORM_ATTRIBUTES_IDENTIFIER, Boolean.toString(csrfGuard.isJavascriptInjectFormAttributes()))
-                   .replace(INJECT_INTO_ATTRIBUTES_IDENTIFIER, Boolean.toString(csrfGuard.isJavascriptInjectIntoAttributes()))
-                   .replace(INJECT_INTO_DYNAMIC_NODES_IDENTIFIER, String.valueOf(csrfGuard.isJavascriptInjectIntoDynamicallyCreatedNodes()))
-                   .replace(DYNAMIC_NODE_CREATION_EVENT_NAME_IDENTIFIER, StringUtils.defaultString(csrfGuard.getJavascriptDynamicNodeCreationEventName()))
-                   .replace(INJECT_INTO_XHR_IDENTIFIER, String.valueOf(csrfGuard.isAjaxEnabled()))
-                   .replace(TOKENS_PER_PAGE_IDENTIFIER, String.valueOf(csrfGuard.isTokenPerPageEnabled()))
-                   .replace(UNPROTECTED_EXTENSIONS_IDENTIFIER, String.valueOf(csrfGuard.getJavascriptUnprotectedExtensions()))
-                   .replace(DOMAIN_ORIGIN_IDENTIFIER, ObjectUtils.defaultIfNull(csrfGuard.getDomainOrigin(), StringUtils.defaultString(parseDomain(request.getRequestURL()))))
-                   .replace(DOMAIN_STRICT_IDENTIFIER, Boolean.toString(csrfGuard.isJavascriptDomainStrict()))
-                   .replace(CONTEXT_PATH_IDENTIFIER, StringUtils.defaultString(request.getContextPath()))
-                   .replace(SERVLET_PATH_IDENTIFIER, StringUtils.defaultString(request.getContextPath() + request.getServletPath()))
-                   .replace(X_REQUESTED_WITH_IDENTIFIER, StringUtils.defaultString(csrfGuard.getJavascriptXrequestedWith()));
-
-        response.getWriter().write(code);
+        if (Objects.nonNull(eTag) && isNotModified(request.getHeader("If-None-Match"), eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            response.setContentType(JAVASCRIPT_MIME_TYPE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
+            }
+
+            javaScriptTemplate.write(request, response, tokenValue, gzip);
+        }
+    }
+
+    private static boolean isGzipAccepted(final String acceptEncodingHeader) {
+        return Objects.nonNull(acceptEncodingHeader) && Arrays.stream(acceptEncodingHeader.split(","))
+                                                              .map(coding -> coding.trim().split(";"))
+                                                              .anyMatch(coding -> "gzip".equalsIgnoreCase(coding[0].trim()) && !isZeroQuality(coding));
+    }
+
+    private static boolean isZeroQuality(final String[] coding) {
+        return Arrays.stream(coding).skip(1)
+                     .map(parameter -> parameter.replace(" ", ""))
+                     .anyMatch(parameter -> parameter.matches("q=0(\\.0{0,3})?"));
+    }
+
+    private static boolean isNotModified(final String ifNoneMatchHeader, final String eTag) {
+        return Objects.nonNull(ifNoneMatchHeader) && Arrays.stream(ifNoneMatchHeader.split(","))
+                                                           .map(String::trim)
+                                                           .anyMatch(value -> value.equals(eTag) || value.equals("W/" + eTag) || value.equals("*"));
     }
 
     private static String getMasterToken(final HttpServletRequest request, final CsrfGuard csrfGuard) {
         final LogicalSessionExtractor sessionKeyExtractor = csrfGuard.getLogicalSessionExtractor();
         final LogicalSession logicalSession = sessionKeyExtractor.extractOrCreate(request);
 
-        return csrfGuard.getTokenService().getMasterToken(logicalSession.getKey());
+        /* the filter does not generate tokens for unprotected pages, so the page loading the script might not have created it */
+        final TokenService tokenService = csrfGuard.getTokenService();
+        tokenService.createMasterTokenIfAbsent(logicalSession.getKey());
+
+        return tokenService.getMasterToken(logicalSession.getKey());
     }
 
-    private static String parseDomain(final StringBuffer url) {
-        try {
-            return new URL(url.toString()).getHost();
-        } catch (final MalformedURLException e) {
-            // Should not occur. javax.servlet.http.HttpServletRequest.getRequestURL should only returns valid URLs.
-            return "INVALID_URL: " + url.toString();
+
+    private void writeJavaScript(final CsrfGuard csrfGuard, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        if (isValidReferer(csrfGuard, request, response)) {
+            // save this path so javascript is whitelisted
+            final String javascriptPath = request.getContextPath() + request.getServletPath();
+
+            // don't know why there would be more than one... hmmm
+            if (javascriptUris.size() < 100) {
+                javascriptUris.add(javascriptPath);
+            }
+
+            if (csrfGuard.isJavascriptStaticScript()) {
+                writeStaticJavaScript(request, response);
+            } else {
+                writeJavaScript(request, response);
+            }
         }
     }
 
-    private void writeJavaScript(final CsrfGuard csrfGuard, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+    /**
+     * @return false if the referer header is present but invalid, in which case an error response has already been sent
+     */
+    private static boolean isValidReferer(final CsrfGuard csrfGuard, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
         final String refererHeader = request.getHeader("referer");
 
         boolean hasError = false;
         final Pattern javascriptRefererPattern = csrfGuard.getJavascriptRefererPattern();
         if (refererHeader != null) {
             if (!javascriptRefererPattern.matcher(refererHeader).matches()) {
-                csrfGuard.getLogger().log(LogLevel.Error, String.format("Referer domain %s does not match regex: %s", refererHeader, javascriptRefererPattern.pattern()));
+                csrfGuard.getLogger().log(LogLevel.Error, "Referer domain %s does not match regex: %s", refererHeader, javascriptRefererPattern.pattern());
                 response.sendError(403);
                 hasError = true;
             }
@@ -243,23 +346,13 @@ public final class JavaScriptServlet extends HttpServlet {
                 final String requestProtocolAndDomain = CsrfGuardUtils.httpProtocolAndDomain(url, isJavascriptRefererMatchProtocol);
                 final String refererProtocolAndDomain = CsrfGuardUtils.httpProtocolAndDomain(refererHeader, isJavascriptRefererMatchProtocol);
                 if (!refererProtocolAndDomain.equals(requestProtocolAndDomain)) {
-                    csrfGuard.getLogger().log(LogLevel.Error, String.format("Referer domain %s does not match request domain: %s", refererHeader, url));
+                    csrfGuard.getLogger().log(LogLevel.Error, "Referer domain %s does not match request domain: %s", refererHeader, url);
                     hasError = true;
                     response.sendError(403);
                 }
             }
         }
 
-        if (!hasError) {
-            // save this path so javascript is whitelisted
-            final String javascriptPath = request.getContextPath() + request.getServletPath();
-
-            // don't know why there would be more than one... hmmm
-            if (javascriptUris.size() < 100) {
-                javascriptUris.add(javascriptPath);
-            }
-
-            writeJavaScript(request, response);
-        }
+        return !hasError;
     }
 }
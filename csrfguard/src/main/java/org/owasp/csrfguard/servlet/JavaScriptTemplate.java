@@ -0,0 +1,480 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.servlet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.owasp.csrfguard.config.ConfigurationProvider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The JavaScript template compiled for a given configuration.
+ * <p>
+ * The placeholders whose values only depend on the configuration are replaced once, at compile time, and the template is split into UTF-8 encoded
+ * literal chunks around the remaining, request dependent placeholders. Rendering a response therefore only encodes the request dependent values
+ * and streams the chunks, without copying the whole template.
+ * <p>
+ * Instances are immutable (apart from the cache of the recently encoded values) and can be shared between threads.
+ */
+public final class JavaScriptTemplate {
+
+    private static final String TOKEN_NAME_IDENTIFIER = "%TOKEN_NAME%";
+
+    private static final String TOKEN_VALUE_IDENTIFIER = "%TOKEN_VALUE%";
+
+    private static final String DOMAIN_ORIGIN_IDENTIFIER = "%DOMAIN_ORIGIN%";
+
+    private static final String CONTEXT_PATH_IDENTIFIER = "%CONTEXT_PATH%";
+
+    private static final String SERVLET_PATH_IDENTIFIER = "%SERVLET_PATH%";
+
+    private static final String X_REQUESTED_WITH_IDENTIFIER = "%X_REQUESTED_WITH%";
+
+    private static final String UNPROTECTED_EXTENSIONS_IDENTIFIER = "%UNPROTECTED_EXTENSIONS%";
+
+    private static final String DYNAMIC_NODE_CREATION_EVENT_NAME_IDENTIFIER = "%DYNAMIC_NODE_CREATION_EVENT_NAME%";
+
+    /**
+     * Non-string configuration placeholder names that has to be replaced together with the single quotes
+     * The single quotes around the attribute names are needed so the template code would be parsable by linters and automated code minifiers.
+     */
+    private static final String DOMAIN_STRICT_IDENTIFIER = "'%DOMAIN_STRICT%'";
+
+    private static final String INJECT_INTO_XHR_IDENTIFIER = "'%INJECT_XHR%'";
+
+    private static final String INJECT_INTO_FORMS_IDENTIFIER = "'%INJECT_FORMS%'";
+
+    private static final String INJECT_GET_FORMS_IDENTIFIER = "'%INJECT_GET_FORMS%'";
+
+    private static final String INJECT_FORM_ATTRIBUTES_IDENTIFIER = "'%INJECT_FORM_ATTRIBUTES%'";
+
+    private static final String INJECT_INTO_ATTRIBUTES_IDENTIFIER = "'%INJECT_ATTRIBUTES%'";
+
+    private static final String INJECT_INTO_DYNAMIC_NODES_IDENTIFIER = "'%INJECT_DYNAMIC_NODES%'";
+
+    private static final String TOKENS_PER_PAGE_IDENTIFIER = "'%TOKENS_PER_PAGE%'";
+
+    private static final String STATIC_SCRIPT_IDENTIFIER = "'%STATIC_SCRIPT%'";
+
+    /**
+     * The placeholders depending on the current request
+     */
+    private enum Slot {
+        TOKEN_VALUE(TOKEN_VALUE_IDENTIFIER),
+        DOMAIN_ORIGIN(DOMAIN_ORIGIN_IDENTIFIER),
+        CONTEXT_PATH(CONTEXT_PATH_IDENTIFIER),
+        SERVLET_PATH(SERVLET_PATH_IDENTIFIER);
+
+        private final String identifier;
+
+        Slot(final String identifier) {
+            this.identifier = identifier;
+        }
+    }
+
+    private static final byte[] NO_VALUE = new byte[0];
+
+    /**
+     * The number of the hash bytes used as the version (128 bits)
+     */
+    private static final int VERSION_LENGTH = 16;
+
+    /**
+     * The gzip member header: magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * The last, empty stored deflate block
+     */
+    private static final byte[] DEFLATE_END = {1, 0, 0, (byte) 0xff, (byte) 0xff};
+
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int MAX_STORED_BLOCK_LENGTH = 0xffff;
+
+    private final byte[][] literals;
+    private final Slot[] slots;
+    private final int literalsLength;
+    private final boolean requestDomainOrigin;
+
+    /**
+     * The literals compressed one by one into byte aligned, non-final deflate blocks, so they can be concatenated with the request dependent values
+     * (sent as stored blocks) into a single deflate stream, without compressing anything while serving a request
+     */
+    private final byte[][] deflatedLiterals;
+    private final int deflatedLiteralsLength;
+
+    /**
+     * The context path, the servlet path and usually the domain are the same for every request, so their encoded form is reused while the value does not change
+     */
+    private final EncodedValue[] recentValues = new EncodedValue[Slot.values().length];
+
+    private volatile Version recentVersion;
+
+    private JavaScriptTemplate(final List<byte[]> literals, final List<Slot> slots) {
+        this.literals = literals.toArray(new byte[0][]);
+        this.slots = slots.toArray(new Slot[0]);
+        this.literalsLength = literals.stream().mapToInt(literal -> literal.length).sum();
+        this.requestDomainOrigin = slots.contains(Slot.DOMAIN_ORIGIN);
+        this.deflatedLiterals = literals.stream().map(JavaScriptTemplate::deflate).toArray(byte[][]::new);
+        this.deflatedLiteralsLength = Arrays.stream(this.deflatedLiterals).mapToInt(literal -> literal.length).sum();
+    }
+
+    /**
+     * @param configurationProvider the configuration providing the template code and the values of the configuration dependent placeholders
+     * @return the compiled template
+     */
+    public static JavaScriptTemplate compile(final ConfigurationProvider configurationProvider) {
+        final Map<String, Object> placeholders = new LinkedHashMap<>();
+        placeholders.put(TOKEN_NAME_IDENTIFIER, StringUtils.defaultString(configurationProvider.getTokenName()));
+        placeholders.put(INJECT_INTO_FORMS_IDENTIFIER, Boolean.toString(configurationProvider.isJavascriptInjectIntoForms()));
+        placeholders.put(INJECT_GET_FORMS_IDENTIFIER, Boolean.toString(configurationProvider.isJavascriptInjectGetForms()));
+        placeholders.put(INJECT_FORM_ATTRIBUTES_IDENTIFIER, Boolean.toString(configurationProvider.isJavascriptInjectFormAttributes()));
+        placeholders.put(INJECT_INTO_ATTRIBUTES_IDENTIFIER, Boolean.toString(configurationProvider.isJavascriptInjectIntoAttributes()));
+        placeholders.put(INJECT_INTO_DYNAMIC_NODES_IDENTIFIER, String.valueOf(configurationProvider.isJavascriptInjectIntoDynamicallyCreatedNodes()));
+        placeholders.put(DYNAMIC_NODE_CREATION_EVENT_NAME_IDENTIFIER, StringUtils.defaultString(configurationProvider.getJavascriptDynamicNodeCreationEventName()));
+        placeholders.put(INJECT_INTO_XHR_IDENTIFIER, String.valueOf(configurationProvider.isAjaxEnabled()));
+        placeholders.put(TOKENS_PER_PAGE_IDENTIFIER, String.valueOf(configurationProvider.isTokenPerPageEnabled()));
+        placeholders.put(STATIC_SCRIPT_IDENTIFIER, String.valueOf(configurationProvider.isJavascriptStaticScript()));
+        placeholders.put(UNPROTECTED_EXTENSIONS_IDENTIFIER, String.valueOf(configurationProvider.getJavascriptUnprotectedExtensions()));
+        placeholders.put(DOMAIN_STRICT_IDENTIFIER, Boolean.toString(configurationProvider.isJavascriptDomainStrict()));
+        placeholders.put(X_REQUESTED_WITH_IDENTIFIER, StringUtils.defaultString(configurationProvider.getJavascriptXrequestedWith()));
+
+        final String domainOrigin = configurationProvider.getDomainOrigin();
+        for (final Slot slot : Slot.values()) {
+            placeholders.put(slot.identifier, slot == Slot.DOMAIN_ORIGIN && Objects.nonNull(domainOrigin) ? domainOrigin : slot);
+        }
+
+        return compile(configurationProvider.getJavascriptTemplateCode(), placeholders);
+    }
+
+    /**
+     * Writes the rendered template as UTF-8 encoded bytes. The content length is set before writing.
+     *
+     * @param request    the current request, providing the context path, the servlet path and the domain origin (unless configured)
+     * @param response   the response the rendered template is written to
+     * @param tokenValue the token to be embedded in the script
+     * @throws IOException if the response could not be written
+     */
+    public void write(final HttpServletRequest request, final HttpServletResponse response, final String tokenValue) throws IOException {
+        write(request, response, tokenValue, false);
+    }
+
+    /**
+     * Writes the rendered template as UTF-8 encoded bytes, optionally compressed using gzip. The content length is set before writing,
+     * while the content encoding header must be set by the caller.
+     *
+     * @param request    the current request, providing the context path, the servlet path and the domain origin (unless configured)
+     * @param response   the response the rendered template is written to
+     * @param tokenValue the token to be embedded in the script
+     * @param gzip       whether the content should be compressed using gzip
+     * @throws IOException if the response could not be written
+     */
+    public void write(final HttpServletRequest request, final HttpServletResponse response, final String tokenValue, final boolean gzip) throws IOException {
+        final byte[][] encodedValues = encode(request, tokenValue);
+
+        if (gzip) {
+            int contentLength = GZIP_HEADER.length + this.deflatedLiteralsLength + DEFLATE_END.length + GZIP_TRAILER_LENGTH;
+            for (final Slot slot : this.slots) {
+                contentLength += getStoredBlocksLength(encodedValues[slot.ordinal()].length);
+            }
+
+            response.setContentLength(contentLength);
+            writeGzipTo(response.getOutputStream(), encodedValues);
+        } else {
+            int contentLength = this.literalsLength;
+            for (final Slot slot : this.slots) {
+                contentLength += encodedValues[slot.ordinal()].length;
+            }
+
+            response.setContentLength(contentLength);
+            writeTo(response.getOutputStream(), encodedValues);
+        }
+    }
+
+    /**
+     * @param request    the current request, providing the context path, the servlet path and the domain origin (unless configured)
+     * @param tokenValue the token embedded in the script, or null if the script is rendered without it
+     * @return the strong entity tag (without quotes and content encoding) identifying the rendered content
+     */
+    public String getEntityTag(final HttpServletRequest request, final String tokenValue) {
+        final String version = getVersion(request);
+
+        return StringUtils.isEmpty(tokenValue) ? version
+                                               : hash(messageDigest -> {
+                                                   messageDigest.update(version.getBytes(StandardCharsets.UTF_8));
+                                                   messageDigest.update(tokenValue.getBytes(StandardCharsets.UTF_8));
+                                               });
+    }
+
+    /**
+     * The version identifies the content rendered without any token (see {@link ConfigurationProvider#isJavascriptStaticScript()}),
+     * so it can be used as an ETag or to build a versioned URL of the script.
+     *
+     * @param request the current request, providing the context path, the servlet path and the domain origin (unless configured)
+     * @return the URL safe hash of the content rendered for the request without any token
+     */
+    public String getVersion(final HttpServletRequest request) {
+        final byte[][] encodedValues = encode(request, null);
+
+        Version version = this.recentVersion;
+        if (Objects.isNull(version) || !version.isComputedFrom(encodedValues)) {
+            version = new Version(encodedValues, computeVersion(encodedValues));
+            this.recentVersion = version;
+        }
+        return version.value;
+    }
+
+    private String computeVersion(final byte[][] encodedValues) {
+        return hash(messageDigest -> {
+            for (int i = 0; i < this.slots.length; i++) {
+                messageDigest.update(this.literals[i]);
+                messageDigest.update(encodedValues[this.slots[i].ordinal()]);
+            }
+            messageDigest.update(this.literals[this.slots.length]);
+        });
+    }
+
+    private static String hash(final Consumer<MessageDigest> content) {
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        content.accept(messageDigest);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(messageDigest.digest(), VERSION_LENGTH));
+    }
+
+    private byte[][] encode(final HttpServletRequest request, final String tokenValue) {
+        final byte[][] encodedValues = new byte[Slot.values().length][];
+        encodedValues[Slot.TOKEN_VALUE.ordinal()] = StringUtils.isEmpty(tokenValue) ? NO_VALUE : tokenValue.getBytes(StandardCharsets.UTF_8);
+        encodedValues[Slot.CONTEXT_PATH.ordinal()] = encode(Slot.CONTEXT_PATH, request.getContextPath());
+        encodedValues[Slot.SERVLET_PATH.ordinal()] = encode(Slot.SERVLET_PATH, request.getContextPath() + request.getServletPath());
+        encodedValues[Slot.DOMAIN_ORIGIN.ordinal()] = this.requestDomainOrigin ? encode(Slot.DOMAIN_ORIGIN, parseDomain(request.getRequestURL())) : NO_VALUE;
+        return encodedValues;
+    }
+
+    private void writeTo(final OutputStream outputStream, final byte[][] encodedValues) throws IOException {
+        for (int i = 0; i < this.slots.length; i++) {
+            outputStream.write(this.literals[i]);
+            outputStream.write(encodedValues[this.slots[i].ordinal()]);
+        }
+        outputStream.write(this.literals[this.slots.length]);
+    }
+
+    private void writeGzipTo(final OutputStream outputStream, final byte[][] encodedValues) throws IOException {
+        final CRC32 crc32 = new CRC32();
+
+        outputStream.write(GZIP_HEADER);
+        for (int i = 0; i < this.slots.length; i++) {
+            outputStream.write(this.deflatedLiterals[i]);
+            crc32.update(this.literals[i]);
+
+            final byte[] encodedValue = encodedValues[this.slots[i].ordinal()];
+            writeStoredBlocks(outputStream, encodedValue);
+            crc32.update(encodedValue);
+        }
+        outputStream.write(this.deflatedLiterals[this.slots.length]);
+        crc32.update(this.literals[this.slots.length]);
+        outputStream.write(DEFLATE_END);
+
+        final int contentLength = this.literalsLength + Arrays.stream(this.slots).mapToInt(slot -> encodedValues[slot.ordinal()].length).sum();
+        writeIntLittleEndian(outputStream, (int) crc32.getValue());
+        writeIntLittleEndian(outputStream, contentLength);
+    }
+
+    /**
+     * Stored blocks start at byte boundaries with a header byte (not final, no compression), followed by the length and its complement
+     */
+    private static void writeStoredBlocks(final OutputStream outputStream, final byte[] value) throws IOException {
+        for (int offset = 0; offset < value.length; offset += MAX_STORED_BLOCK_LENGTH) {
+            final int length = Math.min(MAX_STORED_BLOCK_LENGTH, value.length - offset);
+
+            outputStream.write(0);
+            outputStream.write(length);
+            outputStream.write(length >>> 8);
+            outputStream.write(~length);
+            outputStream.write(~length >>> 8);
+            outputStream.write(value, offset, length);
+        }
+    }
+
+    private static int getStoredBlocksLength(final int valueLength) {
+        final int numberOfBlocks = (valueLength + MAX_STORED_BLOCK_LENGTH - 1) / MAX_STORED_BLOCK_LENGTH;
+        return valueLength + numberOfBlocks * 5;
+    }
+
+    private static void writeIntLittleEndian(final OutputStream outputStream, final int value) throws IOException {
+        outputStream.write(value);
+        outputStream.write(value >>> 8);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 24);
+    }
+
+    /**
+     * @return the raw deflate blocks of the literal, ending with a sync flush, so the output is byte aligned and the stream is not finished
+     */
+    private static byte[] deflate(final byte[] literal) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(literal);
+
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(literal.length / 2 + 64);
+            final byte[] buffer = new byte[8192];
+            int length;
+            do {
+                length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                outputStream.write(buffer, 0, length);
+            } while (length == buffer.length || !deflater.needsInput());
+
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] encode(final Slot slot, final String value) {
+        final String nonNullValue = StringUtils.defaultString(value);
+
+        EncodedValue recentValue = this.recentValues[slot.ordinal()];
+        if (Objects.isNull(recentValue) || !recentValue.value.equals(nonNullValue)) {
+            /* racy, but the published objects are immutable */
+            recentValue = new EncodedValue(nonNullValue);
+            this.recentValues[slot.ordinal()] = recentValue;
+        }
+        return recentValue.bytes;
+    }
+
+    private static String parseDomain(final StringBuffer url) {
+        try {
+            return new URL(url.toString()).getHost();
+        } catch (final MalformedURLException e) {
+            // Should not occur. javax.servlet.http.HttpServletRequest.getRequestURL should only returns valid URLs.
+            return "INVALID_URL: " + url.toString();
+        }
+    }
+
+    static JavaScriptTemplate compile(final String templateCode, final Map<String, Object> placeholders) {
+        final List<byte[]> literals = new ArrayList<>();
+        final List<Slot> slots = new ArrayList<>();
+
+        final StringBuilder literal = new StringBuilder(templateCode.length());
+        int position = 0;
+        while (position < templateCode.length()) {
+            String nextIdentifier = null;
+            int nextIndex = templateCode.length();
+
+            for (final String identifier : placeholders.keySet()) {
+                final int index = templateCode.indexOf(identifier, position);
+                if (index >= 0 && index < nextIndex) {
+                    nextIdentifier = identifier;
+                    nextIndex = index;
+                }
+            }
+
+            literal.append(templateCode, position, nextIndex);
+
+            if (Objects.nonNull(nextIdentifier)) {
+                final Object replacement = placeholders.get(nextIdentifier);
+                if (replacement instanceof Slot) {
+                    literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+                    slots.add((Slot) replacement);
+                    literal.setLength(0);
+                } else {
+                    literal.append(replacement);
+                }
+                nextIndex += nextIdentifier.length();
+            }
+
+            position = nextIndex;
+        }
+
+        literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+
+        return new JavaScriptTemplate(literals, slots);
+    }
+
+    private static final class Version {
+
+        private final byte[][] encodedValues;
+        private final String value;
+
+        private Version(final byte[][] encodedValues, final String value) {
+            this.encodedValues = encodedValues;
+            this.value = value;
+        }
+
+        /**
+         * The encoded values are reused while they do not change, so comparing the references is sufficient
+         */
+        private boolean isComputedFrom(final byte[][] encodedValues) {
+            for (int i = 0; i < encodedValues.length; i++) {
+                if (this.encodedValues[i] != encodedValues[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class EncodedValue {
+
+        private final String value;
+        private final byte[] bytes;
+
+        private EncodedValue(final String value) {
+            this.value = value;
+            this.bytes = value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import org.owasp.csrfguard.exception.CSRFGuardTokenException;
+import org.owasp.csrfguard.util.RandomGenerator;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Computes page tokens from the master token of the logical session instead of generating and storing random values.
+ * <p>
+ * A page token is the HMAC-SHA256 of the resource identifier keyed with the master token, encoded in the same format as the random tokens.
+ * The page tokens can therefore be re-computed at any time, so the token holder only needs to keep the master token.
+ * A leaked page token does not reveal the master token nor the tokens of other resources, and replacing the master token
+ * (e.g. by rotation) invalidates every page token at once.
+ */
+public final class DerivedPageTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(ALGORITHM);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private DerivedPageTokens() {}
+
+    /**
+     * @param masterToken        the master token of the logical session
+     * @param resourceIdentifier the identifier of the protected resource
+     * @param tokenLength        the number of random characters, excluding the separators
+     * @param tokenFormat        the format of the token
+     * @return the page token of the resource
+     */
+    public static String derive(final String masterToken, final String resourceIdentifier, final int tokenLength, final TokenFormat tokenFormat) {
+        final Mac mac = MAC.get();
+
+        try {
+            mac.init(new SecretKeySpec(masterToken.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        } catch (final GeneralSecurityException e) {
+            throw new CSRFGuardTokenException("Could not derive the page token", e);
+        }
+
+        final byte[] message = resourceIdentifier.getBytes(StandardCharsets.UTF_8);
+        final byte[] blockCounter = {0};
+
+        /* every block is an independent MAC, so the output can be extended to any token length */
+        final Consumer<byte[]> nextBlock = block -> {
+            try {
+                mac.update(blockCounter[0]++);
+                mac.update(message);
+                mac.doFinal(block, 0);
+            } catch (final GeneralSecurityException e) {
+                throw new CSRFGuardTokenException("Could not derive the page token", e);
+            }
+        };
+
+        final byte[] block = new byte[mac.getMacLength()];
+        nextBlock.accept(block);
+
+        return RandomGenerator.encode(block, nextBlock, tokenLength, tokenFormat);
+    }
+
+    /**
+     * Compares the tokens in constant time, so the response time does not reveal how many leading characters matched.
+     *
+     * @param expectedToken the derived token
+     * @param actualToken   the token received in the request
+     * @return true if the tokens are equal
+     */
+    public static boolean isEqual(final String expectedToken, final String actualToken) {
+        return Objects.nonNull(actualToken) && MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8), actualToken.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The keys used to sign and verify the stateless master tokens.
+ * <p>
+ * New tokens are always signed with the active key, while tokens signed with any of the keys in the ring are accepted.
+ * Keys can therefore be rotated without invalidating the tokens in use: a new key is first added to the ring of every node, then it is made active,
+ * and the old key is removed once the tokens signed with it have expired.
+ */
+public final class SignedTokenKeyRing {
+
+    static final String ALGORITHM = "HmacSHA256";
+
+    private static final Pattern KEY_ID_PATTERN = Pattern.compile("[A-Za-z0-9_\\-]+");
+
+    private static final int MINIMUM_KEY_LENGTH = 16;
+
+    private final Map<String, SecretKeySpec> keys;
+
+    private final String activeKeyId;
+
+    private final Duration maxAge;
+
+    /**
+     * @param keys        the raw key material mapped by the key identifiers
+     * @param activeKeyId the identifier of the key used for signing new tokens
+     * @param maxAge      the period while a signed token is accepted
+     */
+    public SignedTokenKeyRing(final Map<String, byte[]> keys, final String activeKeyId, final Duration maxAge) {
+        if (!keys.containsKey(activeKeyId)) {
+            throw new IllegalArgumentException(String.format("The active signing key '%s' is not defined in the key ring.", activeKeyId));
+        }
+
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("The maximum age of the signed tokens must be positive.");
+        }
+
+        final Map<String, SecretKeySpec> secretKeys = new HashMap<>();
+        keys.forEach((keyId, key) -> {
+            if (!KEY_ID_PATTERN.matcher(keyId).matches()) {
+                throw new IllegalArgumentException(String.format("The signing key identifier '%s' can only contain letters, digits, '-' and '_'.", keyId));
+            }
+
+            if (key.length < MINIMUM_KEY_LENGTH) {
+                throw new IllegalArgumentException(String.format("The signing key '%s' must be at least %d bytes long.", keyId, MINIMUM_KEY_LENGTH));
+            }
+
+            secretKeys.put(keyId, new SecretKeySpec(key, ALGORITHM));
+        });
+
+        this.keys = Collections.unmodifiableMap(secretKeys);
+        this.activeKeyId = activeKeyId;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Creates a key ring with a random key, generated once per JVM. The tokens signed with it are not accepted by other nodes nor after a restart.
+     *
+     * @param maxAge the period while a signed token is accepted
+     * @return a key ring with a single generated key
+     */
+    public static SignedTokenKeyRing withGeneratedKey(final Duration maxAge) {
+        return new SignedTokenKeyRing(Collections.singletonMap(GeneratedKeyHolder.KEY_ID, GeneratedKeyHolder.KEY), GeneratedKeyHolder.KEY_ID, maxAge);
+    }
+
+    public String getActiveKeyId() {
+        return this.activeKeyId;
+    }
+
+    public SecretKeySpec getActiveKey() {
+        return this.keys.get(this.activeKeyId);
+    }
+
+    /**
+     * @param keyId the identifier of the key
+     * @return the key or null if the ring does not contain it
+     */
+    public SecretKeySpec getKey(final String keyId) {
+        return Objects.isNull(keyId) ? null : this.keys.get(keyId);
+    }
+
+    public Set<String> getKeyIds() {
+        return this.keys.keySet();
+    }
+
+    public Duration getMaxAge() {
+        return this.maxAge;
+    }
+
+    @Override
+    public String toString() {
+        /* never expose the key material */
+        return String.format("SignedTokenKeyRing{keyIds=%s, activeKeyId=%s, maxAge=%s}", this.keys.keySet(), this.activeKeyId, this.maxAge);
+    }
+
+    private static final class GeneratedKeyHolder {
+        private static final String KEY_ID = "generated";
+        private static final byte[] KEY = new byte[32];
+
+        static {
+            new SecureRandom().nextBytes(KEY);
+        }
+    }
+}
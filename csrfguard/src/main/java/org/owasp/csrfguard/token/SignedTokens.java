@@ -0,0 +1,156 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import org.owasp.csrfguard.exception.CSRFGuardTokenException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Issues and verifies self-contained master tokens, which do not have to be stored on the server side.
+ * <p>
+ * A token has the form {@code keyId.issueTime.nonce.signature}, where the signature is the HMAC-SHA256 of the logical session key,
+ * the key identifier, the issue time and the nonce. A token is valid only for the logical session it was issued to, and only until its maximum age elapses.
+ * <p>
+ * Since nothing is stored, an issued token can not be revoked before it expires, except by removing its signing key from the key ring.
+ */
+public final class SignedTokens {
+
+    private static final char SEPARATOR = '.';
+
+    private static final int NONCE_LENGTH = 16;
+
+    /**
+     * tolerated clock difference between the nodes of a cluster
+     */
+    private static final long CLOCK_SKEW_MILLIS = 60_000;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(SignedTokenKeyRing.ALGORITHM);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private SignedTokens() {}
+
+    /**
+     * @param keyRing           the keys, the active one is used for signing
+     * @param logicalSessionKey identifies the logical session the token is issued to
+     * @param secureRandom      the source of the nonce
+     * @return a new signed token
+     */
+    public static String issue(final SignedTokenKeyRing keyRing, final String logicalSessionKey, final SecureRandom secureRandom) {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        secureRandom.nextBytes(nonce);
+
+        final String payload = keyRing.getActiveKeyId() + SEPARATOR + Long.toString(System.currentTimeMillis(), Character.MAX_RADIX) + SEPARATOR + ENCODER.encodeToString(nonce);
+
+        return payload + SEPARATOR + ENCODER.encodeToString(sign(keyRing.getActiveKey(), logicalSessionKey, payload));
+    }
+
+    /**
+     * @param keyRing           the keys accepted for verification
+     * @param logicalSessionKey identifies the logical session of the current request
+     * @param token             the token received in the request
+     * @return true if the token was signed by one of the keys for the same logical session and it has not expired yet
+     */
+    public static boolean isValid(final SignedTokenKeyRing keyRing, final String logicalSessionKey, final String token) {
+        if (Objects.isNull(token)) {
+            return false;
+        }
+
+        final int keyIdEnd = token.indexOf(SEPARATOR);
+        final int issueTimeEnd = token.indexOf(SEPARATOR, keyIdEnd + 1);
+        final int payloadEnd = token.indexOf(SEPARATOR, issueTimeEnd + 1);
+
+        if (keyIdEnd < 0 || issueTimeEnd < 0 || payloadEnd < 0 || token.indexOf(SEPARATOR, payloadEnd + 1) >= 0) {
+            return false;
+        }
+
+        final SecretKeySpec key = keyRing.getKey(token.substring(0, keyIdEnd));
+
+        if (Objects.isNull(key) || !isWithinMaxAge(keyRing, token.substring(keyIdEnd + 1, issueTimeEnd))) {
+            return false;
+        }
+
+        final byte[] signature;
+        try {
+            signature = DECODER.decode(token.substring(payloadEnd + 1));
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+
+        return MessageDigest.isEqual(sign(key, logicalSessionKey, token.substring(0, payloadEnd)), signature);
+    }
+
+    private static boolean isWithinMaxAge(final SignedTokenKeyRing keyRing, final String issueTimeValue) {
+        final long issueTime;
+        try {
+            issueTime = Long.parseLong(issueTimeValue, Character.MAX_RADIX);
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+
+        final long age = System.currentTimeMillis() - issueTime;
+
+        return age >= -CLOCK_SKEW_MILLIS && age <= keyRing.getMaxAge().toMillis();
+    }
+
+    private static byte[] sign(final SecretKeySpec key, final String logicalSessionKey, final String payload) {
+        final Mac mac = MAC.get();
+
+        try {
+            mac.init(key);
+        } catch (final GeneralSecurityException e) {
+            throw new CSRFGuardTokenException("Could not sign the token", e);
+        }
+
+        final byte[] sessionKeyBytes = logicalSessionKey.getBytes(StandardCharsets.UTF_8);
+
+        /* the length prefix keeps the session key and the payload unambiguous */
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(sessionKeyBytes.length).array());
+        mac.update(sessionKeyBytes);
+
+        return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.log.LogLevel;
+import org.owasp.csrfguard.util.RandomGenerator;
+import org.owasp.csrfguard.util.RingBuffer;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of pre-generated random tokens, so the request threads do not have to generate the tokens themselves and do not contend
+ * on the shared {@link SecureRandom} instance.
+ * <p>
+ * The tokens are kept in a lock-free {@link RingBuffer}. When the number of available tokens drops below the refill watermark,
+ * a background daemon thread is woken up, which generates tokens in bulk batches using its own {@link SecureRandom} instance until the pool is full.
+ * When the pool is empty, {@link #poll()} returns null and the caller is expected to generate the token synchronously.
+ */
+public final class TokenPool {
+
+    private static final int BATCH_SIZE = 64;
+
+    private static final long ERROR_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RingBuffer<String> tokens;
+    private final int size;
+    private final int requestedRefillWatermark;
+    private final int tokenLength;
+    private final TokenFormat tokenFormat;
+    private final int refillWatermark;
+    private final SecureRandom secureRandom;
+
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+    private final Thread refillThread;
+    private volatile boolean running = true;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Creates the pool and starts its refill thread.
+     *
+     * @param size            the number of tokens kept in the pool
+     * @param refillWatermark the pool is refilled when it contains less tokens than this
+     * @param tokenLength     the length of the generated tokens, see {@link RandomGenerator#generateRandomId(SecureRandom, int, TokenFormat)}
+     * @param tokenFormat     the format of the generated tokens
+     * @param secureRandom    the source of randomness, used exclusively by the refill thread
+     */
+    public TokenPool(final int size, final int refillWatermark, final int tokenLength, final TokenFormat tokenFormat, final SecureRandom secureRandom) {
+        this.tokens = new RingBuffer<>(size);
+        this.size = size;
+        this.requestedRefillWatermark = refillWatermark;
+        this.refillWatermark = Math.max(1, Math.min(refillWatermark, this.tokens.capacity()));
+        this.tokenLength = tokenLength;
+        this.tokenFormat = tokenFormat;
+        this.secureRandom = secureRandom;
+
+        this.refillThread = new Thread(this::refill, "CSRFGuard-TokenPool-Refill");
+        this.refillThread.setDaemon(true);
+        this.refillThread.start();
+    }
+
+    /**
+     * @return a pre-generated token, or null if the pool is empty
+     */
+    public String poll() {
+        final String token = this.tokens.poll();
+
+        if (token == null) {
+            this.missCount.increment();
+        } else {
+            this.hitCount.increment();
+        }
+
+        if (this.tokens.size() < this.refillWatermark && this.refillRequested.compareAndSet(false, true)) {
+            LockSupport.unpark(this.refillThread);
+        }
+
+        return token;
+    }
+
+    /**
+     * @param size            the number of tokens kept in the pool
+     * @param refillWatermark the refill watermark
+     * @param tokenLength     the length of the tokens
+     * @param tokenFormat     the format of the tokens
+     * @return true if the pool was created with the provided settings
+     */
+    public boolean hasSettings(final int size, final int refillWatermark, final int tokenLength, final TokenFormat tokenFormat) {
+        return this.size == size && this.requestedRefillWatermark == refillWatermark && this.tokenLength == tokenLength && this.tokenFormat == tokenFormat;
+    }
+
+    /**
+     * Stops the refill thread. The tokens still in the pool can be polled.
+     */
+    public void shutdown() {
+        this.running = false;
+        LockSupport.unpark(this.refillThread);
+    }
+
+    /**
+     * @return the number of tokens currently available
+     */
+    public int size() {
+        return this.tokens.size();
+    }
+
+    /**
+     * @return the number of tokens served from the pool
+     */
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * @return the number of times the pool was empty and the token had to be generated synchronously
+     */
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    private void refill() {
+        while (this.running) {
+            this.refillRequested.set(false);
+
+            try {
+                fill();
+            } catch (final RuntimeException e) {
+                CsrfGuard.getInstance().getLogger().log(LogLevel.Error, e);
+                LockSupport.parkNanos(this, ERROR_BACKOFF_NANOS);
+            }
+
+            while (this.running && !this.refillRequested.get()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void fill() {
+        int missing;
+        while (this.running && (missing = this.tokens.capacity() - this.tokens.size()) > 0) {
+            for (final String token : RandomGenerator.generateRandomIds(this.secureRandom, this.tokenLength, Math.min(missing, BATCH_SIZE), this.tokenFormat)) {
+                if (!this.tokens.offer(token)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -31,25 +31,89 @@ package org.owasp.csrfguard.token;
 
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.exception.CSRFGuardTokenException;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
 import org.owasp.csrfguard.util.MessageConstants;
 import org.owasp.csrfguard.util.RandomGenerator;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import java.security.SecureRandom;
+import java.util.Objects;
 
 public final class TokenUtils {
 
+    private static final ThreadLocal<SecureRandom> THREAD_LOCAL_PRNG = ThreadLocal.withInitial(() -> CsrfGuard.getInstance().createPrng());
+
+    private static volatile TokenPool tokenPool;
+
     private TokenUtils() {}
 
     /**
      * Create a random token according with configuration.
+     * <p>
+     * If the token pool is enabled, the token is taken from the pool, and generated on the calling thread only if the pool is empty.
      *
      * @return a random token
      */
     public static String generateRandomToken() {
+        final long start = System.nanoTime();
         try {
             final CsrfGuard csrfGuard = CsrfGuard.getInstance();
-            return RandomGenerator.generateRandomId(csrfGuard.getPrng(), csrfGuard.getTokenLength());
+            final int tokenLength = csrfGuard.getTokenLength();
+            final TokenFormat tokenFormat = csrfGuard.getTokenFormat();
+
+            final TokenPool pool = getTokenPool(csrfGuard, tokenLength, tokenFormat);
+            final String pooledToken = Objects.nonNull(pool) ? pool.poll() : null;
+
+            return Objects.nonNull(pooledToken) ? pooledToken : RandomGenerator.generateRandomId(getPrng(csrfGuard), tokenLength, tokenFormat);
         } catch (final Exception e) {
             final String errorLiteral = MessageConstants.RANDOM_TOKEN_FAILURE_MSG + " - " + "%s";
             throw new CSRFGuardTokenException(String.format(errorLiteral, e.getLocalizedMessage()), e);
+        } finally {
+            CsrfGuardMetrics.getTokenGenerationDuration().recordSince(start);
+        }
+    }
+
+    /**
+     * Stops the background refill of the token pool, if any. Invoked when the application is shut down.
+     */
+    public static synchronized void shutdownTokenPool() {
+        if (Objects.nonNull(tokenPool)) {
+            tokenPool.shutdown();
+            tokenPool = null;
+        }
+    }
+
+    private static SecureRandom getPrng(final CsrfGuard csrfGuard) {
+        return csrfGuard.isPrngPerThread() ? THREAD_LOCAL_PRNG.get() : csrfGuard.getPrng();
+    }
+
+    /**
+     * @return the token pool matching the current configuration (re-created only if the relevant settings have changed), or null if it is disabled
+     */
+    private static TokenPool getTokenPool(final CsrfGuard csrfGuard, final int tokenLength, final TokenFormat tokenFormat) {
+        final int size = csrfGuard.getTokenPoolSize();
+        final TokenPool currentPool = tokenPool;
+
+        if (size < 1) {
+            if (Objects.nonNull(currentPool)) {
+                shutdownTokenPool();
+            }
+            return null;
+        }
+
+        final int refillWatermark = (int) ((long) size * csrfGuard.getTokenPoolRefillWatermark() / 100);
+        if (Objects.nonNull(currentPool) && currentPool.hasSettings(size, refillWatermark, tokenLength, tokenFormat)) {
+            return currentPool;
+        }
+
+        synchronized (TokenUtils.class) {
+            if (Objects.isNull(tokenPool) || !tokenPool.hasSettings(size, refillWatermark, tokenLength, tokenFormat)) {
+                if (Objects.nonNull(tokenPool)) {
+                    tokenPool.shutdown();
+                }
+                tokenPool = new TokenPool(size, refillWatermark, tokenLength, tokenFormat, csrfGuard.createPrng());
+            }
+            return tokenPool;
         }
     }
 }
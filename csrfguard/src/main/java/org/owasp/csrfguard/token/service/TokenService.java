@@ -30,14 +30,19 @@ package org.owasp.csrfguard.token.service;
 
 import org.owasp.csrfguard.CsrfGuard;
 import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.CsrfValidator;
 import org.owasp.csrfguard.ProtectionResult;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
 import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.DerivedPageTokens;
+import org.owasp.csrfguard.token.SignedTokens;
 import org.owasp.csrfguard.token.TokenUtils;
 import org.owasp.csrfguard.token.businessobject.TokenBO;
 import org.owasp.csrfguard.token.mapper.TokenMapper;
 import org.owasp.csrfguard.token.storage.Token;
 import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.token.storage.impl.PageTokenChanges;
 import org.owasp.csrfguard.token.storage.impl.PageTokenValue;
 import org.owasp.csrfguard.token.transferobject.TokenTO;
 import org.owasp.csrfguard.util.CsrfGuardUtils;
@@ -45,6 +50,7 @@ import org.owasp.csrfguard.util.MessageConstants;
 
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -67,9 +73,11 @@ public class TokenService {
     public void invalidate(final LogicalSession logicalSession) {
         final String logicalSessionKey = logicalSession.getKey();
 
-        final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
+        if (!this.csrfGuard.isSignedTokenEnabled()) {
+            final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
-        tokenHolder.remove(logicalSessionKey);
+            tokenHolder.remove(logicalSessionKey);
+        }
 
         logicalSession.invalidate();
     }
@@ -78,11 +86,17 @@ public class TokenService {
      * Returns the master token assigned to the unique identifier extracted from the current request.
      * This identifier could be for example the sessionId of the current user, or the user name extracted from a JWT token
      * <p>
+     * In the signed token mode a newly signed token is returned.
+     * <p>
      *
      * @param logicalSessionKey identifies the current logical session uniquely
      * @return the master token
      */
     public String getMasterToken(final String logicalSessionKey) {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            return issueSignedToken(logicalSessionKey);
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
         return getMasterToken(tokenHolder, logicalSessionKey);
@@ -94,16 +108,86 @@ public class TokenService {
      * <p>
      * Note: this method returns a copy of the page tokens in order to prevent outside modification.
      * <p>
+     * If the page tokens are derived from the master token, the tokens of all configured protected pages are computed.
+     * <p>
      *
      * @param logicalSessionKey identifies the current logical session uniquely
      * @return the page tokens or an empty map
      */
     public Map<String, String> getPageTokens(final String logicalSessionKey) {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            return new HashMap<>();
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
+        if (this.csrfGuard.isTokenPerPageDerived()) {
+            final String masterToken = getMasterToken(tokenHolder, logicalSessionKey);
+
+            return Objects.isNull(masterToken) ? new HashMap<>() : derivePageTokens(masterToken);
+        }
+
         return new HashMap<>(tokenHolder.getPageTokens(logicalSessionKey));
     }
 
+    /**
+     * Returns the page tokens created or replaced after the given version, together with the version of the current page tokens,
+     * which the client can send back next time to receive only the subsequent changes.
+     * <p>
+     * The version is a per session sequence number maintained by the {@link Token} (see {@link Token#getPageTokensChangedSince(String)}),
+     * so no change can be missed because of concurrent modifications or clock adjustments. If the version is missing or unknown, or page tokens
+     * were removed since, all the page tokens are returned and the result is not marked as a {@link TokenTO#isDelta() delta}, so the client
+     * replaces its page tokens.
+     * <p>
+     * If the page tokens are derived from the master token (hence they only change together with it), or the token storage does not keep track
+     * of the changes, all the page tokens are returned without a version.
+     * <p>
+     *
+     * @param logicalSessionKey identifies the current logical session uniquely
+     * @param version           the version previously received by the client, can be null
+     * @return a TokenTO transfer object containing the changed page tokens and their version, if the page tokens are versioned
+     */
+    public TokenTO getPageTokensChangedSince(final String logicalSessionKey, final String version) {
+        if (this.csrfGuard.isSignedTokenEnabled() || this.csrfGuard.isTokenPerPageDerived()) {
+            return new TokenTO(getPageTokens(logicalSessionKey));
+        }
+
+        final Token token = this.csrfGuard.getTokenHolder().getToken(logicalSessionKey);
+        if (Objects.isNull(token)) {
+            return new TokenTO(new HashMap<>());
+        }
+
+        final PageTokenChanges pageTokenChanges = token.getPageTokensChangedSince(version);
+        return Objects.isNull(pageTokenChanges) ? new TokenTO(token.getPageTokens())
+                                                : new TokenTO(null, pageTokenChanges.getPageTokens(), pageTokenChanges.getVersion(), !pageTokenChanges.isComplete());
+    }
+
+    /**
+     * Returns the page tokens of the given resources, so the client can obtain them one by one, instead of receiving all the page tokens
+     * of the session. The missing page tokens are created, the resources that are not protected are skipped.
+     * <p>
+     *
+     * @param logicalSessionKey identifies the current logical session uniquely
+     * @param resourceUris      the URIs of the resources whose tokens are requested
+     * @return the page tokens by resource identifier
+     */
+    public Map<String, String> getPageTokens(final String logicalSessionKey, final Collection<String> resourceUris) {
+        final Map<String, String> pageTokens = new HashMap<>();
+
+        if (!this.csrfGuard.isSignedTokenEnabled() && this.csrfGuard.isTokenPerPageEnabled()) {
+            final CsrfValidator csrfValidator = new CsrfValidator();
+            for (final String resourceUri : resourceUris) {
+                final ProtectionResult protectionResult = csrfValidator.isProtectedPage(CsrfGuardUtils.normalizeResourceURI(resourceUri));
+                if (protectionResult.isProtected()) {
+                    final String resourceIdentifier = protectionResult.getResourceIdentifier();
+                    pageTokens.put(resourceIdentifier, getTokenValue(logicalSessionKey, resourceIdentifier));
+                }
+            }
+        }
+
+        return pageTokens;
+    }
+
     /**
      * Generates master token and page token for the current resource if the token-per-page configuration is enabled
      * <p>
@@ -114,12 +198,30 @@ public class TokenService {
      * @return returns the generated page or master token
      */
     public String generateTokensIfAbsent(final String logicalSessionKey, final String httpMethod, final String requestURI) {
+        final boolean isProtectionRelevant = !this.csrfGuard.isSignedTokenEnabled() && this.csrfGuard.isTokenPerPageEnabled();
+
+        return generateTokensIfAbsent(logicalSessionKey, isProtectionRelevant ? new CsrfValidator().isProtectedPageAndMethod(requestURI, httpMethod) : null);
+    }
+
+    /**
+     * Generates master token and page token for the current resource if the token-per-page configuration is enabled
+     * <p>
+     *
+     * @param logicalSessionKey identifies the current logical session uniquely
+     * @param protectionResult  the already computed protection decision of the resource, only used if the token-per-page configuration is enabled
+     * @return returns the generated page or master token
+     */
+    public String generateTokensIfAbsent(final String logicalSessionKey, final ProtectionResult protectionResult) {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            return issueSignedToken(logicalSessionKey);
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
         if (this.csrfGuard.isTokenPerPageEnabled()) {
-            final ProtectionResult protectionResult = new CsrfValidator().isProtectedPageAndMethod(requestURI, httpMethod);
             if (protectionResult.isProtected()) {
-                return tokenHolder.createPageTokenIfAbsent(logicalSessionKey, protectionResult.getResourceIdentifier(), TokenUtils::generateRandomToken);
+                return this.csrfGuard.isTokenPerPageDerived() ? derivePageToken(tokenHolder.createMasterTokenIfAbsent(logicalSessionKey, TokenUtils::generateRandomToken), protectionResult.getResourceIdentifier())
+                                                              : tokenHolder.createPageTokenIfAbsent(logicalSessionKey, protectionResult.getResourceIdentifier(), TokenUtils::generateRandomToken);
             }
         }
 
@@ -132,18 +234,27 @@ public class TokenService {
      * @param logicalSessionKey identifies the current logical session uniquely
      */
     public void createMasterTokenIfAbsent(final String logicalSessionKey) {
-        final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
-        tokenHolder.createMasterTokenIfAbsent(logicalSessionKey, TokenUtils::generateRandomToken);
+        /* signed tokens are issued on demand */
+        if (!this.csrfGuard.isSignedTokenEnabled()) {
+            final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
+            tokenHolder.createMasterTokenIfAbsent(logicalSessionKey, TokenUtils::generateRandomToken);
+        }
     }
 
     /**
      * Generates new random tokens for configured protected pages.
      * This methods creates a new master token if it did not exist previously.
      * Existing page tokens with the same session key will be overwritten.
+     * If the page tokens are derived from the master token, only the master token is created.
      *
      * @param logicalSessionKey identifies the current logical session uniquely
      */
     public void generateProtectedPageTokens(final String logicalSessionKey) {
+        if (this.csrfGuard.isTokenPerPageDerived()) {
+            createMasterTokenIfAbsent(logicalSessionKey);
+            return;
+        }
+
         final HashMap<String, String> generatedPageTokens = this.csrfGuard.getProtectedPages().stream()
                                                                           .collect(Collectors.toMap(Function.identity(),
                                                                                                     k -> TokenUtils.generateRandomToken(),
@@ -162,17 +273,28 @@ public class TokenService {
      * @param requestURI        the URI of the desired HTTP resource
      * @param usedValidToken    a verified token that has validated the current request
      * @return a TokenTO transfer object containing the updated token values that will be sent back to the client
+     * @throws CsrfGuardException if the token holder evicted the session since the request was verified
      */
-    public TokenTO rotateUsedToken(final String logicalSessionKey, final String requestURI, final TokenBO usedValidToken) {
+    public TokenTO rotateUsedToken(final String logicalSessionKey, final String requestURI, final TokenBO usedValidToken) throws CsrfGuardException {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            /* the used token stays valid until it expires, but the client receives a new one */
+            return TokenMapper.toTransferObject(usedValidToken.setUpdatedMasterToken(issueSignedToken(logicalSessionKey)));
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
         final String newTokenValue = TokenUtils.generateRandomToken();
 
         if (usedValidToken.isUsedMasterToken()) {
-            tokenHolder.setMasterToken(logicalSessionKey, newTokenValue);
+            modifyExistingSession(() -> tokenHolder.setMasterToken(logicalSessionKey, newTokenValue));
             usedValidToken.setUpdatedMasterToken(newTokenValue);
+        } else if (this.csrfGuard.isTokenPerPageDerived()) {
+            /* derived page tokens can not be replaced one by one, the master token acts as their epoch */
+            modifyExistingSession(() -> tokenHolder.setMasterToken(logicalSessionKey, newTokenValue));
+            usedValidToken.setUpdatedMasterToken(newTokenValue)
+                          .setUpdatedPageToken(requestURI, derivePageToken(newTokenValue, requestURI));
         } else {
-            tokenHolder.setPageToken(logicalSessionKey, requestURI, newTokenValue);
+            modifyExistingSession(() -> tokenHolder.setPageToken(logicalSessionKey, requestURI, newTokenValue));
             usedValidToken.setUpdatedPageToken(requestURI, newTokenValue);
         }
 
@@ -181,15 +303,23 @@ public class TokenService {
 
     /**
      * Rotates (re-generates) the master token and all page tokens if the token-per-page functionality is enabled.
+     * Signed tokens can not be revoked, so in that mode this method has no effect.
      *
      * @param logicalSessionKey identifies the current logical session uniquely
      */
     public void rotateAllTokens(final String logicalSessionKey) {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            return;
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
         tokenHolder.setMasterToken(logicalSessionKey, TokenUtils.generateRandomToken());
 
-        tokenHolder.rotateAllPageTokens(logicalSessionKey, TokenUtils::generateRandomToken);
+        /* derived page tokens change together with the master token */
+        if (!this.csrfGuard.isTokenPerPageDerived()) {
+            tokenHolder.rotateAllPageTokens(logicalSessionKey, TokenUtils::generateRandomToken);
+        }
     }
 
     /**
@@ -204,8 +334,16 @@ public class TokenService {
      * @return a valid token for the specified resourceUri
      */
     public String getTokenValue(final String logicalSessionKey, final String resourceUri) {
+        if (this.csrfGuard.isSignedTokenEnabled()) {
+            return issueSignedToken(logicalSessionKey);
+        }
+
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
+        if (this.csrfGuard.isTokenPerPageDerived()) {
+            return derivePageToken(tokenHolder.createMasterTokenIfAbsent(logicalSessionKey, TokenUtils::generateRandomToken), resourceUri);
+        }
+
         return this.csrfGuard.isTokenPerPageEnabled() ? tokenHolder.createPageTokenIfAbsent(logicalSessionKey, resourceUri, TokenUtils::generateRandomToken)
                                                       : tokenHolder.createMasterTokenIfAbsent(logicalSessionKey, TokenUtils::generateRandomToken);
 
@@ -218,21 +356,35 @@ public class TokenService {
      * @param request           current HTTP Servlet Request
      * @param resourceIdentifier the requested resource identifier
      * @param logicalSessionKey identifies the current logical session uniquely
-     * @param masterToken       the master token
+     * @param masterToken       the master token, not used in the signed token mode
      * @return The TokenBO business object that contains the updated tokens and the token used to validate the current request
      * @throws CsrfGuardException if the request does not have a valid token associated
      */
     public TokenBO verifyToken(final HttpServletRequest request, final String resourceIdentifier, final String logicalSessionKey, final String masterToken) throws CsrfGuardException {
-        final String tokenName = this.csrfGuard.getTokenName();
+        final long start = System.nanoTime();
+        try {
+            return doVerifyToken(request, resourceIdentifier, logicalSessionKey, masterToken);
+        } finally {
+            CsrfGuardMetrics.getTokenVerificationDuration().recordSince(start);
+        }
+    }
 
-        final boolean isAjaxRequest = this.csrfGuard.isAjaxEnabled() && CsrfGuardUtils.isAjaxRequest(request);
-        final String tokenFromRequest = isAjaxRequest ? request.getHeader(tokenName) : request.getParameter(tokenName);
+    private TokenBO doVerifyToken(final HttpServletRequest request, final String resourceIdentifier, final String logicalSessionKey, final String masterToken) throws CsrfGuardException {
+        final CsrfGuardRequestContext requestContext = CsrfGuardRequestContext.get(request);
+        final boolean isAjaxRequest = requestContext.isAjaxEnabledRequest();
+        final String tokenFromRequest = requestContext.getTokenFromRequest();
         final TokenBO tokenBO;
         if (Objects.isNull(tokenFromRequest)) {
             throw new CsrfGuardException(MessageConstants.REQUEST_MISSING_TOKEN_MSG);
         } else {
-            tokenBO = this.csrfGuard.isTokenPerPageEnabled() ? verifyPageToken(logicalSessionKey, masterToken, tokenFromRequest, resourceIdentifier, isAjaxRequest)
-                                                             : verifyMasterToken(masterToken, tokenFromRequest);
+            if (this.csrfGuard.isSignedTokenEnabled()) {
+                tokenBO = verifySignedToken(logicalSessionKey, tokenFromRequest);
+            } else if (this.csrfGuard.isTokenPerPageDerived()) {
+                tokenBO = verifyDerivedPageToken(masterToken, tokenFromRequest, resourceIdentifier);
+            } else {
+                tokenBO = this.csrfGuard.isTokenPerPageEnabled() ? verifyPageToken(logicalSessionKey, masterToken, tokenFromRequest, resourceIdentifier, isAjaxRequest)
+                                                                 : verifyMasterToken(masterToken, tokenFromRequest);
+            }
         }
 
         return tokenBO;
@@ -246,14 +398,19 @@ public class TokenService {
     private TokenBO verifyPageToken(final String logicalSessionKey, final String masterToken, final String tokenFromRequest, final String requestURI, final boolean isAjaxRequest) throws CsrfGuardException {
         final TokenHolder tokenHolder = this.csrfGuard.getTokenHolder();
 
+        /* a bounded or expiring token holder might have evicted the session since its master token was read */
         final Token token = tokenHolder.getToken(logicalSessionKey);
+        if (Objects.isNull(token)) {
+            throw new CsrfGuardException(MessageConstants.TOKEN_MISSING_FROM_STORAGE_MSG);
+        }
+
         final PageTokenValue timedPageToken = token.getTimedPageToken(requestURI);
 
         final TokenBO tokenBO;
         if (timedPageToken == null) {
             /* if there is no token for the current resource, create it and the rely on the master token for validation */
             final String newPageToken = TokenUtils.generateRandomToken();
-            tokenHolder.setPageToken(logicalSessionKey, requestURI, newPageToken);
+            modifyExistingSession(() -> tokenHolder.setPageToken(logicalSessionKey, requestURI, newPageToken));
 
             tokenBO = verifyMasterToken(masterToken, tokenFromRequest).setUpdatedPageToken(requestURI, newPageToken);
         } else {
@@ -265,10 +422,10 @@ public class TokenService {
             } else {
                 /* TODO Is this necessary? If the Rotate action is registered, the exception handler will call it and re-generate the tokens */
                 if (masterToken.equals(pageToken)) {
-                    tokenHolder.setMasterToken(logicalSessionKey, TokenUtils.generateRandomToken());
+                    modifyExistingSession(() -> tokenHolder.setMasterToken(logicalSessionKey, TokenUtils.generateRandomToken()));
                 }
 
-                tokenHolder.regenerateUsedPageToken(logicalSessionKey, tokenFromRequest, TokenUtils::generateRandomToken);
+                modifyExistingSession(() -> tokenHolder.regenerateUsedPageToken(logicalSessionKey, tokenFromRequest, TokenUtils::generateRandomToken));
 
                 throw new CsrfGuardException(MessageConstants.MISMATCH_PAGE_TOKEN_MSG);
             }
@@ -276,6 +433,61 @@ public class TokenService {
         return tokenBO;
     }
 
+    /**
+     * Modifies the tokens of a session that existed when the request was verified. The token holders signal a missing session with an
+     * {@link IllegalStateException}, which happens if a bounded or expiring token holder evicted the session in the meantime.
+     * Such a request is rejected instead of failing with a server error.
+     */
+    private static void modifyExistingSession(final Runnable modification) throws CsrfGuardException {
+        try {
+            modification.run();
+        } catch (final IllegalStateException e) {
+            throw new CsrfGuardException(MessageConstants.TOKEN_MISSING_FROM_STORAGE_MSG, e);
+        }
+    }
+
+    /**
+     * Derived page tokens exist from the creation of the master token, so the master token is only accepted for resources
+     * that are not listed among the protected pages (e.g. matched by a wildcard), whose token could not have been handed out in advance.
+     */
+    private TokenBO verifyDerivedPageToken(final String masterToken, final String tokenFromRequest, final String resourceIdentifier) throws CsrfGuardException {
+        final String pageToken = derivePageToken(masterToken, resourceIdentifier);
+
+        final TokenBO tokenBO;
+        if (DerivedPageTokens.isEqual(pageToken, tokenFromRequest)) {
+            tokenBO = new TokenBO().setUsedPageToken(tokenFromRequest);
+        } else if (this.csrfGuard.getProtectedPages().contains(resourceIdentifier)) {
+            throw new CsrfGuardException(MessageConstants.MISMATCH_PAGE_TOKEN_MSG);
+        } else {
+            tokenBO = verifyMasterToken(masterToken, tokenFromRequest).setUpdatedPageToken(resourceIdentifier, pageToken);
+        }
+        return tokenBO;
+    }
+
+    private TokenBO verifySignedToken(final String logicalSessionKey, final String tokenFromRequest) throws CsrfGuardException {
+        if (SignedTokens.isValid(this.csrfGuard.getSignedTokenKeyRing(), logicalSessionKey, tokenFromRequest)) {
+            return new TokenBO().setUsedMasterToken(tokenFromRequest);
+        } else {
+            throw new CsrfGuardException(MessageConstants.MISMATCH_MASTER_TOKEN_MSG);
+        }
+    }
+
+    private String issueSignedToken(final String logicalSessionKey) {
+        return SignedTokens.issue(this.csrfGuard.getSignedTokenKeyRing(), logicalSessionKey, this.csrfGuard.getPrng());
+    }
+
+    private String derivePageToken(final String masterToken, final String resourceIdentifier) {
+        return DerivedPageTokens.derive(masterToken, resourceIdentifier, this.csrfGuard.getTokenLength(), this.csrfGuard.getTokenFormat());
+    }
+
+    private Map<String, String> derivePageTokens(final String masterToken) {
+        final Map<String, String> pageTokens = new HashMap<>();
+        for (final String protectedPage : this.csrfGuard.getProtectedPages()) {
+            pageTokens.put(protectedPage, derivePageToken(masterToken, protectedPage));
+        }
+        return pageTokens;
+    }
+
     /**
      * The race condition only happens in case of AJAX requests when the token pre-creation is not enabled.
      * NOTE: If the combination of the Token Rotation and AJAX support will be implemented, this logic must also be adjusted.
@@ -28,6 +28,7 @@
  */
 package org.owasp.csrfguard.token.storage;
 
+import org.owasp.csrfguard.token.storage.impl.PageTokenChanges;
 import org.owasp.csrfguard.token.storage.impl.PageTokenValue;
 
 import java.util.Map;
@@ -85,6 +86,26 @@ public interface Token {
      */
     Map<String, String> getPageTokens();
 
+    /**
+     * Returns the page tokens created or replaced after the given version, together with the version of the current page tokens.
+     * The version is opaque to the callers and must only be compared by the token that issued it.
+     *
+     * @param version a version previously returned by this method for the same session, can be null
+     * @return the changed page tokens, or null if the implementation does not keep track of the changes
+     */
+    default PageTokenChanges getPageTokensChangedSince(final String version) {
+        return null;
+    }
+
+    /**
+     * Returns the number of page tokens without materializing their values.
+     *
+     * @return the number of page tokens
+     */
+    default int getPageTokenCount() {
+        return getPageTokens().size();
+    }
+
     /**
      * TODO
      * @param pageTokens
@@ -98,7 +119,7 @@ public interface Token {
     void rotateAllPageTokens(final Supplier<String> tokenValueSupplier);
 
     /**
-     * TODO is it worth the added performance penalty in case of a large application with a lot of pages? What would be the risk if this would be contextual to the assigned resource?
+     * TODO What would be the risk if this would be contextual to the assigned resource?
      * Disposes the current token from all the stored valid page tokens, disregarding to which resource it was assigned and replaces with a newly generated one.
      */
     void regenerateUsedPageToken(final String tokenFromRequest, final Supplier<String> tokenValueSupplier);
@@ -137,4 +137,22 @@ public interface TokenHolder {
      * @param tokenValueSupplier produces a new page token value lazily/on demand
      */
     void regenerateUsedPageToken(final String sessionKey, final String tokenFromRequest, final Supplier<String> tokenValueSupplier);
+
+    /**
+     * Used for monitoring only, so implementations may return an approximate value.
+     *
+     * @return the number of logical sessions currently stored or -1 if the implementation can not tell
+     */
+    default int getSessionCount() {
+        return -1;
+    }
+
+    /**
+     * Used for monitoring only, so implementations may return an approximate value.
+     *
+     * @return the number of page tokens currently stored across all logical sessions or -1 if the implementation can not tell
+     */
+    default int getPageTokenCount() {
+        return -1;
+    }
 }
@@ -26,36 +26,78 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+
 package org.owasp.csrfguard.token.storage.impl;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.owasp.csrfguard.token.storage.Token;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+/**
+ * In-memory {@link Token} implementation.
+ * <p>
+ * Besides the URI to page token map, a reverse (page token to URI) index is maintained, so a used page token can be located and
+ * regenerated in constant time instead of scanning every page token of the session. If the same value is assigned to multiple URIs,
+ * the index can not locate all of them, so the token falls back to scanning until the duplicates are gone.
+ * <p>
+ * Rotating all the page tokens is lazy: it only starts a new generation, and every page token of an older generation is replaced by a new value
+ * when it is next read (the values are never exposed before that), so a rotation costs the same regardless of the number of pages.
+ * <p>
+ * The reads of the page tokens are lock-free, while the modifications (and the reverse index) are guarded by the monitor of the token.
+ * <p>
+ * Every new page token value gets the next number of a sequence, assigned within the same synchronized modification, so the version of
+ * the page tokens (see {@link #getPageTokensChangedSince(String)}) does not depend on the wall clock.
+ */
 public class InMemoryToken implements Token {
 
-    private String masterToken;
-    private Map<String, PageTokenValue> pageTokens;
+    private static final char VERSION_SEPARATOR = '.';
 
-    public InMemoryToken(final String masterToken) {
-        this(masterToken, new ConcurrentHashMap<>());
-    }
+    private volatile String masterToken;
+    private final Map<String, PageTokenValue> pageTokens = new ConcurrentHashMap<>();
+    private final Map<String, String> uriByPageToken = new HashMap<>();
 
-    public InMemoryToken(final String masterToken, final Pair<String, String> pageToken) {
-        this(masterToken, toMap(pageToken));
-    }
+    /**
+     * true if the same page token value might be assigned to multiple URIs
+     */
+    private boolean duplicatePageTokens;
 
-    private InMemoryToken(final String masterToken, final Map<String, PageTokenValue> pageTokens) {
+    private volatile Rotation rotation = Rotation.INITIAL;
+
+    /**
+     * Distinguishes the versions of this instance from the versions of an earlier instance of the same session (e.g. before a restart)
+     */
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    /**
+     * The sequence number of the latest page token modification, guarded by the monitor of the token
+     */
+    private long sequence;
+
+    /**
+     * The sequence number of the latest page token removal, the clients having an older version must receive all the page tokens
+     */
+    private long removalSequence;
+
+    public InMemoryToken(final String masterToken) {
         Objects.requireNonNull(masterToken, "Master token cannot be null");
-        Objects.requireNonNull(pageTokens, "Page tokens cannot be null");
 
         this.masterToken = masterToken;
-        this.pageTokens = new ConcurrentHashMap<>(pageTokens);
+    }
+
+    public InMemoryToken(final String masterToken, final Pair<String, String> pageToken) {
+        this(masterToken);
+        Objects.requireNonNull(pageToken, "Page token cannot be null");
+
+        putPageToken(pageToken.getKey(), newPageTokenValue(pageToken.getValue()));
     }
 
     @Override
@@ -70,53 +112,207 @@ public class InMemoryToken implements Token {
 
     @Override
     public String getPageToken(final String uri) {
-        return this.pageTokens.get(uri).getValue();
+        return getTimedPageToken(uri).getValue();
     }
 
     @Override
     public PageTokenValue getTimedPageToken(final String uri) {
-        return this.pageTokens.get(uri);
+        return current(uri, this.pageTokens.get(uri));
     }
 
     @Override
-    public void setPageToken(final String uri, final String pageToken) {
-        this.pageTokens.put(uri, PageTokenValue.from(pageToken));
+    public synchronized void setPageToken(final String uri, final String pageToken) {
+        putPageToken(uri, newPageTokenValue(pageToken));
     }
 
     @Override
     public String setPageTokenIfAbsent(final String uri, final Supplier<String> valueSupplier) {
-        return this.pageTokens.computeIfAbsent(uri, k -> PageTokenValue.from(valueSupplier.get())).getValue();
+        final PageTokenValue existingPageToken = getTimedPageToken(uri);
+        if (Objects.nonNull(existingPageToken)) {
+            return existingPageToken.getValue();
+        }
+
+        synchronized (this) {
+            return this.pageTokens.containsKey(uri) ? getTimedPageToken(uri).getValue()
+                                                    : putPageToken(uri, newPageTokenValue(valueSupplier.get())).getValue();
+        }
     }
 
     @Override
     public Map<String, String> getPageTokens() {
         return this.pageTokens.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
-                                                                            e -> e.getValue().getValue()));
+                                                                            e -> current(e.getKey(), e.getValue()).getValue()));
+    }
+
+    /**
+     * The version is made of the epoch of the instance and the current sequence number. As the sequence number of a value is assigned
+     * while holding the monitor of the token, and the version is read while holding it as well, a value is either part of the returned
+     * changes or has a sequence number above the returned version.
+     */
+    @Override
+    public synchronized PageTokenChanges getPageTokensChangedSince(final String version) {
+        final long since = parseVersion(version);
+
+        final Map<String, String> changedPageTokens = new HashMap<>();
+        for (final String uri : new ArrayList<>(this.pageTokens.keySet())) {
+            /* the lazily rotated values are generated here, with a new sequence number */
+            final PageTokenValue pageTokenValue = getTimedPageToken(uri);
+            if (Objects.nonNull(pageTokenValue) && pageTokenValue.getSequence() > since) {
+                changedPageTokens.put(uri, pageTokenValue.getValue());
+            }
+        }
+
+        return new PageTokenChanges(changedPageTokens, this.epoch + VERSION_SEPARATOR + this.sequence, since < 0);
+    }
+
+    @Override
+    public int getPageTokenCount() {
+        return this.pageTokens.size();
     }
 
     @Override
-    public void setPageTokens(final Map<String, String> pageTokens) {
-        this.pageTokens = pageTokens.entrySet().stream()
-                                    .collect(Collectors.toMap(Map.Entry::getKey,
-                                                              e -> PageTokenValue.from(e.getValue()),
-                                                              (e1, e2) -> e2,
-                                                              ConcurrentHashMap::new
-                                                             ));
+    public synchronized void setPageTokens(final Map<String, String> pageTokens) {
+        /* updated in place, so the concurrent readers never observe an empty map */
+        if (this.pageTokens.keySet().retainAll(pageTokens.keySet())) {
+            this.removalSequence = ++this.sequence;
+        }
+        pageTokens.forEach((uri, value) -> this.pageTokens.put(uri, newPageTokenValue(value)));
+        rebuildReverseIndex();
     }
 
+    /**
+     * Invalidates all the page tokens in constant time. The new values are generated using the supplier when they are next read.
+     */
     @Override
-    public void rotateAllPageTokens(final Supplier<String> tokenValueSupplier) {
-        this.pageTokens.entrySet().forEach(e -> e.setValue(PageTokenValue.from(tokenValueSupplier.get())));
+    public synchronized void rotateAllPageTokens(final Supplier<String> tokenValueSupplier) {
+        this.rotation = new Rotation(this.rotation.generation + 1, tokenValueSupplier);
     }
 
     @Override
     public void regenerateUsedPageToken(final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
-        this.pageTokens.replaceAll((k, v) -> v.getValue().equals(tokenFromRequest) ? PageTokenValue.from(tokenValueSupplier.get()) : v);
+        regenerateUsedPageTokens(tokenFromRequest, tokenValueSupplier);
     }
 
-    private static Map<String, PageTokenValue> toMap(final Pair<String, String> pageToken) {
-        final Map<String, PageTokenValue> pageTokens = new ConcurrentHashMap<>();
-        pageTokens.put(pageToken.getKey(), PageTokenValue.from(pageToken.getValue()));
-        return pageTokens;
+    /**
+     * Same as {@link #regenerateUsedPageToken(String, Supplier)}, but tells which page tokens were replaced, so they can be persisted one by one.
+     *
+     * @return the new page token values by resource URI, empty if the token from the request is not a current page token
+     */
+    synchronized Map<String, String> regenerateUsedPageTokens(final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
+        final Map<String, String> regeneratedPageTokens = new HashMap<>();
+
+        /* the values of the previous generations are already invalid, they are replaced when read */
+        if (this.duplicatePageTokens) {
+            this.pageTokens.replaceAll((uri, value) -> {
+                if (isCurrent(value) && value.getValue().equals(tokenFromRequest)) {
+                    final PageTokenValue regeneratedValue = newPageTokenValue(tokenValueSupplier.get());
+                    regeneratedPageTokens.put(uri, regeneratedValue.getValue());
+                    return regeneratedValue;
+                }
+                return value;
+            });
+            rebuildReverseIndex();
+        } else {
+            final String uri = this.uriByPageToken.get(tokenFromRequest);
+            if (Objects.nonNull(uri) && isCurrent(this.pageTokens.get(uri))) {
+                regeneratedPageTokens.put(uri, putPageToken(uri, newPageTokenValue(tokenValueSupplier.get())).getValue());
+            }
+        }
+        return regeneratedPageTokens;
+    }
+
+    /**
+     * @return the value itself if it belongs to the current generation, otherwise the value replacing it
+     */
+    private PageTokenValue current(final String uri, final PageTokenValue pageTokenValue) {
+        if (Objects.isNull(pageTokenValue) || isCurrent(pageTokenValue)) {
+            return pageTokenValue;
+        }
+
+        synchronized (this) {
+            final Rotation currentRotation = this.rotation;
+            final PageTokenValue latestPageTokenValue = this.pageTokens.get(uri);
+
+            if (Objects.isNull(latestPageTokenValue) || latestPageTokenValue.getGeneration() >= currentRotation.generation) {
+                return latestPageTokenValue;
+            }
+
+            /* the value is dated to the rotation, as if it was generated eagerly */
+            return putPageToken(uri, PageTokenValue.from(currentRotation.tokenValueSupplier.get(), currentRotation.time, currentRotation.generation, ++this.sequence));
+        }
+    }
+
+    private boolean isCurrent(final PageTokenValue pageTokenValue) {
+        return pageTokenValue.getGeneration() >= this.rotation.generation;
+    }
+
+    /**
+     * Must be called while holding the monitor of the token (or from the constructor).
+     */
+    private PageTokenValue newPageTokenValue(final String value) {
+        return PageTokenValue.from(value, LocalDateTime.now(), this.rotation.generation, ++this.sequence);
+    }
+
+    /**
+     * @return the sequence number of the version, or -1 if all the page tokens must be returned, because the version is missing or invalid,
+     * belongs to another instance or precedes a removal. Must be called while holding the monitor of the token.
+     */
+    private long parseVersion(final String version) {
+        final String epochPrefix = this.epoch + VERSION_SEPARATOR;
+        if (Objects.isNull(version) || !version.startsWith(epochPrefix)) {
+            return -1;
+        }
+
+        try {
+            final long since = Long.parseLong(version.substring(epochPrefix.length()));
+            return since < this.removalSequence || since > this.sequence ? -1 : since;
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Must be called while holding the monitor of the token (or from the constructor).
+     */
+    private PageTokenValue putPageToken(final String uri, final PageTokenValue pageTokenValue) {
+        final PageTokenValue previousPageToken = this.pageTokens.put(uri, pageTokenValue);
+        if (Objects.nonNull(previousPageToken)) {
+            this.uriByPageToken.remove(previousPageToken.getValue(), uri);
+        }
+
+        final String previousUri = this.uriByPageToken.put(pageTokenValue.getValue(), uri);
+        if (Objects.nonNull(previousUri) && !previousUri.equals(uri)) {
+            this.duplicatePageTokens = true;
+        }
+        return pageTokenValue;
+    }
+
+    /**
+     * Must be called while holding the monitor of the token.
+     */
+    private void rebuildReverseIndex() {
+        this.uriByPageToken.clear();
+        this.duplicatePageTokens = false;
+
+        this.pageTokens.forEach((uri, value) -> {
+            if (Objects.nonNull(this.uriByPageToken.put(value.getValue(), uri))) {
+                this.duplicatePageTokens = true;
+            }
+        });
+    }
+
+    private static final class Rotation {
+
+        private static final Rotation INITIAL = new Rotation(0, null);
+
+        private final int generation;
+        private final Supplier<String> tokenValueSupplier;
+        private final LocalDateTime time;
+
+        private Rotation(final int generation, final Supplier<String> tokenValueSupplier) {
+            this.generation = generation;
+            this.tokenValueSupplier = tokenValueSupplier;
+            this.time = LocalDateTime.now();
+        }
     }
 }
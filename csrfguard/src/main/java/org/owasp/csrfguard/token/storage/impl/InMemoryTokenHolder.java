@@ -108,6 +108,20 @@ public class InMemoryTokenHolder implements TokenHolder {
         TOKENS.remove(sessionKey);
     }
 
+    @Override
+    public int getSessionCount() {
+        return TOKENS.size();
+    }
+
+    @Override
+    public int getPageTokenCount() {
+        int count = 0;
+        for (final Token token : TOKENS.values()) {
+            count += token.getPageTokenCount();
+        }
+        return count;
+    }
+
     @Override
     public void rotateAllPageTokens(final String sessionKey, final Supplier<String> tokenValueSupplier) {
         final Token token = getTokenOrException(sessionKey);
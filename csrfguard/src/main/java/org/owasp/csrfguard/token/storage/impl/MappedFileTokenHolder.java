@@ -0,0 +1,765 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.config.Configurable;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+import org.owasp.csrfguard.config.properties.PropertyUtils;
+import org.owasp.csrfguard.log.LogLevel;
+import org.owasp.csrfguard.token.storage.Token;
+import org.owasp.csrfguard.token.storage.TokenHolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * {@link TokenHolder} keeping the tokens in memory and persisting every change into a memory-mapped, append-only log file,
+ * so the tokens survive the restart or the redeployment of the application.
+ * <p>
+ * The log is replayed when the holder is configured (i.e. when the configuration is loaded by the
+ * {@link org.owasp.csrfguard.CsrfGuardServletContextListener}), and every modification is appended as a checksummed record.
+ * Writing a record is a copy into the mapped memory, which the operating system persists even if the JVM crashes; the mapped
+ * memory is forced to the storage device by a background thread every {@code SyncRecords} records or {@code SyncInterval} milliseconds,
+ * so the tokens created since the last synchronization can be lost only if the operating system itself crashes. A torn or corrupted
+ * record at the end of the log stops the replay, the following changes overwrite it.
+ * <p>
+ * When the log becomes three quarters full, it is compacted by the same background thread: the log is replayed into the current tokens,
+ * which are written to a new file that atomically replaces the log, and the mapping is grown if the live tokens would occupy more than half of it.
+ * <p>
+ * A regenerated page token is logged as a single page token record, and a rotation as a single record invalidating the page tokens of the session:
+ * the page tokens are dropped when it is replayed, the values generated lazily after the rotation are not logged, they are re-created on demand after a restart.
+ * <p>
+ * The file contains the tokens in clear text, so it is created readable by its owner only (where the file system supports it) and
+ * must not be shared. The {@link Token} objects returned by {@link #getToken(String)} must only be used for reading, their changes are not persisted.
+ * The file and its initial size are defined by the first configuration, the synchronization settings are updated on every reload.
+ */
+public class MappedFileTokenHolder implements TokenHolder, Configurable, AutoCloseable {
+
+    private static final int MAGIC = 0x43534746;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /* the payload length and the checksum */
+    private static final int RECORD_OVERHEAD = 8;
+
+    private static final byte SET_MASTER_TOKEN = 1;
+    private static final byte SET_PAGE_TOKEN = 2;
+    private static final byte SET_PAGE_TOKENS = 3;
+    private static final byte REMOVE = 4;
+    private static final byte INVALIDATE_PAGE_TOKENS = 5;
+
+    private final Map<String, InMemoryToken> tokens = new ConcurrentHashMap<>();
+
+    private Path file;
+    private int initialSize;
+
+    private volatile int syncRecords = ConfigParameters.TOKEN_HOLDER_FILE_SYNC_RECORDS.getDefaultValue();
+    private volatile long syncIntervalMillis = ConfigParameters.TOKEN_HOLDER_FILE_SYNC_INTERVAL.getDefaultValue().toMillis();
+
+    private volatile Log log;
+
+    public MappedFileTokenHolder() {}
+
+    @Override
+    public synchronized void configure(final Properties properties) {
+        this.syncRecords = Math.max(1, PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_FILE_SYNC_RECORDS));
+        this.syncIntervalMillis = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_FILE_SYNC_INTERVAL).toMillis();
+
+        if (Objects.isNull(this.file)) {
+            final String fileName = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_FILE);
+            if (StringUtils.isBlank(fileName)) {
+                throw new IllegalArgumentException(String.format("The [%s] property is mandatory for the [%s] token holder!", ConfigParameters.TOKEN_HOLDER_FILE, getClass().getName()));
+            }
+
+            this.file = Paths.get(fileName).toAbsolutePath();
+            this.initialSize = Math.max(HEADER_SIZE * 2, PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_FILE_INITIAL_SIZE));
+        }
+
+        if (Objects.isNull(this.log)) {
+            this.tokens.clear();
+            this.log = openLog();
+        }
+    }
+
+    @Override
+    public void setMasterToken(final String sessionKey, final String value) {
+        this.tokens.compute(sessionKey, (k, v) -> {
+            final InMemoryToken result;
+            if (Objects.isNull(v)) {
+                result = new InMemoryToken(value);
+            } else {
+                v.setMasterToken(value);
+                result = v;
+            }
+            log().append(SET_MASTER_TOKEN, sessionKey, value);
+            return result;
+        });
+    }
+
+    @Override
+    public String createMasterTokenIfAbsent(final String sessionKey, final Supplier<String> valueSupplier) {
+        final Token token = this.tokens.get(sessionKey);
+        if (Objects.nonNull(token)) {
+            return token.getMasterToken();
+        }
+
+        return this.tokens.compute(sessionKey, (k, v) -> {
+            if (Objects.isNull(v)) {
+                final String masterToken = valueSupplier.get();
+                log().append(SET_MASTER_TOKEN, sessionKey, masterToken);
+                return new InMemoryToken(masterToken);
+            } else {
+                return v;
+            }
+        }).getMasterToken();
+    }
+
+    @Override
+    public String createPageTokenIfAbsent(final String sessionKey, final String resourceUri, final Supplier<String> valueSupplier) {
+        final Token token = this.tokens.get(sessionKey);
+        if (Objects.nonNull(token)) {
+            final PageTokenValue pageTokenValue = token.getTimedPageToken(resourceUri);
+            if (Objects.nonNull(pageTokenValue)) {
+                return pageTokenValue.getValue();
+            }
+        }
+
+        final String[] pageToken = new String[1];
+        this.tokens.compute(sessionKey, (k, v) -> {
+            final InMemoryToken result;
+            if (Objects.isNull(v)) {
+                final String masterToken = valueSupplier.get();
+                log().append(SET_MASTER_TOKEN, sessionKey, masterToken);
+                result = new InMemoryToken(masterToken);
+            } else {
+                result = v;
+            }
+
+            final PageTokenValue existingPageToken = result.getTimedPageToken(resourceUri);
+            if (Objects.isNull(existingPageToken)) {
+                pageToken[0] = valueSupplier.get();
+                result.setPageToken(resourceUri, pageToken[0]);
+                log().append(SET_PAGE_TOKEN, sessionKey, resourceUri, pageToken[0]);
+            } else {
+                pageToken[0] = existingPageToken.getValue();
+            }
+            return result;
+        });
+        return pageToken[0];
+    }
+
+    @Override
+    public Token getToken(final String sessionKey) {
+        return this.tokens.get(sessionKey);
+    }
+
+    @Override
+    public String getPageToken(final String sessionKey, final String resourceUri) {
+        final Token token = this.tokens.get(sessionKey);
+        final PageTokenValue pageTokenValue = Objects.nonNull(token) ? token.getTimedPageToken(resourceUri) : null;
+
+        return Objects.nonNull(pageTokenValue) ? pageTokenValue.getValue() : null;
+    }
+
+    @Override
+    public void setPageToken(final String sessionKey, final String resourceUri, final String value) {
+        modifyExisting(sessionKey, token -> {
+            token.setPageToken(resourceUri, value);
+            log().append(SET_PAGE_TOKEN, sessionKey, resourceUri, value);
+        });
+    }
+
+    @Override
+    public void setPageTokens(final String sessionKey, final Map<String, String> pageTokens) {
+        modifyExisting(sessionKey, token -> {
+            token.setPageTokens(pageTokens);
+            logPageTokens(sessionKey, pageTokens);
+        });
+    }
+
+    @Override
+    public Map<String, String> getPageTokens(final String sessionKey) {
+        return getTokenOrException(sessionKey).getPageTokens();
+    }
+
+    @Override
+    public void remove(final String sessionKey) {
+        this.tokens.computeIfPresent(sessionKey, (k, v) -> {
+            log().append(REMOVE, sessionKey);
+            return null;
+        });
+    }
+
+    @Override
+    public void rotateAllPageTokens(final String sessionKey, final Supplier<String> tokenValueSupplier) {
+        modifyExisting(sessionKey, token -> {
+            /* constant time, the rotated values are not generated for logging */
+            token.rotateAllPageTokens(tokenValueSupplier);
+            log().append(INVALIDATE_PAGE_TOKENS, sessionKey);
+        });
+    }
+
+    @Override
+    public void regenerateUsedPageToken(final String sessionKey, final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
+        modifyExisting(sessionKey, token -> {
+            /* usually a single page token, none if the token from the request is not a current page token */
+            token.regenerateUsedPageTokens(tokenFromRequest, tokenValueSupplier)
+                 .forEach((uri, pageToken) -> log().append(SET_PAGE_TOKEN, sessionKey, uri, pageToken));
+        });
+    }
+
+    /**
+     * Forces the pending changes to the storage device and closes the log file.
+     * The holder can be used again only after it is re-configured.
+     */
+    @Override
+    public synchronized void close() {
+        final Log currentLog = this.log;
+        if (Objects.nonNull(currentLog)) {
+            this.log = null;
+            currentLog.close();
+        }
+    }
+
+    /**
+     * @return the number of logical sessions currently stored
+     */
+    public int size() {
+        return this.tokens.size();
+    }
+
+    @Override
+    public int getSessionCount() {
+        return size();
+    }
+
+    @Override
+    public int getPageTokenCount() {
+        int count = 0;
+        for (final InMemoryToken token : this.tokens.values()) {
+            count += token.getPageTokenCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of times the log was compacted since it was opened
+     */
+    public long getCompactionCount() {
+        final Log currentLog = this.log;
+        return Objects.nonNull(currentLog) ? currentLog.compactionCount : 0;
+    }
+
+    /**
+     * @return the number of bytes appended to the current log file, including its header
+     */
+    long getLogSize() {
+        final Log currentLog = this.log;
+        return Objects.nonNull(currentLog) ? currentLog.tailLength(0) : 0;
+    }
+
+    private void modifyExisting(final String sessionKey, final Consumer<InMemoryToken> modification) {
+        this.tokens.compute(sessionKey, (k, v) -> {
+            if (Objects.isNull(v)) {
+                throw new IllegalStateException("Token with the provided session key does not exist!");
+            }
+            modification.accept(v);
+            return v;
+        });
+    }
+
+    private void logPageTokens(final String sessionKey, final Map<String, String> pageTokens) {
+        final List<String> values = new ArrayList<>();
+        values.add(sessionKey);
+        pageTokens.forEach((uri, pageToken) -> {
+            values.add(uri);
+            values.add(pageToken);
+        });
+        log().append(SET_PAGE_TOKENS, values.toArray(new String[0]));
+    }
+
+    private Token getTokenOrException(final String sessionKey) {
+        final Token token = this.tokens.get(sessionKey);
+
+        if (Objects.isNull(token)) {
+            throw new IllegalStateException("Token with the provided session key does not exist!");
+        } else {
+            return token;
+        }
+    }
+
+    private Log log() {
+        final Log currentLog = this.log;
+        if (Objects.isNull(currentLog)) {
+            throw new IllegalStateException("The token holder is not configured or it was already closed!");
+        }
+        return currentLog;
+    }
+
+    private Log openLog() {
+        try {
+            createIfAbsent(this.file);
+            final FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(this.initialSize, channel.size()));
+
+            if (buffer.getInt(0) == 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                channel.close();
+                throw new IllegalStateException(String.format("The file [%s] is not a token log, or it was written by an incompatible version!", this.file));
+            }
+
+            return new Log(channel, buffer, replay(buffer, buffer.capacity(), this.tokens));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Could not open the token log [%s]!", this.file), e);
+        }
+    }
+
+    /**
+     * Applies the records found before the given end position to the target map
+     *
+     * @return the position after the last valid record
+     */
+    private static int replay(final ByteBuffer buffer, final int end, final Map<String, InMemoryToken> target) {
+        int position = HEADER_SIZE;
+        while (true) {
+            final Pair<Byte, String[]> record = readRecord(buffer, position, end);
+            if (Objects.isNull(record)) {
+                return position;
+            }
+            apply(target, record.getKey(), record.getValue());
+            position += RECORD_OVERHEAD + buffer.getInt(position);
+        }
+    }
+
+    private static void apply(final Map<String, InMemoryToken> target, final byte type, final String[] values) {
+        final String sessionKey = values[0];
+        switch (type) {
+            case SET_MASTER_TOKEN:
+                target.compute(sessionKey, (k, v) -> {
+                    if (Objects.isNull(v)) {
+                        return new InMemoryToken(values[1]);
+                    }
+                    v.setMasterToken(values[1]);
+                    return v;
+                });
+                break;
+            case SET_PAGE_TOKEN:
+                target.computeIfPresent(sessionKey, (k, v) -> {
+                    v.setPageToken(values[1], values[2]);
+                    return v;
+                });
+                break;
+            case SET_PAGE_TOKENS:
+                target.computeIfPresent(sessionKey, (k, v) -> {
+                    final Map<String, String> pageTokens = new ConcurrentHashMap<>();
+                    for (int i = 1; i + 1 < values.length; i += 2) {
+                        pageTokens.put(values[i], values[i + 1]);
+                    }
+                    v.setPageTokens(pageTokens);
+                    return v;
+                });
+                break;
+            case INVALIDATE_PAGE_TOKENS:
+                target.computeIfPresent(sessionKey, (k, v) -> {
+                    v.setPageTokens(Collections.emptyMap());
+                    return v;
+                });
+                break;
+            case REMOVE:
+                target.remove(sessionKey);
+                break;
+            default:
+                throw new IllegalStateException("Unknown token log record type: " + type);
+        }
+    }
+
+    /**
+     * @return the type and the values of the record at the given position, or null if there is no valid record ending before the end position
+     */
+    private static Pair<Byte, String[]> readRecord(final ByteBuffer buffer, final int position, final int end) {
+        if (position + RECORD_OVERHEAD > end) {
+            return null;
+        }
+
+        final int length = buffer.getInt(position);
+        if (length < 1 || length > end - position - RECORD_OVERHEAD) {
+            return null;
+        }
+
+        final byte[] payload = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.get(payload);
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != view.getInt()) {
+            return null;
+        }
+
+        final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+        final byte type = payloadBuffer.get();
+        final List<String> values = new ArrayList<>();
+        while (payloadBuffer.remaining() >= 4) {
+            final int valueLength = payloadBuffer.getInt();
+            if (valueLength < 0 || valueLength > payloadBuffer.remaining()) {
+                return null;
+            }
+            values.add(new String(payload, payloadBuffer.position(), valueLength, StandardCharsets.UTF_8));
+            payloadBuffer.position(payloadBuffer.position() + valueLength);
+        }
+
+        return values.isEmpty() ? null : Pair.of(type, values.toArray(new String[0]));
+    }
+
+    private static byte[] encodeRecord(final byte type, final String... values) {
+        final byte[][] encodedValues = new byte[values.length][];
+        int length = 1;
+        for (int i = 0; i < values.length; i++) {
+            encodedValues[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encodedValues[i].length;
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(length + RECORD_OVERHEAD);
+        record.putInt(length);
+        record.put(type);
+        for (final byte[] encodedValue : encodedValues) {
+            record.putInt(encodedValue.length);
+            record.put(encodedValue);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    private static void createIfAbsent(final Path path) throws IOException {
+        if (Files.notExists(path)) {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(path);
+            }
+        }
+    }
+
+    /**
+     * The mapped log file.
+     * <p>
+     * Appending a record is only a copy into the mapped memory, done while holding the monitor of the log (and the lock of the modified map entry).
+     * Forcing the mapped memory to the storage device and the compaction are done by a background flusher thread, so the request threads never
+     * wait for the storage device. The log is compacted when it is three quarters full, and the records not fitting into the mapping in the meantime
+     * are kept on the heap until the compacted log replaces the current one.
+     */
+    private final class Log {
+
+        /* guarded by the monitor of the log */
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int position;
+        private final List<byte[]> overflowRecords = new ArrayList<>();
+        private int unsyncedRecords;
+        private long lastSyncTime = System.currentTimeMillis();
+        private boolean compactionRequested;
+        private boolean running = true;
+
+        private volatile long compactionCount;
+
+        private final Thread flusher;
+
+        private Log(final FileChannel channel, final MappedByteBuffer buffer, final int position) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.position = position;
+
+            this.flusher = new Thread(this::flush, "CSRFGuard-TokenLog-Flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+
+        private synchronized void append(final byte type, final String... values) {
+            final byte[] record = encodeRecord(type, values);
+
+            // once a record overflowed, the following ones must overflow as well, to keep their order
+            if (this.overflowRecords.isEmpty() && this.position + record.length <= this.buffer.capacity()) {
+                final ByteBuffer view = this.buffer.duplicate();
+                view.position(this.position);
+                view.put(record);
+                this.position += record.length;
+            } else {
+                this.overflowRecords.add(record);
+            }
+
+            this.unsyncedRecords++;
+            if (!this.compactionRequested && (!this.overflowRecords.isEmpty() || this.position > this.buffer.capacity() / 4 * 3)) {
+                this.compactionRequested = true;
+                notifyAll();
+            } else if (this.unsyncedRecords == MappedFileTokenHolder.this.syncRecords) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * The loop of the flusher thread: forces the mapped memory every {@code SyncRecords} records or {@code SyncInterval} milliseconds,
+         * and compacts the log when requested.
+         */
+        private void flush() {
+            while (true) {
+                final boolean compact;
+                synchronized (this) {
+                    try {
+                        while (this.running && !this.compactionRequested && this.unsyncedRecords < MappedFileTokenHolder.this.syncRecords) {
+                            final long remainingMillis = this.lastSyncTime + MappedFileTokenHolder.this.syncIntervalMillis - System.currentTimeMillis();
+                            if (remainingMillis <= 0) {
+                                break;
+                            }
+                            wait(remainingMillis);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+
+                    if (!this.running) {
+                        return;
+                    }
+                    compact = this.compactionRequested;
+                }
+
+                try {
+                    if (compact) {
+                        compact();
+                    }
+                    sync();
+                } catch (final RuntimeException | IOException e) {
+                    CsrfGuard.getInstance().getLogger().log(LogLevel.Error, e);
+                    pauseAfterFailure();
+                }
+            }
+        }
+
+        private void pauseAfterFailure() {
+            synchronized (this) {
+                try {
+                    if (this.running) {
+                        wait(Math.max(1, MappedFileTokenHolder.this.syncIntervalMillis));
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Replays the records written so far into a new map, writes the resulting tokens into a new file, then appends the records written
+         * in the meantime and replaces the log with it. Only the last step blocks the concurrent appends, and it involves no writes to the storage device.
+         * As the records are replayed instead of the live tokens being copied, the tokens modified concurrently can not be missed.
+         */
+        private void compact() throws IOException {
+            final int end;
+            final ByteBuffer source;
+            long mappedSize;
+            synchronized (this) {
+                end = this.position;
+                source = this.buffer.duplicate();
+                mappedSize = this.buffer.capacity();
+            }
+
+            final Map<String, InMemoryToken> liveTokens = new HashMap<>();
+            replay(source, end, liveTokens);
+
+            final Path compactedFile = MappedFileTokenHolder.this.file.resolveSibling(MappedFileTokenHolder.this.file.getFileName() + ".compact");
+            Files.deleteIfExists(compactedFile);
+            createIfAbsent(compactedFile);
+
+            final FileChannel compactedChannel = FileChannel.open(compactedFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                final long size = writeTokens(compactedChannel, liveTokens);
+
+                while (true) {
+                    final long requiredSize = size + tailLength(end);
+                    while (mappedSize < 2 * requiredSize) {
+                        mappedSize *= 2;
+                    }
+                    if (mappedSize > Integer.MAX_VALUE) {
+                        throw new IllegalStateException("The token log can not grow beyond 2 GB!");
+                    }
+
+                    final MappedByteBuffer compactedBuffer = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+                    final FileChannel replacedChannel;
+                    synchronized (this) {
+                        if (size + tailLength(end) > compactedBuffer.capacity()) {
+                            // many records were appended while mapping the file, try again with a larger mapping
+                            continue;
+                        }
+
+                        final ByteBuffer target = compactedBuffer.duplicate();
+                        target.position((int) size);
+                        final ByteBuffer tail = this.buffer.duplicate();
+                        tail.position(end);
+                        tail.limit(this.position);
+                        target.put(tail);
+                        this.overflowRecords.forEach(target::put);
+
+                        Files.move(compactedFile, MappedFileTokenHolder.this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                        replacedChannel = this.channel;
+                        this.channel = compactedChannel;
+                        this.buffer = compactedBuffer;
+                        this.position = target.position();
+                        this.overflowRecords.clear();
+                        this.compactionRequested = false;
+                        this.compactionCount++;
+                    }
+                    replacedChannel.close();
+                    return;
+                }
+            } catch (final IOException | RuntimeException e) {
+                synchronized (this) {
+                    if (this.channel != compactedChannel) {
+                        compactedChannel.close();
+                    }
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * @return the length of the records appended after the given position, including the overflowed ones
+         */
+        private synchronized long tailLength(final int end) {
+            long length = this.position - end;
+            for (final byte[] record : this.overflowRecords) {
+                length += record.length;
+            }
+            return length;
+        }
+
+        private void sync() {
+            final MappedByteBuffer currentBuffer;
+            synchronized (this) {
+                this.lastSyncTime = System.currentTimeMillis();
+                if (this.unsyncedRecords == 0) {
+                    return;
+                }
+                this.unsyncedRecords = 0;
+                currentBuffer = this.buffer;
+            }
+            currentBuffer.force();
+        }
+
+        /**
+         * Stops the flusher, then persists the pending changes, including the overflowed records.
+         */
+        private void close() {
+            synchronized (this) {
+                this.running = false;
+                notifyAll();
+            }
+
+            try {
+                this.flusher.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            try {
+                final boolean overflowed;
+                synchronized (this) {
+                    overflowed = !this.overflowRecords.isEmpty();
+                }
+                if (overflowed) {
+                    compact();
+                }
+                sync();
+                this.channel.close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(String.format("Could not close the token log [%s]!", MappedFileTokenHolder.this.file), e);
+            }
+        }
+
+        private long writeTokens(final FileChannel target, final Map<String, InMemoryToken> liveTokens) throws IOException {
+            long size = write(target, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+
+            for (final Map.Entry<String, InMemoryToken> entry : liveTokens.entrySet()) {
+                size += write(target, encodeRecord(SET_MASTER_TOKEN, entry.getKey(), entry.getValue().getMasterToken()));
+
+                final List<String> values = new ArrayList<>();
+                values.add(entry.getKey());
+                entry.getValue().getPageTokens().forEach((uri, pageToken) -> {
+                    values.add(uri);
+                    values.add(pageToken);
+                });
+                if (values.size() > 1) {
+                    size += write(target, encodeRecord(SET_PAGE_TOKENS, values.toArray(new String[0])));
+                }
+            }
+            target.force(true);
+            return size;
+        }
+
+        private int write(final FileChannel target, final byte[] record) throws IOException {
+            final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+            while (recordBuffer.hasRemaining()) {
+                target.write(recordBuffer);
+            }
+            return record.length;
+        }
+    }
+}
@@ -0,0 +1,962 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.owasp.csrfguard.config.Configurable;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+import org.owasp.csrfguard.config.properties.PropertyUtils;
+import org.owasp.csrfguard.token.storage.Token;
+import org.owasp.csrfguard.token.storage.TokenHolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * {@link TokenHolder} storing the tokens outside of the Java heap, in direct {@link ByteBuffer}s, so that a large number of logical sessions
+ * does not increase the garbage collection work.
+ * <p>
+ * The storage is split into independently locked segments. Every segment contains:
+ * <ul>
+ *     <li>a session table: an open addressing (linear probing) hash table of fixed-width records holding the session key, the master token and
+ *     the index of the first page token record of the session;</li>
+ *     <li>a page token area: fixed-width records holding the resource URI, the page token and its creation time, linked into a list per session.
+ *     The area is allocated on demand in slabs, and the records of removed sessions are reused.</li>
+ * </ul>
+ * The strings are stored UTF-8 encoded, hence the maximum lengths (in bytes) of the session keys, the URIs and the token values must be
+ * configured upfront, together with the maximum number of sessions and page tokens. Storing a longer value results in an
+ * {@link IllegalArgumentException}.
+ * <p>
+ * The capacity is split evenly between the segments. Like in the {@link ShardedTokenHolder}, sessions not accessed for longer than the idle
+ * timeout or older than the absolute timeout are discarded when they are accessed, and a full segment makes room by evicting the expired or
+ * least recently used sessions of a small sample (approximate LRU), so sessions that are never removed explicitly can not exhaust the holder.
+ * If a single session needs more page tokens than its segment can hold, its oldest page tokens are dropped.
+ * An expired or evicted logical session behaves exactly like a session that never had tokens, i.e. new tokens are generated for it.
+ * <p>
+ * The memory layout is defined by the first configuration and can not be changed by configuration reloads. The {@link Token}
+ * objects returned by {@link #getToken(String)} are views of the stored data and do not hold any tokens on the heap.
+ */
+public class OffHeapTokenHolder implements TokenHolder, Configurable {
+
+    private static final int SLAB_RECORDS = 1024;
+
+    private static final int NO_RECORD = -1;
+
+    /**
+     * The number of sessions inspected to select the one to be evicted from a full segment.
+     */
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    /* session record layout */
+    private static final int SESSION_HASH = 0;
+    private static final int SESSION_FIRST_PAGE = 4;
+    private static final int SESSION_CREATION_TIME = 8;
+    private static final int SESSION_LAST_ACCESS_TIME = 16;
+    private static final int SESSION_KEY_LENGTH = 24;
+    private static final int SESSION_MASTER_LENGTH = 26;
+    private static final int SESSION_KEY = 28;
+
+    /* page token record layout */
+    private static final int PAGE_NEXT = 0;
+    private static final int PAGE_URI_HASH = 4;
+    private static final int PAGE_CREATION_TIME = 8;
+    private static final int PAGE_URI_LENGTH = 16;
+    private static final int PAGE_TOKEN_LENGTH = 18;
+    private static final int PAGE_URI = 20;
+
+    private volatile Segment[] segments;
+
+    public OffHeapTokenHolder() {}
+
+    @Override
+    public synchronized void configure(final Properties properties) {
+        final Duration idleTimeout = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_IDLE_TIMEOUT);
+        final Duration absoluteTimeout = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_ABSOLUTE_TIMEOUT);
+        if (idleTimeout.isNegative() || idleTimeout.isZero() || absoluteTimeout.isNegative() || absoluteTimeout.isZero()) {
+            throw new IllegalArgumentException("The token holder idle and absolute timeouts must be positive!");
+        }
+
+        if (Objects.isNull(this.segments)) {
+            final Segment[] newSegments = createSegments(PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_SHARDS),
+                                                         PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_ENTRIES),
+                                                         PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_PAGE_TOKENS),
+                                                         PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_KEY_LENGTH),
+                                                         PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_URI_LENGTH),
+                                                         PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_TOKEN_LENGTH));
+            applyTimeouts(newSegments, idleTimeout, absoluteTimeout);
+            this.segments = newSegments;
+        } else {
+            applyTimeouts(this.segments, idleTimeout, absoluteTimeout);
+        }
+    }
+
+    @Override
+    public void setMasterToken(final String sessionKey, final String value) {
+        final byte[] key = encode(sessionKey);
+        final byte[] masterToken = encode(value);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findLiveSession(key);
+            if (slot < 0) {
+                segment.insertSession(key, masterToken, 0);
+            } else {
+                segment.writeMasterToken(slot, masterToken);
+            }
+        }
+    }
+
+    @Override
+    public String createMasterTokenIfAbsent(final String sessionKey, final Supplier<String> valueSupplier) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findLiveSession(key);
+            if (slot < 0) {
+                final String masterToken = valueSupplier.get();
+                segment.insertSession(key, encode(masterToken), 0);
+                return masterToken;
+            } else {
+                return segment.readMasterToken(slot);
+            }
+        }
+    }
+
+    @Override
+    public String createPageTokenIfAbsent(final String sessionKey, final String resourceUri, final Supplier<String> valueSupplier) {
+        final byte[] key = encode(sessionKey);
+        final byte[] uri = encode(resourceUri);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            int slot = segment.findLiveSession(key);
+            if (slot < 0) {
+                final String newPageToken = valueSupplier.get();
+                final byte[] pageToken = encode(newPageToken);
+                final byte[] masterToken = encode(valueSupplier.get());
+                // validated upfront, so a failure can not leave a session without its page token behind
+                segment.checkPageToken(uri, pageToken);
+                slot = segment.insertSession(key, masterToken, 1);
+                segment.addPageToken(slot, uri, pageToken);
+                return newPageToken;
+            } else {
+                final int record = segment.findPageToken(slot, uri);
+                if (record == NO_RECORD) {
+                    final String newPageToken = valueSupplier.get();
+                    final byte[] pageToken = encode(newPageToken);
+                    segment.checkPageToken(uri, pageToken);
+                    slot = segment.reservePageTokens(key, 1);
+                    segment.addPageToken(slot, uri, pageToken);
+                    return newPageToken;
+                } else {
+                    return segment.readPageToken(record);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Token getToken(final String sessionKey) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.findLiveSession(key) < 0 ? null : new OffHeapToken(sessionKey);
+        }
+    }
+
+    @Override
+    public String getPageToken(final String sessionKey, final String resourceUri) {
+        final PageTokenValue pageTokenValue = getTimedPageToken(sessionKey, resourceUri);
+        return Objects.nonNull(pageTokenValue) ? pageTokenValue.getValue() : null;
+    }
+
+    @Override
+    public void setPageToken(final String sessionKey, final String resourceUri, final String value) {
+        final byte[] key = encode(sessionKey);
+        final byte[] uri = encode(resourceUri);
+        final Segment segment = segmentFor(key);
+        final byte[] pageToken = encode(value);
+        synchronized (segment) {
+            final int slot = segment.findSessionOrException(key);
+            final int record = segment.findPageToken(slot, uri);
+            if (record == NO_RECORD) {
+                segment.checkPageToken(uri, pageToken);
+                segment.addPageToken(segment.reservePageTokens(key, 1), uri, pageToken);
+            } else {
+                segment.writePageToken(record, pageToken);
+            }
+        }
+    }
+
+    @Override
+    public void setPageTokens(final String sessionKey, final Map<String, String> pageTokens) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        final List<Pair<byte[], byte[]>> encodedPageTokens = new ArrayList<>(pageTokens.size());
+        pageTokens.forEach((uri, value) -> encodedPageTokens.add(Pair.of(encode(uri), encode(value))));
+        synchronized (segment) {
+            encodedPageTokens.forEach(pageToken -> segment.checkPageToken(pageToken.getKey(), pageToken.getValue()));
+            segment.clearPageTokens(segment.findSessionOrException(key));
+            final int slot = segment.reservePageTokens(key, encodedPageTokens.size());
+            encodedPageTokens.forEach(pageToken -> segment.addPageToken(slot, pageToken.getKey(), pageToken.getValue()));
+        }
+    }
+
+    @Override
+    public Map<String, String> getPageTokens(final String sessionKey) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findSessionOrException(key);
+            final Map<String, String> result = new HashMap<>();
+            for (int record = segment.firstPageToken(slot); record != NO_RECORD; record = segment.nextPageToken(record)) {
+                result.put(segment.readPageUri(record), segment.readPageToken(record));
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public void remove(final String sessionKey) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findSession(key);
+            if (slot >= 0) {
+                segment.removeSession(slot);
+            }
+        }
+    }
+
+    @Override
+    public void rotateAllPageTokens(final String sessionKey, final Supplier<String> tokenValueSupplier) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findSessionOrException(key);
+            for (int record = segment.firstPageToken(slot); record != NO_RECORD; record = segment.nextPageToken(record)) {
+                segment.writePageToken(record, encode(tokenValueSupplier.get()));
+            }
+        }
+    }
+
+    @Override
+    public void regenerateUsedPageToken(final String sessionKey, final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
+        final byte[] key = encode(sessionKey);
+        final byte[] usedToken = encode(tokenFromRequest);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findSessionOrException(key);
+            for (int record = segment.firstPageToken(slot); record != NO_RECORD; record = segment.nextPageToken(record)) {
+                if (segment.isPageToken(record, usedToken)) {
+                    segment.writePageToken(record, encode(tokenValueSupplier.get()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of logical sessions currently stored
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments()) {
+            synchronized (segment) {
+                size += segment.sessionCount;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getSessionCount() {
+        return size();
+    }
+
+    /**
+     * @return the number of page tokens currently stored
+     */
+    @Override
+    public int getPageTokenCount() {
+        int count = 0;
+        for (final Segment segment : segments()) {
+            synchronized (segment) {
+                count += segment.pageTokenCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of logical sessions evicted because their segment was full
+     */
+    public long getEvictionCount() {
+        long count = 0;
+        for (final Segment segment : segments()) {
+            synchronized (segment) {
+                count += segment.evictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of logical sessions discarded because of the idle or absolute timeout
+     */
+    public long getExpirationCount() {
+        long count = 0;
+        for (final Segment segment : segments()) {
+            synchronized (segment) {
+                count += segment.expirationCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the amount of direct memory currently allocated by the holder, in bytes
+     */
+    public long getAllocatedMemory() {
+        long allocatedMemory = 0;
+        for (final Segment segment : segments()) {
+            synchronized (segment) {
+                allocatedMemory += segment.allocatedMemory();
+            }
+        }
+        return allocatedMemory;
+    }
+
+    private PageTokenValue getTimedPageToken(final String sessionKey, final String resourceUri) {
+        final byte[] key = encode(sessionKey);
+        final byte[] uri = encode(resourceUri);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findLiveSession(key);
+            final int record = slot < 0 ? NO_RECORD : segment.findPageToken(slot, uri);
+            if (record == NO_RECORD) {
+                return null;
+            }
+            final LocalDateTime creationTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(segment.readPageCreationTime(record)), ZoneId.systemDefault());
+            return PageTokenValue.from(segment.readPageToken(record), creationTime);
+        }
+    }
+
+    private String getMasterToken(final String sessionKey) {
+        final byte[] key = encode(sessionKey);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final int slot = segment.findLiveSession(key);
+            return slot < 0 ? null : segment.readMasterToken(slot);
+        }
+    }
+
+    private Segment segmentFor(final byte[] key) {
+        final Segment[] currentSegments = segments();
+        // the high bits select the segment, the low bits the slot within the session table of the segment
+        return currentSegments.length == 1 ? currentSegments[0]
+                                           : currentSegments[hash(key) >>> Integer.numberOfLeadingZeros(currentSegments.length - 1)];
+    }
+
+    private Segment[] segments() {
+        Segment[] result = this.segments;
+        if (Objects.isNull(result)) {
+            synchronized (this) {
+                result = this.segments;
+                if (Objects.isNull(result)) {
+                    // used without configuration, e.g. programmatically
+                    configure(new Properties());
+                    result = this.segments;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Segment[] createSegments(final int segmentCount, final int maxSessions, final int maxPageTokens,
+                                            final int maxKeyLength, final int maxUriLength, final int maxTokenLength) {
+        if (segmentCount < 1 || maxSessions < segmentCount || maxPageTokens < segmentCount) {
+            throw new IllegalArgumentException(String.format("Invalid off-heap token holder capacity: [%d] segments, [%d] sessions and [%d] page tokens!",
+                                                             segmentCount, maxSessions, maxPageTokens));
+        }
+
+        if (isInvalidLength(maxKeyLength) || isInvalidLength(maxUriLength) || isInvalidLength(maxTokenLength)) {
+            throw new IllegalArgumentException(String.format("The maximum key, URI and token lengths of the off-heap token holder must be between 1 and %d bytes!", Short.MAX_VALUE));
+        }
+
+        // a power of two, so the segment can be selected by masking the hash
+        final int length = Integer.highestOneBit(segmentCount) == segmentCount ? segmentCount : Integer.highestOneBit(segmentCount) << 1;
+
+        final Segment[] result = new Segment[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = new Segment((maxSessions + length - 1) / length, (maxPageTokens + length - 1) / length, maxKeyLength, maxUriLength, maxTokenLength);
+        }
+        return result;
+    }
+
+    private static void applyTimeouts(final Segment[] targetSegments, final Duration idleTimeout, final Duration absoluteTimeout) {
+        for (final Segment segment : targetSegments) {
+            synchronized (segment) {
+                segment.idleTimeoutNanos = idleTimeout.toNanos();
+                segment.absoluteTimeoutNanos = absoluteTimeout.toNanos();
+            }
+        }
+    }
+
+    private static boolean isInvalidLength(final int length) {
+        return length < 1 || length > Short.MAX_VALUE;
+    }
+
+    private static byte[] encode(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the hash of the value with the bits mixed (using the MurmurHash3 finalizer), so both its high and low bits are usable
+     */
+    private static int hash(final byte[] value) {
+        int hash = Arrays.hashCode(value);
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * A session table and its page token area. All the methods must be called while holding the monitor of the segment.
+     * <p>
+     * Removing a session (explicitly, by expiry or by eviction) may move other sessions within the table, so the slots must be looked up
+     * after the methods that might remove sessions ({@link #findLiveSession(byte[])}, {@link #insertSession(byte[], byte[], int)} and
+     * {@link #reservePageTokens(byte[], int)}) and not be kept across them.
+     */
+    private static final class Segment {
+
+        private final int maxKeyLength;
+        private final int maxUriLength;
+        private final int maxTokenLength;
+
+        private final int sessionRecordSize;
+        private final int pageRecordSize;
+
+        private final int maxSessions;
+        private final int maxPageTokens;
+
+        private final ByteBuffer sessions;
+        private final int sessionMask;
+
+        private ByteBuffer[] pageSlabs = new ByteBuffer[0];
+        private int allocatedPageRecords;
+        private int freePageRecord = NO_RECORD;
+
+        private int sessionCount;
+        private int pageTokenCount;
+
+        private long idleTimeoutNanos;
+        private long absoluteTimeoutNanos;
+        private int evictionHand;
+        private long evictionCount;
+        private long expirationCount;
+
+        private Segment(final int maxSessions, final int maxPageTokens, final int maxKeyLength, final int maxUriLength, final int maxTokenLength) {
+            this.maxSessions = maxSessions;
+            this.maxPageTokens = maxPageTokens;
+            this.maxKeyLength = maxKeyLength;
+            this.maxUriLength = maxUriLength;
+            this.maxTokenLength = maxTokenLength;
+
+            this.sessionRecordSize = SESSION_KEY + maxKeyLength + maxTokenLength;
+            this.pageRecordSize = PAGE_URI + maxUriLength + maxTokenLength;
+
+            // keep the load factor of the linear probing table below 75%
+            final int tableSize = Integer.highestOneBit(Math.max(2, maxSessions + maxSessions / 3 + 1) - 1) << 1;
+            this.sessions = ByteBuffer.allocateDirect(tableSize * this.sessionRecordSize);
+            this.sessionMask = tableSize - 1;
+        }
+
+        /**
+         * @return the slot of the session, or <code>-(insertion slot) - 1</code> if the session is not present
+         */
+        private int findSession(final byte[] key) {
+            final int hash = sessionHash(key);
+            int slot = hash & this.sessionMask;
+            while (true) {
+                final int offset = slot * this.sessionRecordSize;
+                final int slotHash = this.sessions.getInt(offset + SESSION_HASH);
+                if (slotHash == 0) {
+                    return -slot - 1;
+                }
+                if (slotHash == hash && equals(this.sessions, offset + SESSION_KEY, this.sessions.getShort(offset + SESSION_KEY_LENGTH), key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & this.sessionMask;
+            }
+        }
+
+        /**
+         * Like {@link #findSession(byte[])}, but discards the session if it has expired and records the access otherwise
+         */
+        private int findLiveSession(final byte[] key) {
+            final int slot = findSession(key);
+            if (slot < 0) {
+                return slot;
+            }
+
+            final long now = System.nanoTime();
+            if (isExpired(slot, now)) {
+                removeSession(slot);
+                this.expirationCount++;
+                return findSession(key);
+            }
+
+            this.sessions.putLong(slot * this.sessionRecordSize + SESSION_LAST_ACCESS_TIME, now);
+            return slot;
+        }
+
+        private int findSessionOrException(final byte[] key) {
+            final int slot = findLiveSession(key);
+            if (slot < 0) {
+                throw new IllegalStateException("Token with the provided session key does not exist!");
+            }
+            return slot;
+        }
+
+        /**
+         * Inserts a session that is not present, making room for it and for the page tokens about to be added to it.
+         *
+         * @param pageTokens the number of page tokens to reserve room for
+         * @return the slot of the new session
+         */
+        private int insertSession(final byte[] key, final byte[] masterToken, final int pageTokens) {
+            checkLength(key, this.maxKeyLength, "session key");
+            checkLength(masterToken, this.maxTokenLength, "master token");
+
+            makeRoom(key, 1, pageTokens);
+            final int slot = -findSession(key) - 1;
+
+            final long now = System.nanoTime();
+            final int offset = slot * this.sessionRecordSize;
+            this.sessions.putInt(offset + SESSION_HASH, sessionHash(key));
+            this.sessions.putInt(offset + SESSION_FIRST_PAGE, NO_RECORD);
+            this.sessions.putLong(offset + SESSION_CREATION_TIME, now);
+            this.sessions.putLong(offset + SESSION_LAST_ACCESS_TIME, now);
+            this.sessions.putShort(offset + SESSION_KEY_LENGTH, (short) key.length);
+            put(this.sessions, offset + SESSION_KEY, key);
+            writeMasterToken(slot, masterToken);
+
+            this.sessionCount++;
+            return slot;
+        }
+
+        /**
+         * Makes room for page tokens about to be added to an existing session.
+         *
+         * @return the (possibly moved) slot of the session
+         */
+        private int reservePageTokens(final byte[] key, final int pageTokens) {
+            makeRoom(key, 0, pageTokens);
+            return findSessionOrException(key);
+        }
+
+        /**
+         * Removes expired or least recently used sessions, except the one being modified, until the requested number of records is available
+         * or there are no other sessions left.
+         */
+        private void makeRoom(final byte[] keptKey, final int sessions, final int pageTokens) {
+            while (this.sessionCount + sessions > this.maxSessions || this.pageTokenCount + pageTokens > this.maxPageTokens) {
+                final long now = System.nanoTime();
+                // evicting a session without page tokens does not help if only page tokens are missing
+                final boolean withPageTokensOnly = this.sessionCount + sessions <= this.maxSessions;
+                final int victim = selectEvictionVictim(keptKey, withPageTokensOnly, now);
+                if (victim < 0) {
+                    return;
+                }
+
+                if (isExpired(victim, now)) {
+                    this.expirationCount++;
+                } else {
+                    this.evictionCount++;
+                }
+                removeSession(victim);
+            }
+        }
+
+        /**
+         * Inspects the next {@link #EVICTION_SAMPLE_SIZE} sessions after the eviction hand, like the CLOCK algorithm does.
+         *
+         * @param withPageTokensOnly whether only the sessions having page tokens are candidates
+         * @return the slot of an expired session, or the least recently used one of the sample, or -1 if there is no session to be evicted
+         */
+        private int selectEvictionVictim(final byte[] keptKey, final boolean withPageTokensOnly, final long now) {
+            int victim = -1;
+            long victimAccessTime = Long.MAX_VALUE;
+            int sampled = 0;
+
+            for (int i = 0; i <= this.sessionMask && sampled < EVICTION_SAMPLE_SIZE; i++) {
+                final int slot = this.evictionHand;
+                this.evictionHand = (slot + 1) & this.sessionMask;
+
+                final int offset = slot * this.sessionRecordSize;
+                if (this.sessions.getInt(offset + SESSION_HASH) == 0
+                    || (withPageTokensOnly && firstPageToken(slot) == NO_RECORD)
+                    || equals(this.sessions, offset + SESSION_KEY, this.sessions.getShort(offset + SESSION_KEY_LENGTH), keptKey)) {
+                    continue;
+                }
+
+                if (isExpired(slot, now)) {
+                    return slot;
+                }
+
+                final long accessTime = this.sessions.getLong(offset + SESSION_LAST_ACCESS_TIME);
+                if (victim < 0 || accessTime - victimAccessTime < 0) {
+                    victim = slot;
+                    victimAccessTime = accessTime;
+                }
+                sampled++;
+            }
+            return victim;
+        }
+
+        private boolean isExpired(final int slot, final long now) {
+            final int offset = slot * this.sessionRecordSize;
+            return now - this.sessions.getLong(offset + SESSION_LAST_ACCESS_TIME) >= this.idleTimeoutNanos
+                   || now - this.sessions.getLong(offset + SESSION_CREATION_TIME) >= this.absoluteTimeoutNanos;
+        }
+
+        /**
+         * Removes the session and closes the gap in its probe sequence by moving back the following entries (backward shift deletion),
+         * so no tombstones are needed.
+         */
+        private void removeSession(final int slot) {
+            clearPageTokens(slot);
+
+            int hole = slot;
+            int current = slot;
+            while (true) {
+                current = (current + 1) & this.sessionMask;
+                final int currentHash = this.sessions.getInt(current * this.sessionRecordSize + SESSION_HASH);
+                if (currentHash == 0) {
+                    break;
+                }
+
+                final int home = currentHash & this.sessionMask;
+                final boolean reachableFromHole = hole <= current ? (home <= hole || home > current)
+                                                                  : (home <= hole && home > current);
+                if (reachableFromHole) {
+                    copy(this.sessions, current * this.sessionRecordSize, this.sessions, hole * this.sessionRecordSize, this.sessionRecordSize);
+                    hole = current;
+                }
+            }
+
+            this.sessions.putInt(hole * this.sessionRecordSize + SESSION_HASH, 0);
+            this.sessionCount--;
+        }
+
+        private String readMasterToken(final int slot) {
+            final int offset = slot * this.sessionRecordSize;
+            return read(this.sessions, offset + SESSION_KEY + this.maxKeyLength, this.sessions.getShort(offset + SESSION_MASTER_LENGTH));
+        }
+
+        private void writeMasterToken(final int slot, final byte[] masterToken) {
+            checkLength(masterToken, this.maxTokenLength, "master token");
+
+            final int offset = slot * this.sessionRecordSize;
+            this.sessions.putShort(offset + SESSION_MASTER_LENGTH, (short) masterToken.length);
+            put(this.sessions, offset + SESSION_KEY + this.maxKeyLength, masterToken);
+        }
+
+        private int firstPageToken(final int slot) {
+            return this.sessions.getInt(slot * this.sessionRecordSize + SESSION_FIRST_PAGE);
+        }
+
+        private int nextPageToken(final int record) {
+            return pageSlab(record).getInt(pageOffset(record) + PAGE_NEXT);
+        }
+
+        private int findPageToken(final int slot, final byte[] uri) {
+            final int uriHash = Arrays.hashCode(uri);
+            for (int record = firstPageToken(slot); record != NO_RECORD; record = nextPageToken(record)) {
+                final ByteBuffer slab = pageSlab(record);
+                final int offset = pageOffset(record);
+                if (slab.getInt(offset + PAGE_URI_HASH) == uriHash && equals(slab, offset + PAGE_URI, slab.getShort(offset + PAGE_URI_LENGTH), uri)) {
+                    return record;
+                }
+            }
+            return NO_RECORD;
+        }
+
+        private void checkPageToken(final byte[] uri, final byte[] pageToken) {
+            checkLength(uri, this.maxUriLength, "resource URI");
+            checkLength(pageToken, this.maxTokenLength, "page token");
+        }
+
+        /**
+         * The room for the page token must have been reserved by {@link #insertSession(byte[], byte[], int)} or
+         * {@link #reservePageTokens(byte[], int)}. If the session is the only one left in a full segment, its oldest page token is replaced.
+         */
+        private void addPageToken(final int slot, final byte[] uri, final byte[] pageToken) {
+            checkPageToken(uri, pageToken);
+
+            if (this.pageTokenCount >= this.maxPageTokens) {
+                removeOldestPageToken(slot);
+            }
+
+            final int record = allocatePageRecord();
+            final ByteBuffer slab = pageSlab(record);
+            final int offset = pageOffset(record);
+
+            slab.putInt(offset + PAGE_NEXT, firstPageToken(slot));
+            slab.putInt(offset + PAGE_URI_HASH, Arrays.hashCode(uri));
+            slab.putShort(offset + PAGE_URI_LENGTH, (short) uri.length);
+            put(slab, offset + PAGE_URI, uri);
+            writePageToken(record, pageToken);
+
+            this.sessions.putInt(slot * this.sessionRecordSize + SESSION_FIRST_PAGE, record);
+            this.pageTokenCount++;
+        }
+
+        /**
+         * The page tokens are prepended to the list of the session, so the last one is the oldest
+         */
+        private void removeOldestPageToken(final int slot) {
+            int previous = NO_RECORD;
+            int record = firstPageToken(slot);
+            if (record == NO_RECORD) {
+                throw new IllegalStateException("The off-heap token holder has reached its maximum number of page tokens!");
+            }
+
+            while (nextPageToken(record) != NO_RECORD) {
+                previous = record;
+                record = nextPageToken(record);
+            }
+
+            if (previous == NO_RECORD) {
+                this.sessions.putInt(slot * this.sessionRecordSize + SESSION_FIRST_PAGE, NO_RECORD);
+            } else {
+                pageSlab(previous).putInt(pageOffset(previous) + PAGE_NEXT, NO_RECORD);
+            }
+
+            pageSlab(record).putInt(pageOffset(record) + PAGE_NEXT, this.freePageRecord);
+            this.freePageRecord = record;
+            this.pageTokenCount--;
+        }
+
+        private void clearPageTokens(final int slot) {
+            int record = firstPageToken(slot);
+            while (record != NO_RECORD) {
+                final int next = nextPageToken(record);
+                pageSlab(record).putInt(pageOffset(record) + PAGE_NEXT, this.freePageRecord);
+                this.freePageRecord = record;
+                this.pageTokenCount--;
+                record = next;
+            }
+            this.sessions.putInt(slot * this.sessionRecordSize + SESSION_FIRST_PAGE, NO_RECORD);
+        }
+
+        private String readPageUri(final int record) {
+            final ByteBuffer slab = pageSlab(record);
+            final int offset = pageOffset(record);
+            return read(slab, offset + PAGE_URI, slab.getShort(offset + PAGE_URI_LENGTH));
+        }
+
+        private String readPageToken(final int record) {
+            final ByteBuffer slab = pageSlab(record);
+            final int offset = pageOffset(record);
+            return read(slab, offset + PAGE_URI + this.maxUriLength, slab.getShort(offset + PAGE_TOKEN_LENGTH));
+        }
+
+        private long readPageCreationTime(final int record) {
+            return pageSlab(record).getLong(pageOffset(record) + PAGE_CREATION_TIME);
+        }
+
+        private boolean isPageToken(final int record, final byte[] pageToken) {
+            final ByteBuffer slab = pageSlab(record);
+            final int offset = pageOffset(record);
+            return equals(slab, offset + PAGE_URI + this.maxUriLength, slab.getShort(offset + PAGE_TOKEN_LENGTH), pageToken);
+        }
+
+        private void writePageToken(final int record, final byte[] pageToken) {
+            checkLength(pageToken, this.maxTokenLength, "page token");
+
+            final ByteBuffer slab = pageSlab(record);
+            final int offset = pageOffset(record);
+            slab.putLong(offset + PAGE_CREATION_TIME, System.currentTimeMillis());
+            slab.putShort(offset + PAGE_TOKEN_LENGTH, (short) pageToken.length);
+            put(slab, offset + PAGE_URI + this.maxUriLength, pageToken);
+        }
+
+        private int allocatePageRecord() {
+            if (this.freePageRecord != NO_RECORD) {
+                final int record = this.freePageRecord;
+                this.freePageRecord = nextPageToken(record);
+                return record;
+            }
+
+            if (this.allocatedPageRecords >= this.maxPageTokens) {
+                throw new IllegalStateException("The off-heap token holder has reached its maximum number of page tokens!");
+            }
+
+            final int slabIndex = this.allocatedPageRecords / SLAB_RECORDS;
+            if (slabIndex == this.pageSlabs.length) {
+                this.pageSlabs = Arrays.copyOf(this.pageSlabs, slabIndex + 1);
+                this.pageSlabs[slabIndex] = ByteBuffer.allocateDirect(SLAB_RECORDS * this.pageRecordSize);
+            }
+            return this.allocatedPageRecords++;
+        }
+
+        private ByteBuffer pageSlab(final int record) {
+            return this.pageSlabs[record / SLAB_RECORDS];
+        }
+
+        private int pageOffset(final int record) {
+            return (record % SLAB_RECORDS) * this.pageRecordSize;
+        }
+
+        private long allocatedMemory() {
+            return this.sessions.capacity() + (long) this.pageSlabs.length * SLAB_RECORDS * this.pageRecordSize;
+        }
+
+        private static int sessionHash(final byte[] key) {
+            final int hash = hash(key);
+            // zero marks the empty slots
+            return hash == 0 ? 1 : hash;
+        }
+
+        private static void checkLength(final byte[] value, final int maxLength, final String name) {
+            if (value.length > maxLength) {
+                throw new IllegalArgumentException(String.format("The %s is %d bytes long, but the off-heap token holder is configured for at most %d bytes!", name, value.length, maxLength));
+            }
+        }
+
+        private static boolean equals(final ByteBuffer buffer, final int offset, final int length, final byte[] value) {
+            if (length != value.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(offset + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String read(final ByteBuffer buffer, final int offset, final int length) {
+            final byte[] value = new byte[length];
+            for (int i = 0; i < length; i++) {
+                value[i] = buffer.get(offset + i);
+            }
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        private static void put(final ByteBuffer buffer, final int offset, final byte[] value) {
+            for (int i = 0; i < value.length; i++) {
+                buffer.put(offset + i, value[i]);
+            }
+        }
+
+        private static void copy(final ByteBuffer source, final int sourceOffset, final ByteBuffer target, final int targetOffset, final int length) {
+            for (int i = 0; i < length; i++) {
+                target.put(targetOffset + i, source.get(sourceOffset + i));
+            }
+        }
+    }
+
+    /**
+     * {@link Token} view of a logical session, reading and writing the off-heap storage directly.
+     */
+    private final class OffHeapToken implements Token {
+
+        private final String sessionKey;
+
+        private OffHeapToken(final String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
+        @Override
+        public String getMasterToken() {
+            return OffHeapTokenHolder.this.getMasterToken(this.sessionKey);
+        }
+
+        @Override
+        public void setMasterToken(final String masterToken) {
+            OffHeapTokenHolder.this.setMasterToken(this.sessionKey, masterToken);
+        }
+
+        @Override
+        public String getPageToken(final String uri) {
+            return OffHeapTokenHolder.this.getPageToken(this.sessionKey, uri);
+        }
+
+        @Override
+        public PageTokenValue getTimedPageToken(final String uri) {
+            return OffHeapTokenHolder.this.getTimedPageToken(this.sessionKey, uri);
+        }
+
+        @Override
+        public void setPageToken(final String uri, final String pageToken) {
+            OffHeapTokenHolder.this.setPageToken(this.sessionKey, uri, pageToken);
+        }
+
+        @Override
+        public String setPageTokenIfAbsent(final String uri, final Supplier<String> valueSupplier) {
+            return OffHeapTokenHolder.this.createPageTokenIfAbsent(this.sessionKey, uri, valueSupplier);
+        }
+
+        @Override
+        public Map<String, String> getPageTokens() {
+            return OffHeapTokenHolder.this.getPageTokens(this.sessionKey);
+        }
+
+        @Override
+        public void setPageTokens(final Map<String, String> pageTokens) {
+            OffHeapTokenHolder.this.setPageTokens(this.sessionKey, pageTokens);
+        }
+
+        @Override
+        public void rotateAllPageTokens(final Supplier<String> tokenValueSupplier) {
+            OffHeapTokenHolder.this.rotateAllPageTokens(this.sessionKey, tokenValueSupplier);
+        }
+
+        @Override
+        public void regenerateUsedPageToken(final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
+            OffHeapTokenHolder.this.regenerateUsedPageToken(this.sessionKey, tokenFromRequest, tokenValueSupplier);
+        }
+    }
+}
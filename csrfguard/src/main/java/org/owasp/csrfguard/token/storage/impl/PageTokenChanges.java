@@ -0,0 +1,69 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard.token.storage.impl;
+
+import java.util.Map;
+
+/**
+ * The page tokens of a session changed since a version known by the client, see {@link org.owasp.csrfguard.token.storage.Token#getPageTokensChangedSince(String)}
+ */
+public final class PageTokenChanges {
+
+    private final Map<String, String> pageTokens;
+    private final String version;
+    private final boolean complete;
+
+    public PageTokenChanges(final Map<String, String> pageTokens, final String version, final boolean complete) {
+        this.pageTokens = pageTokens;
+        this.version = version;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the changed page tokens by resource URI, or all of them if {@link #isComplete()}
+     */
+    public Map<String, String> getPageTokens() {
+        return this.pageTokens;
+    }
+
+    /**
+     * @return the version of the current page tokens, to be sent back by the client next time
+     */
+    public String getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return true if all the page tokens are returned, because the version was unknown or some page tokens were removed since,
+     * in which case the client must replace its page tokens instead of merging the changes
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+}
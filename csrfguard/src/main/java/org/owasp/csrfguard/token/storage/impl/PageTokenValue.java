@@ -34,14 +34,22 @@ public final class PageTokenValue {
 
     private final String pageTokenValue;
     private final LocalDateTime localDateTime;
+    private final int generation;
+    private final long sequence;
 
     private PageTokenValue(final String pageTokenValue) {
         this(pageTokenValue, LocalDateTime.now());
     }
 
     private PageTokenValue(final String pageTokenValue, final LocalDateTime localDateTime) {
+        this(pageTokenValue, localDateTime, 0, 0);
+    }
+
+    private PageTokenValue(final String pageTokenValue, final LocalDateTime localDateTime, final int generation, final long sequence) {
         this.pageTokenValue = pageTokenValue;
         this.localDateTime = localDateTime;
+        this.generation = generation;
+        this.sequence = sequence;
     }
 
     public static PageTokenValue from(final String pageTokenValue) {
@@ -52,6 +60,10 @@ public final class PageTokenValue {
         return new PageTokenValue(pageTokenValue, localDateTime);
     }
 
+    public static PageTokenValue from(final String pageTokenValue, final LocalDateTime localDateTime, final int generation, final long sequence) {
+        return new PageTokenValue(pageTokenValue, localDateTime, generation, sequence);
+    }
+
     public String getValue() {
         return this.pageTokenValue;
     }
@@ -59,4 +71,18 @@ public final class PageTokenValue {
     public LocalDateTime getCreationTime() {
         return this.localDateTime;
     }
+
+    /**
+     * @return the rotation generation of the token that the value belongs to, see {@link InMemoryToken#rotateAllPageTokens(java.util.function.Supplier)}
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * @return the position of the value in the order of the modifications of the token, see {@link InMemoryToken#getPageTokensChangedSince(String)}
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
 }
@@ -0,0 +1,383 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.owasp.csrfguard.config.Configurable;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+import org.owasp.csrfguard.config.properties.PropertyUtils;
+import org.owasp.csrfguard.token.storage.Token;
+import org.owasp.csrfguard.token.storage.TokenHolder;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, in-memory {@link TokenHolder} intended for deployments where the number of logical sessions cannot be trusted to stay small.
+ * <p>
+ * The tokens are spread over a configurable number of shards, each guarded by its own lock, so unrelated sessions do not contend.
+ * Every shard keeps its entries in access order, which gives the following guarantees:
+ * <ul>
+ *     <li>the total number of entries never exceeds the configured maximum: when a shard is full, its least recently used entry is evicted;</li>
+ *     <li>entries not accessed for longer than the idle timeout are expired: since the least recently used entries are at the head of the shard,
+ *     each operation inspects a few entries from the head and stops at the first one that is still alive, so the expiry cost is amortized over
+ *     the regular operations and no background thread or full scan is needed;</li>
+ *     <li>entries older than the absolute timeout are discarded when they are accessed, regardless of their activity.</li>
+ * </ul>
+ * An expired or evicted logical session behaves exactly like a session that never had tokens, i.e. new tokens are generated for it.
+ * <p>
+ * The instance is configured using the {@code org.owasp.csrfguard.TokenHolder.*} properties. The limits and timeouts are applied on every
+ * configuration reload, but the number of shards is fixed by the first configuration, because re-sharding would require blocking all the
+ * concurrent operations.
+ */
+public class ShardedTokenHolder implements TokenHolder, Configurable {
+
+    /**
+     * The maximum number of expired entries removed from the head of a shard during a single operation.
+     */
+    private static final int EXPIRY_BATCH_SIZE = 8;
+
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    private volatile Shard[] shards;
+
+    private volatile boolean configured = false;
+
+    public ShardedTokenHolder() {
+        this.shards = createShards(ConfigParameters.TOKEN_HOLDER_SHARDS.getDefaultValue());
+        applyLimits(ConfigParameters.TOKEN_HOLDER_MAX_ENTRIES.getDefaultValue(), ConfigParameters.TOKEN_HOLDER_IDLE_TIMEOUT.getDefaultValue(),
+                    ConfigParameters.TOKEN_HOLDER_ABSOLUTE_TIMEOUT.getDefaultValue());
+    }
+
+    @Override
+    public synchronized void configure(final Properties properties) {
+        final int shardCount = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_SHARDS);
+        final int maxEntries = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_MAX_ENTRIES);
+        final Duration idleTimeout = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_IDLE_TIMEOUT);
+        final Duration absoluteTimeout = PropertyUtils.getProperty(properties, ConfigParameters.TOKEN_HOLDER_ABSOLUTE_TIMEOUT);
+
+        if (!this.configured) {
+            // the holder is not yet used by anyone, so the shards can be replaced safely
+            this.shards = createShards(shardCount);
+            this.configured = true;
+        }
+
+        applyLimits(maxEntries, idleTimeout, absoluteTimeout);
+    }
+
+    @Override
+    public void setMasterToken(final String sessionKey, final String value) {
+        final Shard shard = shardFor(sessionKey);
+        synchronized (shard) {
+            final Entry entry = shard.get(sessionKey);
+            if (Objects.isNull(entry)) {
+                shard.put(sessionKey, new InMemoryToken(value));
+            } else {
+                entry.token.setMasterToken(value);
+            }
+        }
+    }
+
+    @Override
+    public String createMasterTokenIfAbsent(final String sessionKey, final Supplier<String> valueSupplier) {
+        return computeIfAbsent(sessionKey, k -> new InMemoryToken(valueSupplier.get())).getMasterToken();
+    }
+
+    @Override
+    public String createPageTokenIfAbsent(final String sessionKey, final String resourceUri, final Supplier<String> valueSupplier) {
+        final Shard shard = shardFor(sessionKey);
+        synchronized (shard) {
+            final Entry entry = shard.get(sessionKey);
+            if (Objects.isNull(entry)) {
+                final String newPageToken = valueSupplier.get();
+                shard.put(sessionKey, new InMemoryToken(valueSupplier.get(), Pair.of(resourceUri, newPageToken)));
+                return newPageToken;
+            } else {
+                return entry.token.setPageTokenIfAbsent(resourceUri, valueSupplier);
+            }
+        }
+    }
+
+    @Override
+    public Token getToken(final String sessionKey) {
+        final Shard shard = shardFor(sessionKey);
+        synchronized (shard) {
+            final Entry entry = shard.get(sessionKey);
+            return Objects.nonNull(entry) ? entry.token : null;
+        }
+    }
+
+    @Override
+    public String getPageToken(final String sessionKey, final String resourceUri) {
+        final Token token = getToken(sessionKey);
+
+        return Objects.nonNull(token) ? token.getPageToken(resourceUri) : null;
+    }
+
+    @Override
+    public void setPageToken(final String sessionKey, final String resourceUri, final String value) {
+        getTokenOrException(sessionKey).setPageToken(resourceUri, value);
+    }
+
+    @Override
+    public void setPageTokens(final String sessionKey, final Map<String, String> pageTokens) {
+        getTokenOrException(sessionKey).setPageTokens(pageTokens);
+    }
+
+    @Override
+    public Map<String, String> getPageTokens(final String sessionKey) {
+        return getTokenOrException(sessionKey).getPageTokens();
+    }
+
+    @Override
+    public void remove(final String sessionKey) {
+        final Shard shard = shardFor(sessionKey);
+        synchronized (shard) {
+            shard.entries.remove(sessionKey);
+        }
+    }
+
+    @Override
+    public void rotateAllPageTokens(final String sessionKey, final Supplier<String> tokenValueSupplier) {
+        getTokenOrException(sessionKey).rotateAllPageTokens(tokenValueSupplier);
+    }
+
+    @Override
+    public void regenerateUsedPageToken(final String sessionKey, final String tokenFromRequest, final Supplier<String> tokenValueSupplier) {
+        getTokenOrException(sessionKey).regenerateUsedPageToken(tokenFromRequest, tokenValueSupplier);
+    }
+
+    /**
+     * @return the number of logical sessions currently stored (including the expired ones that were not yet removed)
+     */
+    public int size() {
+        int size = 0;
+        for (final Shard shard : this.shards) {
+            synchronized (shard) {
+                size += shard.entries.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getSessionCount() {
+        return size();
+    }
+
+    @Override
+    public int getPageTokenCount() {
+        int count = 0;
+        for (final Shard shard : this.shards) {
+            synchronized (shard) {
+                for (final Entry entry : shard.entries.values()) {
+                    count += entry.token.getPageTokenCount();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of logical sessions evicted because the holder reached its maximum capacity
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    /**
+     * @return the number of logical sessions removed because their idle or absolute timeout had elapsed
+     */
+    public long getExpirationCount() {
+        return this.expirationCount.sum();
+    }
+
+    private Token computeIfAbsent(final String sessionKey, final Function<String, Token> tokenFunction) {
+        final Shard shard = shardFor(sessionKey);
+        synchronized (shard) {
+            final Entry entry = shard.get(sessionKey);
+            if (Objects.isNull(entry)) {
+                final Token token = tokenFunction.apply(sessionKey);
+                shard.put(sessionKey, token);
+                return token;
+            } else {
+                return entry.token;
+            }
+        }
+    }
+
+    private Token getTokenOrException(final String sessionKey) {
+        final Token token = getToken(sessionKey);
+
+        if (Objects.isNull(token)) {
+            throw new IllegalStateException("Token with the provided session key does not exist!");
+        } else {
+            return token;
+        }
+    }
+
+    private Shard shardFor(final String sessionKey) {
+        return shardFor(this.shards, sessionKey);
+    }
+
+    private static Shard shardFor(final Shard[] shards, final String sessionKey) {
+        final int hash = sessionKey.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private Shard[] createShards(final int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException(String.format("The number of token holder shards must be positive, but was [%d]!", shardCount));
+        }
+
+        // a power of two, so the shard can be selected by masking the hash
+        final int length = Integer.highestOneBit(shardCount) == shardCount ? shardCount : Integer.highestOneBit(shardCount) << 1;
+
+        final Shard[] result = new Shard[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = new Shard();
+        }
+        return result;
+    }
+
+    private void applyLimits(final int maxEntries, final Duration idleTimeout, final Duration absoluteTimeout) {
+        final Shard[] currentShards = this.shards;
+
+        if (maxEntries < currentShards.length) {
+            throw new IllegalArgumentException(String.format("The maximum number of token holder entries [%d] must not be smaller than the number of shards [%d]!", maxEntries, currentShards.length));
+        }
+
+        if (idleTimeout.isNegative() || idleTimeout.isZero() || absoluteTimeout.isNegative() || absoluteTimeout.isZero()) {
+            throw new IllegalArgumentException("The token holder idle and absolute timeouts must be positive!");
+        }
+
+        final int maxEntriesPerShard = maxEntries / currentShards.length;
+        for (final Shard shard : currentShards) {
+            synchronized (shard) {
+                shard.maxEntries = maxEntriesPerShard;
+                shard.idleTimeoutNanos = idleTimeout.toNanos();
+                shard.absoluteTimeoutNanos = absoluteTimeout.toNanos();
+
+                final Iterator<Entry> iterator = shard.entries.values().iterator();
+                while (shard.entries.size() > maxEntriesPerShard && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                    this.evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Token token;
+        private final long creationTime;
+        private long lastAccessTime;
+
+        private Entry(final Token token, final long creationTime, final long lastAccessTime) {
+            this.token = token;
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+        }
+    }
+
+    /**
+     * Access ordered map of entries. All the methods must be called while holding the monitor of the shard.
+     */
+    private final class Shard {
+
+        private int maxEntries;
+        private long idleTimeoutNanos;
+        private long absoluteTimeoutNanos;
+        private final LinkedHashMap<String, Entry> entries;
+
+        private Shard() {
+            this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                    final boolean evict = size() > Shard.this.maxEntries;
+                    if (evict) {
+                        ShardedTokenHolder.this.evictionCount.increment();
+                    }
+                    return evict;
+                }
+            };
+        }
+
+        private Entry get(final String sessionKey) {
+            final long now = System.nanoTime();
+            expire(now);
+
+            final Entry entry = this.entries.get(sessionKey);
+            if (Objects.isNull(entry)) {
+                return null;
+            }
+
+            if (isExpired(entry, now)) {
+                this.entries.remove(sessionKey);
+                ShardedTokenHolder.this.expirationCount.increment();
+                return null;
+            }
+
+            entry.lastAccessTime = now;
+            return entry;
+        }
+
+        private void put(final String sessionKey, final Token token) {
+            final long now = System.nanoTime();
+            this.entries.put(sessionKey, new Entry(token, now, now));
+        }
+
+        private void expire(final long now) {
+            final Iterator<Entry> iterator = this.entries.values().iterator();
+            for (int i = 0; i < EXPIRY_BATCH_SIZE && iterator.hasNext(); i++) {
+                final Entry eldest = iterator.next();
+                if (now - eldest.lastAccessTime < this.idleTimeoutNanos) {
+                    // the remaining entries were accessed even more recently
+                    break;
+                }
+                iterator.remove();
+                ShardedTokenHolder.this.expirationCount.increment();
+            }
+        }
+
+        private boolean isExpired(final Entry entry, final long now) {
+            return now - entry.lastAccessTime >= this.idleTimeoutNanos || now - entry.creationTime >= this.absoluteTimeoutNanos;
+        }
+    }
+}
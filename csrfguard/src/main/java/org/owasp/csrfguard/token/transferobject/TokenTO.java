@@ -28,18 +28,41 @@
  */
 package org.owasp.csrfguard.token.transferobject;
 
-import com.google.gson.Gson;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.Collections;
 import java.util.Map;
 
+/**
+ * Transfer object of the tokens sent to the client, serialized as JSON.
+ * <p>
+ * The serialization is hand-written for this fixed shape, producing the same output as Gson with its default settings
+ * (null values are omitted and the HTML sensitive characters are escaped), without the reflection and the allocations of Gson.
+ */
 public class TokenTO {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The approximate length of a page token entry, used to size the buffer up front
+     */
+    private static final int ESTIMATED_ENTRY_LENGTH = 64;
+
     private final String masterToken;
 
     private final Map<String, String> pageTokens;
 
+    /**
+     * The version of the page tokens, see {@link org.owasp.csrfguard.token.service.TokenService#getPageTokensChangedSince(String, String)}
+     */
+    private final String version;
+
+    /**
+     * Whether the page tokens are only the changes since the version sent by the client, to be merged with the page tokens it already has.
+     * Null instead of false, so it is only serialized when set.
+     */
+    private final Boolean delta;
+
     public TokenTO(final String masterToken) {
         this(masterToken, Collections.emptyMap());
     }
@@ -49,16 +72,159 @@ public class TokenTO {
     }
 
     public TokenTO(final String masterToken, final Map<String, String> pageTokens) {
+        this(masterToken, pageTokens, null);
+    }
+
+    public TokenTO(final String masterToken, final Map<String, String> pageTokens, final String version) {
+        this(masterToken, pageTokens, version, false);
+    }
+
+    public TokenTO(final String masterToken, final Map<String, String> pageTokens, final String version, final boolean delta) {
         this.masterToken = masterToken;
         this.pageTokens = pageTokens;
+        this.version = version;
+        this.delta = delta ? Boolean.TRUE : null;
+    }
+
+    public String getMasterToken() {
+        return this.masterToken;
+    }
+
+    public Map<String, String> getPageTokens() {
+        return this.pageTokens;
+    }
+
+    public String getVersion() {
+        return this.version;
+    }
+
+    public boolean isDelta() {
+        return Boolean.TRUE.equals(this.delta);
     }
 
     public boolean isEmpty() {
         return StringUtils.isBlank(this.masterToken) && this.pageTokens.isEmpty();
     }
 
+    /**
+     * Appends the JSON representation of the tokens to the given buffer
+     *
+     * @param stringBuilder the buffer the JSON is appended to
+     * @return the buffer
+     */
+    public StringBuilder appendJson(final StringBuilder stringBuilder) {
+        stringBuilder.append('{');
+
+        if (this.masterToken != null) {
+            stringBuilder.append("\"masterToken\":");
+            appendString(stringBuilder, this.masterToken);
+        }
+
+        if (this.pageTokens != null) {
+            if (this.masterToken != null) {
+                stringBuilder.append(',');
+            }
+            stringBuilder.append("\"pageTokens\":{");
+
+            boolean first = true;
+            for (final Map.Entry<String, String> pageToken : this.pageTokens.entrySet()) {
+                /* like Gson, the entries with null values are omitted */
+                if (pageToken.getValue() != null) {
+                    if (!first) {
+                        stringBuilder.append(',');
+                    }
+                    appendString(stringBuilder, String.valueOf(pageToken.getKey()));
+                    stringBuilder.append(':');
+                    appendString(stringBuilder, pageToken.getValue());
+                    first = false;
+                }
+            }
+            stringBuilder.append('}');
+        }
+
+        if (this.version != null) {
+            if (this.masterToken != null || this.pageTokens != null) {
+                stringBuilder.append(',');
+            }
+            stringBuilder.append("\"version\":");
+            appendString(stringBuilder, this.version);
+        }
+
+        if (isDelta()) {
+            if (this.masterToken != null || this.pageTokens != null || this.version != null) {
+                stringBuilder.append(',');
+            }
+            stringBuilder.append("\"delta\":true");
+        }
+
+        return stringBuilder.append('}');
+    }
+
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        final int estimatedLength = 64 + (this.pageTokens == null ? 0 : this.pageTokens.size() * ESTIMATED_ENTRY_LENGTH);
+        return appendJson(new StringBuilder(estimatedLength)).toString();
+    }
+
+    private static void appendString(final StringBuilder stringBuilder, final String value) {
+        stringBuilder.append('"');
+
+        int unescapedFrom = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final String replacement = getReplacement(value.charAt(i));
+            if (replacement != null) {
+                stringBuilder.append(value, unescapedFrom, i).append(replacement);
+                unescapedFrom = i + 1;
+            }
+        }
+        stringBuilder.append(value, unescapedFrom, value.length());
+
+        stringBuilder.append('"');
+    }
+
+    /**
+     * @return the escape sequence of the character (following Gson's HTML safe escaping), or null if it can be written as is
+     */
+    private static String getReplacement(final char c) {
+        final String replacement;
+        switch (c) {
+            case '"':
+                replacement = "\\\"";
+                break;
+            case '\\':
+                replacement = "\\\\";
+                break;
+            case '\t':
+                replacement = "\\t";
+                break;
+            case '\b':
+                replacement = "\\b";
+                break;
+            case '\n':
+                replacement = "\\n";
+                break;
+            case '\r':
+                replacement = "\\r";
+                break;
+            case '\f':
+                replacement = "\\f";
+                break;
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+            case '\u2028':
+            case '\u2029':
+                replacement = unicodeEscape(c);
+                break;
+            default:
+                replacement = c < 0x20 ? unicodeEscape(c) : null;
+        }
+        return replacement;
+    }
+
+    private static String unicodeEscape(final char c) {
+        return new String(new char[]{'\\', 'u', HEX_DIGITS[c >> 12 & 0xf], HEX_DIGITS[c >> 8 & 0xf], HEX_DIGITS[c >> 4 & 0xf], HEX_DIGITS[c & 0xf]});
     }
 }
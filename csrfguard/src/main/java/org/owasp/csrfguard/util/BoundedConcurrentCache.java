@@ -0,0 +1,159 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache holding at most a fixed number of entries.
+ * <p>
+ * The entries are kept in two generations: new entries go to the young generation, and when it becomes full the old generation is dropped
+ * and the young one takes its place. Entries found in the old generation are promoted back to the young one, so frequently used keys survive
+ * while keys that were seen only once (e.g. random URIs sent by an attacker) are evicted in bulk, without tracking the access order.
+ * <p>
+ * Lookups never lock, only the generation swap is synchronized.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class BoundedConcurrentCache<K, V> {
+
+    private final int generationSize;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private final AtomicInteger youngGenerationSize = new AtomicInteger();
+
+    private volatile Map<K, V> youngGeneration = new ConcurrentHashMap<>();
+    private volatile Map<K, V> oldGeneration = new ConcurrentHashMap<>();
+
+    /**
+     * @param maximumSize the maximum number of entries kept in the cache, has to be at least 2
+     */
+    public BoundedConcurrentCache(final int maximumSize) {
+        if (maximumSize < 2) {
+            throw new IllegalArgumentException("The maximum size of the cache must be at least 2, but was: " + maximumSize);
+        }
+        this.generationSize = maximumSize / 2;
+    }
+
+    /**
+     * Returns the value associated with the key, computing and caching it if needed.
+     * The mapping function might be invoked concurrently for the same key, so it should be free of side effects.
+     *
+     * @param key             the key, not null
+     * @param mappingFunction computes the value of a missing key, must not return null
+     * @return the cached or the computed value
+     */
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        V value = this.youngGeneration.get(key);
+
+        if (Objects.nonNull(value)) {
+            this.hitCount.increment();
+        } else {
+            value = this.oldGeneration.get(key);
+
+            if (Objects.nonNull(value)) {
+                this.hitCount.increment();
+            } else {
+                this.missCount.increment();
+                value = Objects.requireNonNull(mappingFunction.apply(key));
+            }
+
+            put(key, value);
+        }
+
+        return value;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            this.evictionCount.add(this.youngGeneration.size() + this.oldGeneration.size());
+            this.oldGeneration = new ConcurrentHashMap<>();
+            this.youngGeneration = new ConcurrentHashMap<>();
+            this.youngGenerationSize.set(0);
+        }
+    }
+
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * @return the number of lookups that had to compute the value
+     */
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    /**
+     * @return the number of entries dropped from the cache
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    /**
+     * @return the approximate number of entries in the cache
+     */
+    public int size() {
+        return this.youngGeneration.size() + this.oldGeneration.size();
+    }
+
+    private void put(final K key, final V value) {
+        final Map<K, V> generation = this.youngGeneration;
+
+        if (Objects.isNull(generation.putIfAbsent(key, value)) && this.youngGenerationSize.incrementAndGet() >= this.generationSize) {
+            promoteYoungGeneration(generation);
+        }
+    }
+
+    private void promoteYoungGeneration(final Map<K, V> fullGeneration) {
+        synchronized (this) {
+            /* the generations might have been already swapped by a concurrent thread */
+            if (this.youngGeneration == fullGeneration) {
+                this.evictionCount.add(this.oldGeneration.size());
+                this.oldGeneration = fullGeneration;
+                this.youngGeneration = new ConcurrentHashMap<>();
+                this.youngGenerationSize.set(0);
+            }
+        }
+    }
+}
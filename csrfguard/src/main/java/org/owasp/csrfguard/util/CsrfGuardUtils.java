@@ -32,6 +32,7 @@ package org.owasp.csrfguard.util;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardRequestContext;
 import org.owasp.csrfguard.config.overlay.ConfigPropertiesCascadeCommonUtils;
 import org.owasp.csrfguard.token.transferobject.TokenTO;
 
@@ -114,7 +115,7 @@ public final class CsrfGuardUtils {
     }
 
     public static void addResponseTokenHeader(final CsrfGuard csrfGuard, final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse, final TokenTO tokenTO) {
-        if (csrfGuard.isAjaxEnabled() && CsrfGuardUtils.isAjaxRequest(httpServletRequest)) {
+        if (CsrfGuardRequestContext.get(httpServletRequest).isAjaxEnabledRequest()) {
             if (!tokenTO.isEmpty()) {
                 httpServletResponse.setHeader(csrfGuard.getTokenName(), tokenTO.toString());
             }
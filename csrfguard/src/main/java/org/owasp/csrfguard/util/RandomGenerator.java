@@ -32,14 +32,11 @@ package org.owasp.csrfguard.util;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 public final class RandomGenerator {
 
-	private final static char[] CHARSET = new char[] { 'A', 'B', 'C', 'D', 'E',
-			'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R',
-			'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '0', '1', '2', '3', '4',
-			'5', '6', '7', '8', '9' };
-
 	private RandomGenerator() {
 		/* Intentionally blank to force static usage */
 	}
@@ -54,18 +51,112 @@ public final class RandomGenerator {
 	}
 
 	public static String generateRandomId(final SecureRandom secureRandom, final int len) {
-		final StringBuilder sb = new StringBuilder();
+		return generateRandomId(secureRandom, len, TokenFormat.DASHED);
+	}
+
+	/**
+	 * Generates a random identifier, drawing all the randomness with a single {@link SecureRandom#nextBytes(byte[])} call
+	 * (except in the unlikely case when too many bytes were rejected, see {@link #encode(byte[], Consumer, int, TokenFormat)}).
+	 *
+	 * @param secureRandom the source of randomness
+	 * @param len          the number of random characters
+	 * @param format       the format of the identifier
+	 * @return the generated identifier
+	 */
+	public static String generateRandomId(final SecureRandom secureRandom, final int len, final TokenFormat format) {
+		final byte[] randomBytes = new byte[format.getExpectedByteCount(len)];
+		secureRandom.nextBytes(randomBytes);
+
+		final String result = encode(randomBytes, secureRandom::nextBytes, len, format);
+		Arrays.fill(randomBytes, (byte) 0);
+		return result;
+	}
+
+	/**
+	 * Generates multiple random identifiers in the format of {@link #generateRandomId(SecureRandom, int)}.
+	 *
+	 * @see #generateRandomIds(SecureRandom, int, int, TokenFormat)
+	 */
+	public static String[] generateRandomIds(final SecureRandom secureRandom, final int len, final int count) {
+		return generateRandomIds(secureRandom, len, count, TokenFormat.DASHED);
+	}
+
+	/**
+	 * Generates multiple random identifiers, drawing the randomness for all of them with a single {@link SecureRandom#nextBytes(byte[])} call.
+	 *
+	 * @param secureRandom the source of randomness
+	 * @param len          the number of random characters of every identifier
+	 * @param count        the number of identifiers to generate
+	 * @param format       the format of the identifiers
+	 * @return the generated identifiers
+	 */
+	public static String[] generateRandomIds(final SecureRandom secureRandom, final int len, final int count, final TokenFormat format) {
+		final byte[] randomBytes = new byte[format.getExpectedByteCount(len) * count];
+		secureRandom.nextBytes(randomBytes);
+
+		final ByteSource byteSource = new ByteSource(randomBytes, secureRandom::nextBytes);
+		final String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = encode(byteSource, len, format);
+		}
+
+		Arrays.fill(randomBytes, (byte) 0);
+		return result;
+	}
 
+	/**
+	 * Encodes uniformly distributed bytes into an identifier of the given format.
+	 * <p>
+	 * The bytes are mapped to the characters of the alphabet of the format using rejection sampling (the values above the largest
+	 * multiple of the size of the alphabet are discarded), so every character remains equally probable.
+	 *
+	 * @param bytes  the bytes to encode, consumed from the beginning
+	 * @param refill invoked to overwrite the content of the array with new bytes when all of them were consumed
+	 * @param len    the number of characters to produce, excluding the separators
+	 * @param format the format of the identifier
+	 * @return the encoded identifier
+	 */
+	public static String encode(final byte[] bytes, final Consumer<byte[]> refill, final int len, final TokenFormat format) {
+		return encode(new ByteSource(bytes, refill), len, format);
+	}
+
+	private static String encode(final ByteSource byteSource, final int len, final TokenFormat format) {
+		final char[] result = new char[format.getFormattedLength(len)];
+
+		int position = 0;
 		for (int i = 1; i < len + 1; i++) {
-			final int index = secureRandom.nextInt(CHARSET.length);
-			final char c = CHARSET[index];
-			sb.append(c);
+			int value;
+			do {
+				value = byteSource.next();
+			} while (!format.isAccepted(value));
 
-			if ((i % 4) == 0 && i < len) {
-				sb.append('-');
+			result[position++] = format.toChar(value);
+
+			if (format.isDashed() && (i % 4) == 0 && i < len) {
+				result[position++] = '-';
 			}
 		}
 
-		return sb.toString();
+		return new String(result);
+	}
+
+	private static final class ByteSource {
+
+		private final byte[] bytes;
+		private final Consumer<byte[]> refill;
+		private int position;
+
+		private ByteSource(final byte[] bytes, final Consumer<byte[]> refill) {
+			this.bytes = bytes;
+			this.refill = refill;
+		}
+
+		private int next() {
+			if (this.position == this.bytes.length) {
+				this.refill.accept(this.bytes);
+				this.position = 0;
+			}
+			return this.bytes[this.position++] & 0xFF;
+		}
 	}
 }
@@ -0,0 +1,146 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.util;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue supporting multiple concurrent producers and consumers.
+ * <p>
+ * Every slot has a sequence number telling whether it is free for the producer or filled for the consumer of a given lap,
+ * so producers and consumers only contend on their own position counter and never block each other.
+ *
+ * @param <E> the type of the elements, null elements are not permitted
+ */
+public final class RingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong producerPosition = new AtomicLong();
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    /**
+     * @param capacity the minimum capacity of the buffer, rounded up to the next power of two
+     */
+    public RingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity of the ring buffer must be between 1 and 2^30, but was: " + capacity);
+        }
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Inserts the element if the buffer is not full.
+     *
+     * @param element the element to insert, not null
+     * @return true if the element was inserted, false if the buffer was full
+     */
+    public boolean offer(final E element) {
+        Objects.requireNonNull(element, "The element cannot be null");
+
+        long position = this.producerPosition.get();
+        while (true) {
+            final int index = (int) position & this.mask;
+            final long difference = this.sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (this.producerPosition.compareAndSet(position, position + 1)) {
+                    this.elements.lazySet(index, element);
+                    // publishes the element to the consumers
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+                position = this.producerPosition.get();
+            } else if (difference < 0) {
+                // the slot of the previous lap was not consumed yet
+                return false;
+            } else {
+                position = this.producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Retrieves and removes the oldest element.
+     *
+     * @return the oldest element, or null if the buffer is empty
+     */
+    public E poll() {
+        long position = this.consumerPosition.get();
+        while (true) {
+            final int index = (int) position & this.mask;
+            final long difference = this.sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (this.consumerPosition.compareAndSet(position, position + 1)) {
+                    final E element = this.elements.get(index);
+                    this.elements.lazySet(index, null);
+                    // releases the slot to the producers of the next lap
+                    this.sequences.set(index, position + this.mask + 1);
+                    return element;
+                }
+                position = this.consumerPosition.get();
+            } else if (difference < 0) {
+                // the slot was not filled yet
+                return null;
+            } else {
+                position = this.consumerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return the approximate number of elements in the buffer
+     */
+    public int size() {
+        final long size = this.producerPosition.get() - this.consumerPosition.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /**
+     * @return the maximum number of elements held by the buffer
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+}
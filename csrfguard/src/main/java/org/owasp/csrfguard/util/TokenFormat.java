@@ -0,0 +1,94 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.util;
+
+/**
+ * The textual formats of the generated tokens.
+ */
+public enum TokenFormat {
+
+    /**
+     * Upper case letters and digits, in groups of four characters separated by dashes (e.g. {@code ABCD-1234-EFGH}). The default format.
+     */
+    DASHED("ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789", true),
+
+    /**
+     * Upper case letters and digits, without separators.
+     */
+    DASHLESS("ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789", false),
+
+    /**
+     * The URL and file name safe Base64 alphabet (RFC 4648), without padding. Every character carries 6 bits of entropy.
+     */
+    BASE64URL("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", false);
+
+    private final char[] alphabet;
+
+    /**
+     * the largest multiple of the alphabet size that fits into a byte; bytes above it are rejected to avoid modulo bias
+     */
+    private final int acceptedByteLimit;
+
+    private final boolean dashed;
+
+    TokenFormat(final String alphabet, final boolean dashed) {
+        this.alphabet = alphabet.toCharArray();
+        this.acceptedByteLimit = 256 - (256 % this.alphabet.length);
+        this.dashed = dashed;
+    }
+
+    /**
+     * @param length the number of random characters
+     * @return the length of the formatted token, including the separators
+     */
+    public int getFormattedLength(final int length) {
+        return this.dashed && length > 0 ? length + (length - 1) / 4 : length;
+    }
+
+    /**
+     * @param length the number of random characters
+     * @return the number of random bytes expected to be consumed for a token, including a margin for the rejected bytes
+     */
+    int getExpectedByteCount(final int length) {
+        return this.acceptedByteLimit == 256 ? length : length + length / 8 + 4;
+    }
+
+    boolean isAccepted(final int unsignedByte) {
+        return unsignedByte < this.acceptedByteLimit;
+    }
+
+    char toChar(final int unsignedByte) {
+        return this.alphabet[unsignedByte % this.alphabet.length];
+    }
+
+    boolean isDashed() {
+        return this.dashed;
+    }
+}
@@ -521,33 +521,78 @@ if (owaspCSRFGuardScriptHasLoaded !== true) {
         }
 
         /**
-         *  obtain array of page specific tokens
+         *  load the page tokens received earlier in this browser session, if they belong to the given master token
          */
-        function requestPageTokens(tokenName, tokenValue, callback) {
+        function loadStoredTokens(tokenValue) {
+            try {
+                const storedTokens = JSON.parse(window.sessionStorage.getItem(tokenStorageKey));
+                return storedTokens && (tokenValue === undefined || storedTokens.masterToken === tokenValue) ? storedTokens : null;
+            } catch (e) {
+                return null;
+            }
+        }
+
+        function storeTokens(masterToken, tokenTO) {
+            try {
+                if (masterToken !== undefined && tokenTO['version'] !== undefined) {
+                    window.sessionStorage.setItem(tokenStorageKey, JSON.stringify({masterToken: masterToken, version: tokenTO['version'], pageTokens: tokenTO['pageTokens']}));
+                }
+            } catch (e) {
+                console.debug('The tokens could not be stored: ', e);
+            }
+        }
+
+        /**
+         *  obtain the tokens of the session (the page specific tokens and, if the script is static, the master token)
+         *  the page tokens are kept in the session storage together with their version, so only the changed ones are transferred again
+         */
+        function requestTokens(tokenName, tokenValue, callback) {
             const xhr = window.XMLHttpRequest ? new window.XMLHttpRequest : new window.ActiveXObject('Microsoft.XMLHTTP');
+            const storedTokens = loadStoredTokens(tokenValue);
+            const requestTokenValue = storedTokens ? storedTokens.masterToken : tokenValue;
 
             xhr.open('POST', '%SERVLET_PATH%');
+            xhr.setRequestHeader('X-Requested-With', 'XMLHttpRequest');
 
-            /* if AJAX is enabled, the token header will be automatically added, no need to set it again */
+            /* if AJAX is enabled, the token header will be automatically added from the master token value, no need to set it again */
             if ('%INJECT_XHR%' !== true) {
-                if (tokenName !== undefined && tokenValue !== undefined) {
-                    xhr.setRequestHeader(tokenName, tokenValue);
+                if (tokenName !== undefined && requestTokenValue !== undefined) {
+                    xhr.setRequestHeader(tokenName, requestTokenValue);
                 }
+            } else if (requestTokenValue !== undefined) {
+                /* the static script has no master token yet, the stored one proves that the stored version belongs to the session */
+                masterTokenValue = requestTokenValue;
             }
 
             xhr.onreadystatechange = function () {
                 if (xhr.readyState === 4) {
                     if (xhr.status === 200) {
-                        let pageTokens = JSON.parse(xhr.responseText)['pageTokens'];
-                        console.debug('Received page tokens: ', pageTokens);
-                        callback.call(this, pageTokens);
+                        let tokenTO = JSON.parse(xhr.responseText);
+                        console.debug('Received tokens: ', tokenTO);
+
+                        /* the server only sends the changes (marked as delta) if the stored tokens belong to the current master token, otherwise all the tokens */
+                        let masterToken = tokenTO['masterToken'] !== undefined ? tokenTO['masterToken'] : tokenValue;
+                        if (storedTokens && tokenTO['delta'] === true && masterToken === storedTokens.masterToken) {
+                            tokenTO['pageTokens'] = Object.assign({}, storedTokens.pageTokens, tokenTO['pageTokens']);
+                        }
+                        storeTokens(masterToken, tokenTO);
+
+                        callback.call(this, tokenTO);
+                    } else if (xhr.status === 204 && storedTokens) {
+                        console.debug('The stored tokens are up to date');
+                        callback.call(this, {masterToken: storedTokens.masterToken, pageTokens: storedTokens.pageTokens});
                     } else {
                         alert(xhr.status + ': CSRF check failed');
                     }
                 }
             };
 
-            xhr.send(null);
+            if (storedTokens) {
+                xhr.setRequestHeader('Content-Type', 'application/x-www-form-urlencoded');
+                xhr.send('version=' + encodeURIComponent(storedTokens.version));
+            } else {
+                xhr.send(null);
+            }
         }
 
         function handleDynamicallyCreatedNodes() {
@@ -592,6 +637,7 @@ if (owaspCSRFGuardScriptHasLoaded !== true) {
         if (isValidDomain(document.domain, '%DOMAIN_ORIGIN%')) {
             var tokenName = '%TOKEN_NAME%';
             var masterTokenValue = '%TOKEN_VALUE%';
+            var tokenStorageKey = 'OWASP_CSRFGUARD_TOKENS:%SERVLET_PATH%';
             console.debug('Master token [' + tokenName + ']: ', masterTokenValue);
 
             var isLoadedWrapper = {isDomContentLoaded: false};
@@ -716,8 +762,23 @@ if (owaspCSRFGuardScriptHasLoaded !== true) {
                 };
             }
 
-            if ('%TOKENS_PER_PAGE%') {
-                let pageTokenRequestCallback = function (receivedPageTokens) {
+            if ('%STATIC_SCRIPT%') {
+                let tokenRequestCallback = function (tokenTO) {
+                    masterTokenValue = tokenTO['masterToken'];
+                    pageTokenWrapper.pageTokens = tokenTO['pageTokens'] || {};
+
+                    pageTokenWrapper.pageTokensLoaded = true;
+
+                    if (isLoadedWrapper.isDomContentLoaded) {
+                        injectTokens(tokenName, masterTokenValue, pageTokenWrapper.pageTokens);
+                    }
+                };
+
+                /* the script does not contain the master token, the session tokens are requested without it */
+                requestTokens(tokenName, undefined, tokenRequestCallback);
+            } else if ('%TOKENS_PER_PAGE%') {
+                let pageTokenRequestCallback = function (tokenTO) {
+                    let receivedPageTokens = tokenTO['pageTokens'];
                     pageTokenWrapper.pageTokens = receivedPageTokens;
 
                     pageTokenWrapper.pageTokensLoaded = true;
@@ -727,7 +788,7 @@ if (owaspCSRFGuardScriptHasLoaded !== true) {
                     }
                 };
 
-                requestPageTokens(tokenName, masterTokenValue, pageTokenRequestCallback);
+                requestTokens(tokenName, masterTokenValue, pageTokenRequestCallback);
             } else {
                 /* update nodes in DOM after load */
                 addEvent(window, 'DOMContentLoaded', function () {
@@ -0,0 +1,148 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.owasp.csrfguard.metrics.CsrfGuardMetrics;
+import org.owasp.csrfguard.servlet.JavaScriptServlet;
+import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.service.TokenService;
+import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CsrfGuardFilterTest {
+
+    @Test
+    void testUnprotectedRequestsSkipTheSessionAndTheTokens() throws IOException, ServletException {
+        final CsrfGuard csrfGuard = mockCsrfGuard();
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        final FilterChain filterChain = mock(FilterChain.class);
+
+        when(request.getRequestURI()).thenReturn("/style.css");
+
+        try (final MockedStatic<JavaScriptServlet> javaScriptServletMockedStatic = mockStatic(JavaScriptServlet.class);
+             final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            javaScriptServletMockedStatic.when(JavaScriptServlet::getJavascriptUris).thenReturn(Collections.singleton("/JavaScriptServlet"));
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            new CsrfGuardFilter().doFilter(request, response, filterChain);
+
+            verify(filterChain).doFilter(same(request), any(HttpServletResponse.class));
+            verify(csrfGuard, never()).getLogicalSessionExtractor();
+            verify(csrfGuard, never()).getTokenHolder();
+            verify(csrfGuard, never()).getTokenService();
+            verify(request, never()).getSession();
+            verify(request, never()).getSession(anyBoolean());
+        }
+    }
+
+    @Test
+    void testRedirectsOfUnprotectedRequestsAreRewritten() throws IOException, ServletException {
+        final CsrfGuard csrfGuard = mockCsrfGuard();
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        final LogicalSessionExtractor logicalSessionExtractor = mock(LogicalSessionExtractor.class);
+        final LogicalSession logicalSession = mock(LogicalSession.class);
+        final TokenService tokenService = mock(TokenService.class);
+
+        when(request.getRequestURI()).thenReturn("/style.css");
+        when(csrfGuard.getTokenName()).thenReturn("CSRFTOKEN");
+        when(csrfGuard.getLogicalSessionExtractor()).thenReturn(logicalSessionExtractor);
+        when(logicalSessionExtractor.extract(request)).thenReturn(logicalSession);
+        when(logicalSession.getKey()).thenReturn("session");
+        when(csrfGuard.getTokenService()).thenReturn(tokenService);
+        when(tokenService.generateTokensIfAbsent("session", "GET", "/protected")).thenReturn("token");
+
+        final FilterChain filterChain = (servletRequest, servletResponse) -> ((HttpServletResponse) servletResponse).sendRedirect("/protected");
+
+        try (final MockedStatic<JavaScriptServlet> javaScriptServletMockedStatic = mockStatic(JavaScriptServlet.class);
+             final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            javaScriptServletMockedStatic.when(JavaScriptServlet::getJavascriptUris).thenReturn(Collections.singleton("/JavaScriptServlet"));
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            new CsrfGuardFilter().doFilter(request, response, filterChain);
+
+            verify(response).sendRedirect("/protected?CSRFTOKEN=token");
+        }
+    }
+
+    @Test
+    void testUnprotectedRequestsAreCounted() throws IOException, ServletException {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        final FilterChain filterChain = mock(FilterChain.class);
+
+        when(csrfGuard.isEnabled()).thenReturn(true);
+        when(request.getRequestURI()).thenReturn("/JavaScriptServlet");
+
+        try (final MockedStatic<JavaScriptServlet> javaScriptServletMockedStatic = mockStatic(JavaScriptServlet.class);
+             final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            javaScriptServletMockedStatic.when(JavaScriptServlet::getJavascriptUris).thenReturn(Collections.singleton("/JavaScriptServlet"));
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            final long unprotectedRequests = CsrfGuardMetrics.getUnprotectedRequests().getCount();
+            final long validatedRequests = CsrfGuardMetrics.getValidatedRequests().getCount();
+
+            new CsrfGuardFilter().doFilter(request, response, filterChain);
+
+            verify(filterChain).doFilter(same(request), any(HttpServletResponse.class));
+            assertEquals(unprotectedRequests + 1, CsrfGuardMetrics.getUnprotectedRequests().getCount());
+            assertEquals(validatedRequests, CsrfGuardMetrics.getValidatedRequests().getCount());
+        }
+    }
+
+    private static CsrfGuard mockCsrfGuard() {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+
+        when(csrfGuard.isEnabled()).thenReturn(true);
+        when(csrfGuard.isProtectEnabled()).thenReturn(true);
+        when(csrfGuard.getProtectedPagesMatcher()).thenReturn(new UriMatcher(Collections.singleton("/protected")));
+
+        return csrfGuard;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CsrfGuardRequestContextTest {
+
+    @Test
+    void testValuesAreExtractedOnce() {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        final LogicalSessionExtractor logicalSessionExtractor = mock(LogicalSessionExtractor.class);
+        final LogicalSession logicalSession = mock(LogicalSession.class);
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+
+        when(csrfGuard.getLogicalSessionExtractor()).thenReturn(logicalSessionExtractor);
+        when(csrfGuard.getTokenName()).thenReturn("OWASP-CSRFTOKEN");
+        when(logicalSessionExtractor.extract(request)).thenReturn(null, logicalSession);
+        when(request.getParameter("OWASP-CSRFTOKEN")).thenReturn("token");
+
+        try (final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            final CsrfGuardRequestContext requestContext = CsrfGuardRequestContext.get(request);
+            verify(request).setAttribute(CsrfGuardRequestContext.class.getName(), requestContext);
+
+            /* a missing session is looked up again, an existing one is not */
+            assertNull(requestContext.getLogicalSession());
+            assertSame(logicalSession, requestContext.getLogicalSession());
+            assertSame(logicalSession, requestContext.getLogicalSession());
+            verify(logicalSessionExtractor, times(2)).extract(request);
+
+            assertEquals("token", requestContext.getTokenFromRequest());
+            assertEquals("token", requestContext.getTokenFromRequest());
+            verify(request).getParameter("OWASP-CSRFTOKEN");
+
+            requestContext.resetLogicalSession();
+            assertSame(logicalSession, requestContext.getLogicalSession());
+            verify(logicalSessionExtractor, times(3)).extract(request);
+        }
+    }
+}
@@ -33,8 +33,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.owasp.csrfguard.config.ConfigurationProvider;
+import org.owasp.csrfguard.config.ConfigurationSnapshot;
 import org.owasp.csrfguard.servlet.JavaScriptServlet;
+import org.owasp.csrfguard.util.BoundedConcurrentCache;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -44,7 +48,7 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -106,6 +110,42 @@ class CsrfValidatorTest {
         testResourceValidation(matchingRule, firstResourceSet, secondResourceSet);
     }
 
+    @Test
+    void testProtectionDecisionsAreCached() {
+        executeInMockedContext(csrfGuard -> {
+            final BoundedConcurrentCache<String, ProtectionResult> protectionDecisionCache = new BoundedConcurrentCache<>(10);
+            when(csrfGuard.getProtectionDecisionCache()).thenReturn(protectionDecisionCache);
+            final CsrfValidator csrfValidator = initializeValidator(csrfGuard, true, Collections.singleton("/protected"));
+
+            assertTrue(csrfValidator.isProtectedPage("/protected").isProtected());
+            assertTrue(csrfValidator.isProtectedPage("/protected").isProtected());
+            assertFalse(csrfValidator.isProtectedPage("/public").isProtected());
+
+            verify(csrfGuard, times(2)).getProtectedPagesMatcher();
+            assertEquals(1, protectionDecisionCache.getHitCount());
+            assertEquals(2, protectionDecisionCache.getMissCount());
+        });
+    }
+
+    @Test
+    void testProtectionDecisionCacheIsBypassedIfDisabled() {
+        final ConfigurationProvider configurationProvider = mock(ConfigurationProvider.class);
+        when(configurationProvider.getProtectionDecisionCacheSize()).thenReturn(1);
+        final ConfigurationSnapshot configurationSnapshot = new ConfigurationSnapshot(configurationProvider, Duration.ZERO);
+
+        assertNull(configurationSnapshot.getProtectionDecisionCache());
+
+        executeInMockedContext(csrfGuard -> {
+            when(csrfGuard.getProtectionDecisionCache()).thenReturn(configurationSnapshot.getProtectionDecisionCache());
+            final CsrfValidator csrfValidator = initializeValidator(csrfGuard, true, Collections.singleton("/protected"));
+
+            assertTrue(csrfValidator.isProtectedPage("/protected").isProtected());
+            assertTrue(csrfValidator.isProtectedPage("/protected").isProtected());
+
+            verify(csrfGuard, times(2)).getProtectedPagesMatcher();
+        });
+    }
+
     private static void executeInMockedContext(final Consumer<CsrfGuard> csrfGuardConsumer) {
         final CsrfGuard csrfGuard = mock(CsrfGuard.class);
 
@@ -141,9 +181,9 @@ class CsrfValidatorTest {
         when(csrfGuard.isProtectEnabled()).thenReturn(isProtect);
 
         if (isProtect) {
-            when(csrfGuard.getProtectedPages()).thenReturn(matchingRules);
+            when(csrfGuard.getProtectedPagesMatcher()).thenReturn(new UriMatcher(matchingRules));
         } else {
-            when(csrfGuard.getUnprotectedPages()).thenReturn(matchingRules);
+            when(csrfGuard.getUnprotectedPagesMatcher()).thenReturn(new UriMatcher(matchingRules));
         }
 
         return new CsrfValidator();
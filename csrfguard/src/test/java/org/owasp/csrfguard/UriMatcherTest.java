@@ -0,0 +1,106 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.csrfguard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UriMatcherTest {
+
+    @Test
+    void testExactMatch() {
+        final UriMatcher uriMatcher = new UriMatcher(Collections.singleton("/protected.html"));
+
+        assertEquals("/protected.html", uriMatcher.match("/protected.html"));
+        assertNull(uriMatcher.match("/protected.htm"));
+        assertNull(uriMatcher.match("/other/protected.html"));
+    }
+
+    @Test
+    void testPathMatch() {
+        final UriMatcher uriMatcher = new UriMatcher(Collections.singleton("/app/admin/*"));
+
+        assertEquals("/app/admin", uriMatcher.match("/app/admin"));
+        assertEquals("/app/admin/", uriMatcher.match("/app/admin/"));
+        assertEquals("/app/admin/users/list", uriMatcher.match("/app/admin/users/list"));
+        assertNull(uriMatcher.match("/app/administration"));
+        assertNull(uriMatcher.match("/app"));
+
+        assertEquals("/anything", new UriMatcher(Collections.singleton("/*")).match("/anything"));
+    }
+
+    @Test
+    void testExtensionMatch() {
+        final UriMatcher uriMatcher = new UriMatcher(Collections.singleton("*.do"));
+
+        assertEquals("/app/save.do", uriMatcher.match("/app/save.do"));
+        assertNull(uriMatcher.match("/app/save.dox"));
+        assertNull(uriMatcher.match("/app.do/save"));
+        assertNull(uriMatcher.match("/app/save."));
+    }
+
+    @Test
+    void testRegexMatchReturnsTheExpression() {
+        final String firstRegex = "^/(a|b)/.*\\.html$";
+        final String secondRegex = "^/c/(?<name>[a-z]+)$";
+        final UriMatcher uriMatcher = new UriMatcher(new LinkedHashSet<>(Arrays.asList(firstRegex, secondRegex)));
+
+        assertEquals(firstRegex, uriMatcher.match("/b/page.html"));
+        assertEquals(secondRegex, uriMatcher.match("/c/page"));
+        assertNull(uriMatcher.match("/c/page.html"));
+    }
+
+    @Test
+    void testRegexWithBackReference() {
+        final String regex = "^/(\\w+)/\\1$";
+        final UriMatcher uriMatcher = new UriMatcher(new LinkedHashSet<>(Arrays.asList("^/x$", regex)));
+
+        assertEquals(regex, uriMatcher.match("/same/same"));
+        assertNull(uriMatcher.match("/same/other"));
+    }
+
+    @Test
+    void testFirstConfiguredPageWins() {
+        final String regex = "^/shop/.*$";
+
+        final Set<String> regexFirst = new LinkedHashSet<>(Arrays.asList(regex, "/shop/*"));
+        assertEquals(regex, new UriMatcher(regexFirst).match("/shop/cart"));
+
+        final Set<String> pathFirst = new LinkedHashSet<>(Arrays.asList("*.jsp", "/shop/*", regex));
+        assertEquals("/shop/cart", new UriMatcher(pathFirst).match("/shop/cart"));
+        assertEquals("/shop/cart.jsp", new UriMatcher(pathFirst).match("/shop/cart.jsp"));
+    }
+}
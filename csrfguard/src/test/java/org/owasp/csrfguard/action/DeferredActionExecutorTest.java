@@ -0,0 +1,130 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.action;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.CsrfGuard;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DeferredActionExecutorTest {
+
+    @AfterEach
+    void shutdown() {
+        DeferredActionExecutor.shutdown();
+    }
+
+    @Test
+    void testTasksRunOnTheCallerIfTheQueueIsFull() throws InterruptedException {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getAsyncActionsThreads()).thenReturn(1);
+        when(csrfGuard.getAsyncActionsQueueSize()).thenReturn(1);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final long callerRunCount = DeferredActionExecutor.getCallerRunCount();
+
+        /* occupies the only thread */
+        DeferredActionExecutor.execute(csrfGuard, () -> {
+            started.countDown();
+            awaitUninterruptibly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        /* fills the queue */
+        final CountDownLatch queuedTaskExecuted = new CountDownLatch(1);
+        DeferredActionExecutor.execute(csrfGuard, queuedTaskExecuted::countDown);
+
+        final Thread caller = Thread.currentThread();
+        final boolean[] ranOnCaller = new boolean[1];
+        DeferredActionExecutor.execute(csrfGuard, () -> ranOnCaller[0] = Thread.currentThread() == caller);
+
+        assertTrue(ranOnCaller[0]);
+        assertEquals(callerRunCount + 1, DeferredActionExecutor.getCallerRunCount());
+
+        release.countDown();
+        assertTrue(queuedTaskExecuted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testTasksRunOnTheCallerIfDisabled() {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getAsyncActionsThreads()).thenReturn(0);
+
+        final Thread caller = Thread.currentThread();
+        final boolean[] ranOnCaller = new boolean[1];
+        DeferredActionExecutor.execute(csrfGuard, () -> ranOnCaller[0] = Thread.currentThread() == caller);
+
+        assertTrue(ranOnCaller[0]);
+        assertEquals(0, DeferredActionExecutor.getQueueSize());
+    }
+
+    @Test
+    void testDisablingDoesNotWaitForThePendingTasks() throws InterruptedException {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getAsyncActionsThreads()).thenReturn(1);
+        when(csrfGuard.getAsyncActionsQueueSize()).thenReturn(1);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        DeferredActionExecutor.execute(csrfGuard, () -> {
+            started.countDown();
+            awaitUninterruptibly(release);
+            finished.countDown();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        when(csrfGuard.getAsyncActionsThreads()).thenReturn(0);
+        final long start = System.nanoTime();
+        final boolean[] ranOnCaller = new boolean[1];
+        DeferredActionExecutor.execute(csrfGuard, () -> ranOnCaller[0] = true);
+
+        assertTrue(ranOnCaller[0]);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, finished.getCount());
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.action;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.log.ILogger;
+import org.owasp.csrfguard.log.LogLevel;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LogTest {
+
+    @Test
+    void testPlaceholdersAreReplacedInASinglePass() throws CsrfGuardException {
+        final Log log = new Log();
+        log.setParameter("Message", "%unknown% attack (ip:%remote_ip%, uri:%request_uri%, error:%exception_message%) %");
+
+        final List<String> messages = execute(log, mockRequest("10.0.0.1", "/protected"), new CsrfGuardException("%remote_ip%"), 1);
+
+        assertEquals(1, messages.size());
+        assertEquals("%unknown% attack (ip:10.0.0.1, uri:/protected, error:%remote_ip%) %", messages.get(0));
+    }
+
+    @Test
+    void testRepeatedMessagesAreAggregated() throws CsrfGuardException {
+        final Log log = new Log();
+        log.setParameter("Message", "attack (ip:%remote_ip%, uri:%request_uri%)");
+        log.setParameter("Aggregate", "true");
+        log.setParameter("AggregateWindowSeconds", "3600");
+        log.setParameter("MaxMessagesPerKey", "2");
+        log.setParameter("MaxMessages", "3");
+
+        final CsrfGuardException csrfe = new CsrfGuardException("mismatch");
+        assertEquals(2, execute(log, mockRequest("10.0.0.1", "/protected"), csrfe, 100).size());
+        assertEquals(1, execute(log, mockRequest("10.0.0.2", "/protected"), csrfe, 100).size());
+        assertEquals(0, execute(log, mockRequest("10.0.0.3", "/protected"), csrfe, 100).size());
+    }
+
+    @Test
+    void testTheSummaryIsWrittenByTheDeferredTask() {
+        final Log log = new Log();
+        log.setParameter("Message", "attack (ip:%remote_ip%, uri:%request_uri%)");
+        log.setParameter("Aggregate", "true");
+        log.setParameter("AggregateWindowSeconds", "0");
+        log.setParameter("MaxMessagesPerKey", "0");
+
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final CsrfGuard csrfGuard = mockCsrfGuard(messages);
+        final CsrfGuardException csrfe = new CsrfGuardException("mismatch");
+
+        /* every request starts a new window, so the suppressed occurrence of the first one is summarized by the second one */
+        final Runnable firstTask = log.defer(mockRequest("10.0.0.1", "/protected"), csrfe, csrfGuard);
+        assertNotNull(firstTask);
+        firstTask.run();
+        assertTrue(messages.isEmpty());
+
+        final Runnable secondTask = log.defer(mockRequest("10.0.0.1", "/protected"), csrfe, csrfGuard);
+        assertNotNull(secondTask);
+        assertTrue(messages.isEmpty());
+
+        secondTask.run();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).contains("thwarted 1 more times"));
+    }
+
+    private static List<String> execute(final Log log, final HttpServletRequest request, final CsrfGuardException csrfe, final int times) throws CsrfGuardException {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final CsrfGuard csrfGuard = mockCsrfGuard(messages);
+
+        for (int i = 0; i < times; i++) {
+            log.execute(request, null, csrfe, csrfGuard);
+        }
+        return messages;
+    }
+
+    private static CsrfGuard mockCsrfGuard(final List<String> messages) {
+        final ILogger logger = new ILogger() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void log(final String msg) {
+                log(LogLevel.Info, msg);
+            }
+
+            @Override
+            public void log(final LogLevel level, final String msg) {
+                messages.add(msg);
+            }
+
+            @Override
+            public void log(final Exception exception) {
+                fail(exception);
+            }
+
+            @Override
+            public void log(final LogLevel level, final Exception exception) {
+                fail(exception);
+            }
+        };
+
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getLogger()).thenReturn(logger);
+        return csrfGuard;
+    }
+
+    private static HttpServletRequest mockRequest(final String remoteAddress, final String uri) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn(remoteAddress);
+        when(request.getRequestURI()).thenReturn(uri);
+        return request;
+    }
+}
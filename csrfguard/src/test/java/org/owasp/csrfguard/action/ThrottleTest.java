@@ -0,0 +1,95 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.action;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.CsrfGuardException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ThrottleTest {
+
+    @Test
+    void testClientsExceedingTheirBudgetAreRejectedEarly() {
+        final Throttle throttle = new Throttle();
+        throttle.setParameter("FailureBudget", "3");
+        throttle.setParameter("FailuresPerMinute", "1");
+
+        final CsrfGuardException csrfe = new CsrfGuardException("mismatch");
+        final HttpServletRequest attacker = mockRequest("10.0.0.1");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.preempt(attacker, mock(HttpServletResponse.class), csrfe, null));
+        }
+
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertFalse(throttle.preempt(attacker, response, csrfe, null));
+        verify(response).setStatus(HttpServletResponse.SC_FORBIDDEN);
+        verify(response).setContentLength(0);
+
+        assertTrue(throttle.preempt(mockRequest("10.0.0.2"), mock(HttpServletResponse.class), csrfe, null));
+    }
+
+    @Test
+    void testTheBudgetIsRefilled() throws InterruptedException {
+        final FailureRateSketch failureRateSketch = new FailureRateSketch(1, 60 * 20);
+
+        assertTrue(failureRateSketch.tryAcquire("client"));
+        assertFalse(failureRateSketch.tryAcquire("client"));
+
+        Thread.sleep(100);
+        assertTrue(failureRateSketch.tryAcquire("client"));
+    }
+
+    @Test
+    void testInvalidParametersAreRejectedAtConfigurationTime() {
+        final Throttle throttle = new Throttle();
+
+        assertThrows(IllegalArgumentException.class, () -> throttle.setParameter("ClientKey", "RemoteAdress"));
+        assertThrows(NumberFormatException.class, () -> throttle.setParameter("FailureBudget", "twenty"));
+
+        assertFalse(throttle.getParameterMap().containsKey("ClientKey"));
+        assertFalse(throttle.getParameterMap().containsKey("FailureBudget"));
+
+        throttle.setParameter("ClientKey", " remoteAddress ");
+        throttle.setParameter("FailureBudget", "1");
+        assertTrue(throttle.preempt(mockRequest("10.0.0.1"), mock(HttpServletResponse.class), new CsrfGuardException("mismatch"), null));
+        assertFalse(throttle.preempt(mockRequest("10.0.0.1"), mock(HttpServletResponse.class), new CsrfGuardException("mismatch"), null));
+    }
+
+    private static HttpServletRequest mockRequest(final String remoteAddress) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn(remoteAddress);
+        return request;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLoggerTest {
+
+    @BeforeEach
+    void restart() {
+        AsyncLogger.restart();
+    }
+
+    @AfterEach
+    void shutdown() {
+        AsyncLogger.shutdown();
+    }
+
+    @Test
+    void testPendingMessagesAreWrittenOnShutdown() {
+        final RecordingLogger recordingLogger = new RecordingLogger(null);
+        final AsyncLogger asyncLogger = new AsyncLogger(recordingLogger, 4096, AsyncLogger.OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 10_000; i++) {
+            asyncLogger.log(LogLevel.Info, "message" + i);
+        }
+        AsyncLogger.shutdown();
+
+        assertEquals(10_000, recordingLogger.messages.size());
+        assertEquals("message0", recordingLogger.messages.get(0));
+        assertEquals("message9999", recordingLogger.messages.get(9_999));
+        assertNotEquals(Thread.currentThread().getName(), recordingLogger.threadName);
+    }
+
+    @Test
+    void testMessagesAreWrittenSynchronouslyAfterShutdown() {
+        final RecordingLogger recordingLogger = new RecordingLogger(null);
+        final AsyncLogger asyncLogger = new AsyncLogger(recordingLogger, 16, AsyncLogger.OverflowPolicy.DROP);
+        asyncLogger.log(LogLevel.Info, "before");
+        AsyncLogger.shutdown();
+
+        asyncLogger.log(LogLevel.Info, "after");
+
+        assertEquals(2, recordingLogger.messages.size());
+        assertEquals("after", recordingLogger.messages.get(1));
+        assertEquals(Thread.currentThread().getName(), recordingLogger.threadName);
+        assertTrue(Thread.getAllStackTraces().keySet().stream().noneMatch(thread -> thread.getName().equals("CSRFGuard-AsyncLogger")));
+    }
+
+    @Test
+    void testMessagesAreDroppedAndCountedIfTheBufferIsFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingLogger recordingLogger = new RecordingLogger(release);
+        final AsyncLogger asyncLogger = new AsyncLogger(recordingLogger, 2, AsyncLogger.OverflowPolicy.DROP);
+
+        /* the first message blocks the background thread, the buffer holds the next two */
+        for (int i = 0; i < 10; i++) {
+            asyncLogger.log(LogLevel.Error, "message" + i);
+        }
+        final long droppedCount = AsyncLogger.getDroppedCount();
+        assertTrue(droppedCount >= 7);
+
+        release.countDown();
+        AsyncLogger.shutdown();
+
+        assertEquals(10 - droppedCount, recordingLogger.messages.stream().filter(message -> message.startsWith("message")).count());
+        assertEquals(droppedCount, recordingLogger.getReportedDroppedCount());
+    }
+
+    @Test
+    void testFailuresOfTheUnderlyingLoggerAreCounted() {
+        final RecordingLogger recordingLogger = new RecordingLogger(null);
+        final AsyncLogger asyncLogger = new AsyncLogger(recordingLogger, 16, AsyncLogger.OverflowPolicy.BLOCK);
+        final long failedCount = AsyncLogger.getFailedCount();
+
+        asyncLogger.log(LogLevel.Info, "message");
+        asyncLogger.log(LogLevel.Error, new IllegalStateException((String) null) {
+            @Override
+            public String getLocalizedMessage() {
+                throw new IllegalStateException("the underlying logger failed");
+            }
+        });
+        AsyncLogger.shutdown();
+
+        assertEquals(failedCount + 1, AsyncLogger.getFailedCount());
+        assertEquals("message", recordingLogger.messages.get(0));
+        assertEquals("1 log messages were lost, because the underlying logger failed to write them.", recordingLogger.messages.get(1));
+    }
+
+    private static final class RecordingLogger implements ILogger {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch release;
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private volatile String threadName;
+
+        private RecordingLogger(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void log(final String msg) {
+            log(LogLevel.Info, msg);
+        }
+
+        @Override
+        public void log(final LogLevel level, final String msg) {
+            this.threadName = Thread.currentThread().getName();
+            this.messages.add(msg);
+
+            if (this.release != null) {
+                try {
+                    this.release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void log(final Exception exception) {
+            log(LogLevel.Error, exception);
+        }
+
+        @Override
+        public void log(final LogLevel level, final Exception exception) {
+            log(level, exception.getLocalizedMessage());
+        }
+
+        private long getReportedDroppedCount() {
+            return this.messages.stream().filter(message -> message.endsWith("asynchronous log buffer was full."))
+                                .mapToLong(message -> Long.parseLong(message.substring(0, message.indexOf(' '))))
+                                .sum();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JavaLoggerTest {
+
+    @Test
+    void testLineBreaksAreRemoved() {
+        final String msg = "no line breaks";
+        assertSame(msg, JavaLogger.removeLineBreaks(msg));
+        assertEquals("", JavaLogger.removeLineBreaks("\r\n"));
+        assertEquals("injectedline", JavaLogger.removeLineBreaks("\ninjected\r\nline\r"));
+    }
+
+    @Test
+    void testDisabledMessagesAreNotBuilt() {
+        final Logger logger = Logger.getLogger("Owasp.CsrfGuard");
+        final Level originalLevel = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        try {
+            final ILogger javaLogger = new JavaLogger();
+            assertFalse(javaLogger.isEnabled(LogLevel.Debug));
+            assertTrue(javaLogger.isEnabled(LogLevel.Error));
+
+            javaLogger.log(LogLevel.Debug, () -> fail("the message of a disabled level should not be built"));
+            javaLogger.log(LogLevel.Trace, "%s", new Object() {
+                @Override
+                public String toString() {
+                    return fail("the message of a disabled level should not be formatted");
+                }
+            });
+        } finally {
+            logger.setLevel(originalLevel);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void testHistogramBucketsCoverAllValues() {
+        long previousHighest = -1;
+        for (int i = 0; i <= Histogram.bucketIndex(Long.MAX_VALUE); i++) {
+            assertEquals(previousHighest + 1, Histogram.lowestEquivalentValue(i));
+            assertEquals(i, Histogram.bucketIndex(Histogram.lowestEquivalentValue(i)));
+            assertEquals(i, Histogram.bucketIndex(Histogram.highestEquivalentValue(i)));
+            previousHighest = Histogram.highestEquivalentValue(i);
+        }
+        assertEquals(Long.MAX_VALUE, previousHighest);
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        final Histogram histogram = new MetricsRegistry().histogram("latency", "Latency");
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500_000L, histogram.getSum());
+        assertEquals(1_000_000L, histogram.getMax());
+        assertEquals(1_000_000L, histogram.getValueAtPercentile(100));
+        assertWithinBucketError(500_000L, histogram.getValueAtPercentile(50));
+        assertWithinBucketError(990_000L, histogram.getValueAtPercentile(99));
+        assertWithinBucketError(1000L, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    void testRegistryReturnsTheSameMetricAndRejectsTypeConflicts() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("requests_total", "Requests", Collections.singletonMap("reason", "a"));
+
+        assertSame(counter, registry.counter("requests_total", "Requests", Collections.singletonMap("reason", "a")));
+        assertNotSame(counter, registry.counter("requests_total", "Requests", Collections.singletonMap("reason", "b")));
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("requests_total", "Requests").getCount());
+        assertThrows(IllegalArgumentException.class, () -> counter.add(-1));
+
+        registry.counter("other", "Other");
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("other", "Other", () -> 0));
+    }
+
+    @Test
+    void testPrometheusExport() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_rejected_total", "Rejected \"requests\"", Collections.singletonMap("reason", "missing_token")).add(2);
+        registry.counter("requests_rejected_total", "Rejected \"requests\"", Collections.singletonMap("reason", "mismatch")).increment();
+        registry.counter("requests_rejected_total_by_client", "Sorts between the labeled counters if the key is not chosen carefully");
+        final AtomicLong sessions = new AtomicLong(-1);
+        registry.gauge("sessions", "Sessions", sessions::get);
+        registry.histogram("duration_seconds", "Duration").record(2_000_000_000L);
+
+        final PrometheusExporter unknownGaugeExporter = new PrometheusExporter();
+        registry.export(unknownGaugeExporter);
+        assertFalse(unknownGaugeExporter.toString().contains("sessions"));
+
+        sessions.set(3);
+        final PrometheusExporter exporter = new PrometheusExporter();
+        registry.export(exporter);
+
+        final String expected = "# HELP duration_seconds Duration\n"
+                                + "# TYPE duration_seconds summary\n"
+                                + "duration_seconds{quantile=\"0.5\"} 2.0\n"
+                                + "duration_seconds{quantile=\"0.9\"} 2.0\n"
+                                + "duration_seconds{quantile=\"0.99\"} 2.0\n"
+                                + "duration_seconds{quantile=\"0.999\"} 2.0\n"
+                                + "duration_seconds_sum 2.0\n"
+                                + "duration_seconds_count 1\n"
+                                + "# HELP requests_rejected_total Rejected \"requests\"\n"
+                                + "# TYPE requests_rejected_total counter\n"
+                                + "requests_rejected_total{reason=\"mismatch\"} 1\n"
+                                + "requests_rejected_total{reason=\"missing_token\"} 2\n"
+                                + "# HELP requests_rejected_total_by_client Sorts between the labeled counters if the key is not chosen carefully\n"
+                                + "# TYPE requests_rejected_total_by_client counter\n"
+                                + "requests_rejected_total_by_client 0\n"
+                                + "# HELP sessions Sessions\n"
+                                + "# TYPE sessions gauge\n"
+                                + "sessions 3\n";
+        assertEquals(expected, exporter.toString());
+    }
+
+    private static void assertWithinBucketError(final long expected, final long actual) {
+        assertTrue(Math.abs(expected - actual) <= expected / 8, () -> String.format("Expected %d but was %d", expected, actual));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.servlet;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.session.LogicalSession;
+import org.owasp.csrfguard.token.service.TokenService;
+import org.owasp.csrfguard.token.storage.LogicalSessionExtractor;
+import org.owasp.csrfguard.token.storage.TokenHolder;
+import org.owasp.csrfguard.token.storage.impl.InMemoryTokenHolder;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.SecureRandom;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JavaScriptServletTest {
+
+    private static final String TOKEN_NAME = "OWASP-CSRFTOKEN";
+
+    @Test
+    void testStaticScriptReceivesOnlyTheChangesWhenTheHookedRequestSendsTheStoredMasterToken() throws IOException {
+        final TokenHolder tokenHolder = new InMemoryTokenHolder();
+        final CsrfGuard csrfGuard = createCsrfGuard(tokenHolder);
+
+        try (final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+            final JavaScriptServlet javaScriptServlet = new JavaScriptServlet();
+
+            /* first page load: nothing is stored, the master token is not known by the static script */
+            final JsonObject initialTokens = post(javaScriptServlet, null, null);
+            final String masterToken = initialTokens.get("masterToken").getAsString();
+            final String version = initialTokens.get("version").getAsString();
+            assertFalse(initialTokens.has("delta"));
+
+            tokenHolder.setPageToken("session", "/new", "new");
+
+            /* next page load: the XHR hook sends the stored master token along with the stored version */
+            final JsonObject changedTokens = post(javaScriptServlet, masterToken, version);
+            assertTrue(changedTokens.get("delta").getAsBoolean());
+            assertEquals(1, changedTokens.getAsJsonObject("pageTokens").size());
+            assertEquals("new", changedTokens.getAsJsonObject("pageTokens").get("/new").getAsString());
+
+            /* the version is not honoured without the master token it belongs to */
+            final JsonObject allTokens = post(javaScriptServlet, "", changedTokens.get("version").getAsString());
+            assertFalse(allTokens.has("delta"));
+            assertEquals(masterToken, allTokens.get("masterToken").getAsString());
+        }
+    }
+
+    private static JsonObject post(final JavaScriptServlet javaScriptServlet, final String tokenHeader, final String version) throws IOException {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        /* the hooked XMLHttpRequest sets the header twice */
+        when(request.getHeaders("X-Requested-With")).thenReturn(Collections.enumeration(Collections.singletonList("XMLHttpRequest, XMLHttpRequest")));
+        when(request.getHeader(TOKEN_NAME)).thenReturn(tokenHeader);
+        when(request.getParameter(JavaScriptServlet.PAGE_TOKENS_VERSION_PARAMETER_NAME)).thenReturn(version);
+
+        final StringWriter body = new StringWriter();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+        javaScriptServlet.doPost(request, response);
+
+        verify(response, never()).sendError(anyInt());
+        verify(response, never()).sendError(anyInt(), anyString());
+        return new Gson().fromJson(body.toString(), JsonObject.class);
+    }
+
+    private static CsrfGuard createCsrfGuard(final TokenHolder tokenHolder) {
+        final LogicalSession logicalSession = mock(LogicalSession.class);
+        when(logicalSession.getKey()).thenReturn("session");
+
+        final LogicalSessionExtractor logicalSessionExtractor = mock(LogicalSessionExtractor.class);
+        when(logicalSessionExtractor.extract(any())).thenReturn(logicalSession);
+        when(logicalSessionExtractor.extractOrCreate(any())).thenReturn(logicalSession);
+
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.isJavascriptStaticScript()).thenReturn(true);
+        when(csrfGuard.isTokenPerPageEnabled()).thenReturn(true);
+        when(csrfGuard.getTokenName()).thenReturn(TOKEN_NAME);
+        when(csrfGuard.getTokenHolder()).thenReturn(tokenHolder);
+        when(csrfGuard.getTokenService()).thenReturn(new TokenService(csrfGuard));
+        when(csrfGuard.getLogicalSessionExtractor()).thenReturn(logicalSessionExtractor);
+        when(csrfGuard.getTokenLength()).thenReturn(32);
+        when(csrfGuard.getTokenFormat()).thenReturn(TokenFormat.DASHED);
+        when(csrfGuard.getPrng()).thenReturn(new SecureRandom());
+        return csrfGuard;
+    }
+}
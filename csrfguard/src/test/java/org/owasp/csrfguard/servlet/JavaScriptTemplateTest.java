@@ -0,0 +1,165 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.servlet;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.config.ConfigurationProvider;
+import org.owasp.csrfguard.util.CsrfGuardUtils;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+class JavaScriptTemplateTest {
+
+    @Test
+    void testRenderingMatchesPlaceholderReplacement() throws IOException {
+        final String templateCode = CsrfGuardUtils.readResourceFileContent("META-INF/csrfguard.js");
+
+        final ConfigurationProvider configurationProvider = mock(ConfigurationProvider.class);
+        when(configurationProvider.getJavascriptTemplateCode()).thenReturn(templateCode);
+        when(configurationProvider.getTokenName()).thenReturn("OWASP-CSRFTOKEN");
+        when(configurationProvider.isJavascriptInjectIntoForms()).thenReturn(true);
+        when(configurationProvider.isAjaxEnabled()).thenReturn(true);
+        when(configurationProvider.getJavascriptUnprotectedExtensions()).thenReturn("js,css");
+        when(configurationProvider.getJavascriptXrequestedWith()).thenReturn("OWASP CSRFGuard Project");
+
+        final JavaScriptTemplate javaScriptTemplate = JavaScriptTemplate.compile(configurationProvider);
+
+        final String expected = templateCode.replace("%TOKEN_NAME%", "OWASP-CSRFTOKEN")
+                                            .replace("%TOKEN_VALUE%", "token-é")
+                                            .replace("'%INJECT_FORMS%'", "true")
+                                            .replace("'%INJECT_GET_FORMS%'", "false")
+                                            .replace("'%INJECT_FORM_ATTRIBUTES%'", "false")
+                                            .replace("'%INJECT_ATTRIBUTES%'", "false")
+                                            .replace("'%INJECT_DYNAMIC_NODES%'", "false")
+                                            .replace("%DYNAMIC_NODE_CREATION_EVENT_NAME%", "")
+                                            .replace("'%INJECT_XHR%'", "true")
+                                            .replace("'%TOKENS_PER_PAGE%'", "false")
+                                            .replace("'%STATIC_SCRIPT%'", "false")
+                                            .replace("%UNPROTECTED_EXTENSIONS%", "js,css")
+                                            .replace("%DOMAIN_ORIGIN%", "www.example.com")
+                                            .replace("'%DOMAIN_STRICT%'", "false")
+                                            .replace("%CONTEXT_PATH%", "/app")
+                                            .replace("%SERVLET_PATH%", "/app/JavaScriptServlet")
+                                            .replace("%X_REQUESTED_WITH%", "OWASP CSRFGuard Project");
+
+        for (int i = 0; i < 2; i++) {
+            final byte[] rendered = render(javaScriptTemplate, "token-é");
+            assertEquals(expected, new String(rendered, StandardCharsets.UTF_8));
+        }
+
+        final byte[] compressed = render(javaScriptTemplate, "token-é", true);
+        assertTrue(compressed.length < expected.length() / 2);
+        assertEquals(expected, new String(gunzip(compressed), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testEntityTagDependsOnTheToken() {
+        final ConfigurationProvider configurationProvider = mock(ConfigurationProvider.class);
+        when(configurationProvider.getJavascriptTemplateCode()).thenReturn("var token = '%TOKEN_VALUE%';");
+
+        final JavaScriptTemplate javaScriptTemplate = JavaScriptTemplate.compile(configurationProvider);
+        final HttpServletRequest request = createRequest("/app");
+
+        assertEquals(javaScriptTemplate.getVersion(request), javaScriptTemplate.getEntityTag(request, null));
+        assertEquals(javaScriptTemplate.getEntityTag(request, "token1"), javaScriptTemplate.getEntityTag(request, "token1"));
+        assertNotEquals(javaScriptTemplate.getEntityTag(request, "token1"), javaScriptTemplate.getEntityTag(request, "token2"));
+    }
+
+    @Test
+    void testVersionIdentifiesTheContentWithoutToken() throws IOException {
+        final ConfigurationProvider configurationProvider = mock(ConfigurationProvider.class);
+        when(configurationProvider.getJavascriptTemplateCode()).thenReturn("var path = '%SERVLET_PATH%', token = '%TOKEN_VALUE%', static = '%STATIC_SCRIPT%';");
+        when(configurationProvider.isJavascriptStaticScript()).thenReturn(true);
+
+        final JavaScriptTemplate javaScriptTemplate = JavaScriptTemplate.compile(configurationProvider);
+        assertEquals("var path = '/app/JavaScriptServlet', token = '', static = true;", new String(render(javaScriptTemplate, null), StandardCharsets.UTF_8));
+
+        final String version = javaScriptTemplate.getVersion(createRequest("/app"));
+        assertEquals(22, version.length());
+        assertEquals(version, javaScriptTemplate.getVersion(createRequest("/app")));
+        assertNotEquals(version, javaScriptTemplate.getVersion(createRequest("/other")));
+        assertEquals(version, javaScriptTemplate.getVersion(createRequest("/app")));
+    }
+
+    private static HttpServletRequest createRequest(final String contextPath) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContextPath()).thenReturn(contextPath);
+        when(request.getServletPath()).thenReturn("/JavaScriptServlet");
+        when(request.getRequestURL()).thenReturn(new StringBuffer("https://www.example.com" + contextPath + "/JavaScriptServlet"));
+        return request;
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        try (final GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static byte[] render(final JavaScriptTemplate javaScriptTemplate, final String tokenValue) throws IOException {
+        return render(javaScriptTemplate, tokenValue, false);
+    }
+
+    private static byte[] render(final JavaScriptTemplate javaScriptTemplate, final String tokenValue, final boolean gzip) throws IOException {
+        final HttpServletRequest request = createRequest("/app");
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                outputStream.write(b);
+            }
+        });
+
+        javaScriptTemplate.write(request, response, tokenValue, gzip);
+
+        final byte[] rendered = outputStream.toByteArray();
+        verify(response).setContentLength(rendered.length);
+        return rendered;
+    }
+}
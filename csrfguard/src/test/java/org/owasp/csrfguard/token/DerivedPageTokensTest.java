@@ -0,0 +1,151 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.token.businessobject.TokenBO;
+import org.owasp.csrfguard.token.service.TokenService;
+import org.owasp.csrfguard.token.storage.impl.InMemoryTokenHolder;
+import org.owasp.csrfguard.util.MessageConstants;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DerivedPageTokensTest {
+
+    private static final String TOKEN_NAME = "OWASP-CSRFTOKEN";
+
+    @Test
+    void testDerivationIsDeterministicAndDistinctPerResource() {
+        final String pageToken = DerivedPageTokens.derive("master", "/page1", 32, TokenFormat.DASHED);
+
+        assertEquals(pageToken, DerivedPageTokens.derive("master", "/page1", 32, TokenFormat.DASHED));
+        assertNotEquals(pageToken, DerivedPageTokens.derive("master", "/page2", 32, TokenFormat.DASHED));
+        assertNotEquals(pageToken, DerivedPageTokens.derive("other master", "/page1", 32, TokenFormat.DASHED));
+        assertNotEquals(pageToken, "master");
+        assertEquals(39, pageToken.length());
+    }
+
+    @Test
+    void testNearMissValuesAreRejected() {
+        final String pageToken = DerivedPageTokens.derive("master", "/page", 32, TokenFormat.DASHED);
+        final char lastCharacter = pageToken.charAt(pageToken.length() - 1);
+        final String lastCharacterChanged = pageToken.substring(0, pageToken.length() - 1) + (lastCharacter == 'A' ? 'B' : 'A');
+
+        assertTrue(DerivedPageTokens.isEqual(pageToken, new String(pageToken.toCharArray())));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, lastCharacterChanged));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, pageToken.substring(0, pageToken.length() - 1)));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, pageToken + 'A'));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, pageToken.toLowerCase()));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, ""));
+        assertFalse(DerivedPageTokens.isEqual(pageToken, null));
+    }
+
+    @Test
+    void testMasterTokenIsOnlyAcceptedForResourcesNotListedAsProtected() throws CsrfGuardException {
+        final CsrfGuard csrfGuard = createCsrfGuard();
+        final TokenService tokenService = new TokenService(csrfGuard);
+
+        try (final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            tokenService.createMasterTokenIfAbsent("session");
+            final String masterToken = tokenService.getMasterToken("session");
+            final HttpServletRequest request = createRequest(masterToken);
+
+            final CsrfGuardException exception = assertThrows(CsrfGuardException.class, () -> tokenService.verifyToken(request, "/protected", "session", masterToken));
+            assertEquals(MessageConstants.MISMATCH_PAGE_TOKEN_MSG, exception.getMessage());
+
+            /* e.g. matched by a wildcard, its page token could not have been handed out in advance */
+            final TokenBO tokenBO = tokenService.verifyToken(request, "/wildcard/page", "session", masterToken);
+            assertTrue(tokenBO.isUsedMasterToken());
+            assertEquals(tokenService.getTokenValue("session", "/wildcard/page"), tokenBO.getUpdatedPageTokens().get("/wildcard/page"));
+
+            final TokenBO pageTokenBO = tokenService.verifyToken(createRequest(tokenService.getTokenValue("session", "/protected")), "/protected", "session", masterToken);
+            assertFalse(pageTokenBO.isUsedMasterToken());
+        }
+    }
+
+    @Test
+    void testMasterTokenRotationInvalidatesEveryDerivedPageToken() throws CsrfGuardException {
+        final CsrfGuard csrfGuard = createCsrfGuard();
+        final TokenService tokenService = new TokenService(csrfGuard);
+
+        try (final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            tokenService.createMasterTokenIfAbsent("session");
+            final String masterToken = tokenService.getMasterToken("session");
+            final Map<String, String> pageTokens = tokenService.getPageTokens("session");
+            assertEquals(csrfGuard.getProtectedPages(), pageTokens.keySet());
+
+            final TokenBO tokenBO = tokenService.verifyToken(createRequest(pageTokens.get("/protected")), "/protected", "session", masterToken);
+            tokenService.rotateUsedToken("session", "/protected", tokenBO);
+
+            final String rotatedMasterToken = tokenService.getMasterToken("session");
+            assertNotEquals(masterToken, rotatedMasterToken);
+            assertEquals(rotatedMasterToken, tokenBO.getUpdatedMasterToken());
+
+            for (final Map.Entry<String, String> pageToken : pageTokens.entrySet()) {
+                assertNotEquals(pageToken.getValue(), tokenService.getTokenValue("session", pageToken.getKey()));
+                assertThrows(CsrfGuardException.class, () -> tokenService.verifyToken(createRequest(pageToken.getValue()), pageToken.getKey(), "session", rotatedMasterToken));
+            }
+        }
+    }
+
+    private static CsrfGuard createCsrfGuard() {
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getTokenHolder()).thenReturn(new InMemoryTokenHolder());
+        when(csrfGuard.isTokenPerPageEnabled()).thenReturn(true);
+        when(csrfGuard.isTokenPerPageDerived()).thenReturn(true);
+        when(csrfGuard.getProtectedPages()).thenReturn(new HashSet<>(Arrays.asList("/protected", "/other")));
+        when(csrfGuard.getTokenName()).thenReturn(TOKEN_NAME);
+        when(csrfGuard.getTokenLength()).thenReturn(32);
+        when(csrfGuard.getTokenFormat()).thenReturn(TokenFormat.DASHED);
+        when(csrfGuard.getPrng()).thenReturn(new SecureRandom());
+        return csrfGuard;
+    }
+
+    private static HttpServletRequest createRequest(final String token) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter(TOKEN_NAME)).thenReturn(token);
+        return request;
+    }
+}
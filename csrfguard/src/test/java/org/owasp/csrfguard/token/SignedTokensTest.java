@@ -0,0 +1,109 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignedTokensTest {
+
+    private static final byte[] FIRST_KEY = "first-key-material".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECOND_KEY = "second-key-material".getBytes(StandardCharsets.UTF_8);
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    @Test
+    void testTokenIsValidForTheSameSessionOnly() {
+        final SignedTokenKeyRing keyRing = new SignedTokenKeyRing(Collections.singletonMap("k1", FIRST_KEY), "k1", Duration.ofHours(1));
+
+        final String token = SignedTokens.issue(keyRing, "session", this.secureRandom);
+
+        assertTrue(SignedTokens.isValid(keyRing, "session", token));
+        assertFalse(SignedTokens.isValid(keyRing, "other session", token));
+        assertNotEquals(token, SignedTokens.issue(keyRing, "session", this.secureRandom));
+    }
+
+    @Test
+    void testTamperedTokenIsRejected() {
+        final SignedTokenKeyRing keyRing = new SignedTokenKeyRing(Collections.singletonMap("k1", FIRST_KEY), "k1", Duration.ofHours(1));
+
+        final String token = SignedTokens.issue(keyRing, "session", this.secureRandom);
+        final String[] parts = token.split("\\.");
+        final String forgedIssueTime = Long.toString(System.currentTimeMillis() + 1000, Character.MAX_RADIX);
+
+        assertFalse(SignedTokens.isValid(keyRing, "session", String.join(".", parts[0], forgedIssueTime, parts[2], parts[3])));
+        assertFalse(SignedTokens.isValid(keyRing, "session", token + "A"));
+        assertFalse(SignedTokens.isValid(keyRing, "session", token + ".A"));
+        assertFalse(SignedTokens.isValid(keyRing, "session", "not a token"));
+        assertFalse(SignedTokens.isValid(keyRing, "session", null));
+    }
+
+    @Test
+    void testExpiredTokenIsRejected() throws InterruptedException {
+        final SignedTokenKeyRing keyRing = new SignedTokenKeyRing(Collections.singletonMap("k1", FIRST_KEY), "k1", Duration.ofMillis(1));
+
+        final String token = SignedTokens.issue(keyRing, "session", this.secureRandom);
+        Thread.sleep(10);
+
+        assertFalse(SignedTokens.isValid(keyRing, "session", token));
+    }
+
+    @Test
+    void testKeyRotation() {
+        final SignedTokenKeyRing oldKeyRing = new SignedTokenKeyRing(Collections.singletonMap("k1", FIRST_KEY), "k1", Duration.ofHours(1));
+
+        final Map<String, byte[]> keys = new HashMap<>();
+        keys.put("k1", FIRST_KEY);
+        keys.put("k2", SECOND_KEY);
+        final SignedTokenKeyRing rotatedKeyRing = new SignedTokenKeyRing(keys, "k2", Duration.ofHours(1));
+
+        final String oldToken = SignedTokens.issue(oldKeyRing, "session", this.secureRandom);
+        final String newToken = SignedTokens.issue(rotatedKeyRing, "session", this.secureRandom);
+
+        assertTrue(SignedTokens.isValid(rotatedKeyRing, "session", oldToken));
+        assertTrue(SignedTokens.isValid(rotatedKeyRing, "session", newToken));
+        assertFalse(SignedTokens.isValid(oldKeyRing, "session", newToken));
+    }
+
+    @Test
+    void testInvalidKeyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new SignedTokenKeyRing(Collections.singletonMap("k1", FIRST_KEY), "k2", Duration.ofHours(1)));
+        assertThrows(IllegalArgumentException.class, () -> new SignedTokenKeyRing(Collections.singletonMap("k.1", FIRST_KEY), "k.1", Duration.ofHours(1)));
+        assertThrows(IllegalArgumentException.class, () -> new SignedTokenKeyRing(Collections.singletonMap("k1", new byte[8]), "k1", Duration.ofHours(1)));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryTokenTest {
+
+    @Test
+    void testOnlyTheUsedPageTokenIsRegenerated() {
+        final InMemoryToken token = new InMemoryToken("master");
+        token.setPageToken("/page1", "value1");
+        token.setPageToken("/page2", "value2");
+        token.setPageToken("/page2", "value3");
+
+        token.regenerateUsedPageToken("value2", () -> "unused");
+        token.regenerateUsedPageToken("value3", () -> "regenerated");
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("/page1", "value1");
+        expected.put("/page2", "regenerated");
+        assertEquals(expected, token.getPageTokens());
+    }
+
+    @Test
+    void testDuplicatePageTokensAreAllRegenerated() {
+        final InMemoryToken token = new InMemoryToken("master");
+        final Map<String, String> pageTokens = new HashMap<>();
+        pageTokens.put("/page1", "duplicate");
+        pageTokens.put("/page2", "duplicate");
+        pageTokens.put("/page3", "unique");
+        token.setPageTokens(pageTokens);
+
+        token.regenerateUsedPageToken("duplicate", () -> "regenerated");
+
+        assertEquals("regenerated", token.getPageToken("/page1"));
+        assertEquals("regenerated", token.getPageToken("/page2"));
+        assertEquals("unique", token.getPageToken("/page3"));
+
+        final AtomicInteger counter = new AtomicInteger();
+        token.rotateAllPageTokens(() -> "rotated" + counter.incrementAndGet());
+        assertEquals(3, token.getPageTokens().size());
+        token.regenerateUsedPageToken("unique", () -> "unexpected");
+        token.regenerateUsedPageToken("rotated2", () -> "regenerated2");
+
+        assertFalse(token.getPageTokens().containsValue("unexpected"));
+        assertTrue(token.getPageTokens().containsValue("regenerated2"));
+        assertEquals(3, token.getPageTokens().values().stream().distinct().count());
+    }
+
+    @Test
+    void testRotatedPageTokensAreGeneratedWhenRead() {
+        final InMemoryToken token = new InMemoryToken("master");
+        token.setPageToken("/page1", "value1");
+        token.setPageToken("/page2", "value2");
+
+        final AtomicInteger counter = new AtomicInteger();
+        token.rotateAllPageTokens(() -> "rotated" + counter.incrementAndGet());
+        assertEquals(0, counter.get());
+
+        assertEquals("rotated1", token.getPageToken("/page2"));
+        assertEquals("rotated1", token.getTimedPageToken("/page2").getValue());
+        assertEquals(1, counter.get());
+
+        token.regenerateUsedPageToken("value1", () -> "unexpected");
+        assertEquals("rotated2", token.getPageToken("/page1"));
+        assertEquals("rotated2", token.setPageTokenIfAbsent("/page1", () -> "unexpected"));
+
+        token.setPageToken("/page3", "value3");
+        token.rotateAllPageTokens(() -> "second" + counter.incrementAndGet());
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("/page1", "second");
+        expected.put("/page2", "second");
+        expected.put("/page3", "second");
+        final Map<String, String> pageTokens = token.getPageTokens();
+        pageTokens.replaceAll((uri, value) -> value.replaceAll("\\d", ""));
+        assertEquals(expected, pageTokens);
+        assertEquals(5, counter.get());
+    }
+
+    @Test
+    void testOnlyThePageTokensChangedSinceTheVersionAreReturned() {
+        final InMemoryToken token = new InMemoryToken("master");
+        token.setPageToken("/page1", "value1");
+        token.setPageToken("/page2", "value2");
+
+        final PageTokenChanges initialChanges = token.getPageTokensChangedSince(null);
+        assertTrue(initialChanges.isComplete());
+        assertEquals(token.getPageTokens(), initialChanges.getPageTokens());
+
+        token.setPageToken("/page3", "value3");
+        final PageTokenChanges changes = token.getPageTokensChangedSince(initialChanges.getVersion());
+        assertFalse(changes.isComplete());
+        assertEquals(Collections.singletonMap("/page3", "value3"), changes.getPageTokens());
+
+        final PageTokenChanges noChanges = token.getPageTokensChangedSince(changes.getVersion());
+        assertFalse(noChanges.isComplete());
+        assertTrue(noChanges.getPageTokens().isEmpty());
+        assertEquals(changes.getVersion(), noChanges.getVersion());
+
+        token.rotateAllPageTokens(() -> "rotated");
+        final PageTokenChanges rotatedChanges = token.getPageTokensChangedSince(noChanges.getVersion());
+        assertFalse(rotatedChanges.isComplete());
+        assertEquals(3, rotatedChanges.getPageTokens().size());
+        assertTrue(rotatedChanges.getPageTokens().values().stream().allMatch("rotated"::equals));
+        assertTrue(token.getPageTokensChangedSince(rotatedChanges.getVersion()).getPageTokens().isEmpty());
+    }
+
+    @Test
+    void testAllThePageTokensAreReturnedAfterARemovalOrForAnUnknownVersion() {
+        final InMemoryToken token = new InMemoryToken("master");
+        token.setPageToken("/page1", "value1");
+        token.setPageToken("/page2", "value2");
+        final String version = token.getPageTokensChangedSince(null).getVersion();
+
+        token.setPageTokens(Collections.singletonMap("/page1", "value1"));
+        final PageTokenChanges changes = token.getPageTokensChangedSince(version);
+        assertTrue(changes.isComplete());
+        assertEquals(Collections.singletonMap("/page1", "value1"), changes.getPageTokens());
+
+        final String latestVersion = changes.getVersion();
+        assertFalse(token.getPageTokensChangedSince(latestVersion).isComplete());
+        assertTrue(new InMemoryToken("master").getPageTokensChangedSince(latestVersion).isComplete());
+        assertTrue(token.getPageTokensChangedSince("invalid").isComplete());
+        assertTrue(token.getPageTokensChangedSince(latestVersion + "1").isComplete());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileTokenHolderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testTokensAreRestoredAfterRestart() {
+        final Path file = this.directory.resolve("tokens.log");
+
+        final MappedFileTokenHolder tokenHolder = createTokenHolder(file, 4096);
+        tokenHolder.createMasterTokenIfAbsent("session1", () -> "master1");
+        tokenHolder.createPageTokenIfAbsent("session1", "/page", () -> "page1");
+        tokenHolder.createPageTokenIfAbsent("session2", "/page", () -> "page2");
+        tokenHolder.setPageTokens("session2", Collections.singletonMap("/other", "other2"));
+        tokenHolder.createMasterTokenIfAbsent("session3", () -> "master3");
+        tokenHolder.remove("session3");
+        tokenHolder.close();
+
+        final MappedFileTokenHolder restoredTokenHolder = createTokenHolder(file, 4096);
+        assertEquals("master1", restoredTokenHolder.getToken("session1").getMasterToken());
+        assertEquals("page1", restoredTokenHolder.getPageToken("session1", "/page"));
+        assertEquals(Collections.singletonMap("/other", "other2"), restoredTokenHolder.getPageTokens("session2"));
+        assertNull(restoredTokenHolder.getToken("session3"));
+        assertEquals(2, restoredTokenHolder.size());
+        restoredTokenHolder.close();
+    }
+
+    @Test
+    void testLogIsCompactedWhenFull() throws InterruptedException {
+        final Path file = this.directory.resolve("tokens.log");
+
+        final MappedFileTokenHolder tokenHolder = createTokenHolder(file, 1024);
+        IntStream.range(0, 200).forEach(i -> tokenHolder.setMasterToken("session" + (i % 10), "master" + i));
+
+        /* the log is compacted in the background */
+        for (int i = 0; i < 500 && tokenHolder.getCompactionCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(tokenHolder.getCompactionCount() > 0);
+        IntStream.range(200, 400).forEach(i -> tokenHolder.setMasterToken("session" + (i % 10), "master" + i));
+        tokenHolder.close();
+
+        final MappedFileTokenHolder restoredTokenHolder = createTokenHolder(file, 1024);
+        assertEquals(10, restoredTokenHolder.size());
+        assertEquals("master399", restoredTokenHolder.getToken("session9").getMasterToken());
+        restoredTokenHolder.close();
+    }
+
+    @Test
+    void testRotationAndRegenerationAppendOnlyTheChanges() {
+        final Path file = this.directory.resolve("tokens.log");
+
+        final MappedFileTokenHolder tokenHolder = createTokenHolder(file, 1 << 20);
+        tokenHolder.createMasterTokenIfAbsent("session1", () -> "master1");
+        tokenHolder.createPageTokenIfAbsent("session1", "/page", () -> "page1");
+        tokenHolder.createMasterTokenIfAbsent("session2", () -> "master2");
+        IntStream.range(0, 100).forEach(i -> tokenHolder.createPageTokenIfAbsent("session2", "/page" + i, () -> "page" + i));
+
+        long size = tokenHolder.getLogSize();
+        tokenHolder.rotateAllPageTokens("session1", () -> "rotated");
+        final long rotationRecordSize = tokenHolder.getLogSize() - size;
+
+        size = tokenHolder.getLogSize();
+        tokenHolder.rotateAllPageTokens("session2", () -> "rotated");
+        assertEquals(rotationRecordSize, tokenHolder.getLogSize() - size);
+
+        /* an unknown token changes nothing */
+        size = tokenHolder.getLogSize();
+        tokenHolder.regenerateUsedPageToken("session2", "forged", () -> "unexpected");
+        assertEquals(size, tokenHolder.getLogSize());
+
+        tokenHolder.setPageToken("session2", "/new", "new");
+        final long pageTokenRecordSize = tokenHolder.getLogSize() - size;
+        size = tokenHolder.getLogSize();
+        tokenHolder.regenerateUsedPageToken("session2", "new", () -> "neo");
+        assertEquals(pageTokenRecordSize, tokenHolder.getLogSize() - size);
+        tokenHolder.close();
+
+        /* the rotated page tokens are dropped, the ones set afterwards are kept */
+        final MappedFileTokenHolder restoredTokenHolder = createTokenHolder(file, 1 << 20);
+        assertTrue(restoredTokenHolder.getPageTokens("session1").isEmpty());
+        assertEquals(Collections.singletonMap("/new", "neo"), restoredTokenHolder.getPageTokens("session2"));
+        assertEquals("master2", restoredTokenHolder.getToken("session2").getMasterToken());
+        restoredTokenHolder.close();
+    }
+
+    private static MappedFileTokenHolder createTokenHolder(final Path file, final int initialSize) {
+        final Properties properties = new Properties();
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_FILE, file.toString());
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_FILE_INITIAL_SIZE.getName(), String.valueOf(initialSize));
+
+        final MappedFileTokenHolder tokenHolder = new MappedFileTokenHolder();
+        tokenHolder.configure(properties);
+        return tokenHolder;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+import org.owasp.csrfguard.token.storage.Token;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapTokenHolderTest {
+
+    @Test
+    void testPageTokens() {
+        final OffHeapTokenHolder tokenHolder = createTokenHolder(4, 100, 100);
+
+        assertEquals("page1", tokenHolder.createPageTokenIfAbsent("session", "/page1", () -> "page1"));
+        assertEquals("page1", tokenHolder.createPageTokenIfAbsent("session", "/page1", () -> "other"));
+        tokenHolder.setPageToken("session", "/page2", "page2");
+
+        final Token token = tokenHolder.getToken("session");
+        assertNotNull(token.getMasterToken());
+        assertEquals("page2", token.getTimedPageToken("/page2").getValue());
+        assertNull(token.getTimedPageToken("/page3"));
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("/page1", "page1");
+        expected.put("/page2", "page2");
+        assertEquals(expected, tokenHolder.getPageTokens("session"));
+
+        tokenHolder.regenerateUsedPageToken("session", "page2", () -> "regenerated");
+        assertEquals("page1", tokenHolder.getPageToken("session", "/page1"));
+        assertEquals("regenerated", tokenHolder.getPageToken("session", "/page2"));
+
+        tokenHolder.rotateAllPageTokens("session", () -> "rotated");
+        assertEquals("rotated", tokenHolder.getPageToken("session", "/page1"));
+        assertEquals(2, tokenHolder.getPageTokenCount());
+    }
+
+    @Test
+    void testRemovedSessionsDoNotHideTheOthers() {
+        final OffHeapTokenHolder tokenHolder = createTokenHolder(1, 64, 64);
+
+        IntStream.range(0, 64).forEach(i -> tokenHolder.setMasterToken("session" + i, "master" + i));
+        IntStream.range(0, 64).filter(i -> i % 3 == 0).forEach(i -> tokenHolder.remove("session" + i));
+
+        assertEquals(64 - 22, tokenHolder.size());
+        IntStream.range(0, 64).forEach(i -> {
+            final Token token = tokenHolder.getToken("session" + i);
+            if (i % 3 == 0) {
+                assertNull(token);
+            } else {
+                assertEquals("master" + i, token.getMasterToken());
+            }
+        });
+    }
+
+    @Test
+    void testFullSegmentsEvictTheLeastRecentlyUsedSessions() {
+        final OffHeapTokenHolder tokenHolder = createTokenHolder(1, 2, 2);
+
+        tokenHolder.createPageTokenIfAbsent("session1", "/page1", () -> "page1");
+        tokenHolder.createPageTokenIfAbsent("session2", "/page2", () -> "page2");
+        assertNotNull(tokenHolder.getToken("session1"));
+
+        assertEquals("master3", tokenHolder.createMasterTokenIfAbsent("session3", () -> "master3"));
+        assertNull(tokenHolder.getToken("session2"));
+        assertEquals("page1", tokenHolder.getPageToken("session1", "/page1"));
+        assertEquals(1, tokenHolder.getEvictionCount());
+
+        /* only page tokens are missing, so the session without page tokens is kept and the oldest page token of the session is replaced */
+        tokenHolder.setPageToken("session1", "/page3", "page3");
+        tokenHolder.setPageToken("session1", "/page4", "page4");
+        assertNotNull(tokenHolder.getToken("session3"));
+        assertNull(tokenHolder.getPageToken("session1", "/page1"));
+        assertEquals("page4", tokenHolder.getPageToken("session1", "/page4"));
+        assertEquals(2, tokenHolder.getPageTokenCount());
+    }
+
+    @Test
+    void testFailedInsertsDoNotLeaveSessionsBehind() {
+        final OffHeapTokenHolder tokenHolder = createTokenHolder(1, 2, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> tokenHolder.setMasterToken("session1", new String(new char[65])));
+        assertThrows(IllegalArgumentException.class, () -> tokenHolder.createPageTokenIfAbsent("session1", new String(new char[257]), () -> "page"));
+        assertThrows(IllegalArgumentException.class, () -> tokenHolder.createPageTokenIfAbsent("session1", "/page1", () -> new String(new char[65])));
+
+        assertNull(tokenHolder.getToken("session1"));
+        assertEquals(0, tokenHolder.size());
+        assertEquals(0, tokenHolder.getPageTokenCount());
+    }
+
+    @Test
+    void testIdleSessionsExpire() throws InterruptedException {
+        final Properties properties = createProperties(1, 100, 100);
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_IDLE_TIMEOUT.getName(), "20");
+        final OffHeapTokenHolder tokenHolder = new OffHeapTokenHolder();
+        tokenHolder.configure(properties);
+
+        tokenHolder.createPageTokenIfAbsent("session1", "/page1", () -> "page1");
+        Thread.sleep(50);
+
+        assertNull(tokenHolder.getToken("session1"));
+        assertEquals(0, tokenHolder.size());
+        assertEquals(0, tokenHolder.getPageTokenCount());
+        assertEquals(1, tokenHolder.getExpirationCount());
+    }
+
+    private static OffHeapTokenHolder createTokenHolder(final int segments, final int maxSessions, final int maxPageTokens) {
+        final OffHeapTokenHolder tokenHolder = new OffHeapTokenHolder();
+        tokenHolder.configure(createProperties(segments, maxSessions, maxPageTokens));
+        return tokenHolder;
+    }
+
+    private static Properties createProperties(final int segments, final int maxSessions, final int maxPageTokens) {
+        final Properties properties = new Properties();
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_SHARDS.getName(), String.valueOf(segments));
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_MAX_ENTRIES.getName(), String.valueOf(maxSessions));
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_MAX_PAGE_TOKENS.getName(), String.valueOf(maxPageTokens));
+        return properties;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.token.storage.impl;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.owasp.csrfguard.CsrfGuard;
+import org.owasp.csrfguard.CsrfGuardException;
+import org.owasp.csrfguard.config.properties.ConfigParameters;
+import org.owasp.csrfguard.token.businessobject.TokenBO;
+import org.owasp.csrfguard.token.service.TokenService;
+import org.owasp.csrfguard.util.MessageConstants;
+import org.owasp.csrfguard.util.TokenFormat;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ShardedTokenHolderTest {
+
+    @Test
+    void testTokensAreStoredPerSession() {
+        final ShardedTokenHolder tokenHolder = createTokenHolder(4, 100, 60_000, 60_000);
+
+        assertEquals("master1", tokenHolder.createMasterTokenIfAbsent("session1", () -> "master1"));
+        assertEquals("master1", tokenHolder.createMasterTokenIfAbsent("session1", () -> "other"));
+        assertEquals("page2", tokenHolder.createPageTokenIfAbsent("session2", "/page", () -> "page2"));
+
+        tokenHolder.setPageTokens("session1", Collections.singletonMap("/page", "page1"));
+        assertEquals("page1", tokenHolder.getPageToken("session1", "/page"));
+        assertEquals(2, tokenHolder.size());
+
+        tokenHolder.remove("session1");
+        assertNull(tokenHolder.getToken("session1"));
+        assertThrows(IllegalStateException.class, () -> tokenHolder.getPageTokens("session1"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedSessionsAreEvicted() {
+        final ShardedTokenHolder tokenHolder = createTokenHolder(1, 3, 60_000, 60_000);
+
+        tokenHolder.createMasterTokenIfAbsent("session1", () -> "master1");
+        tokenHolder.createMasterTokenIfAbsent("session2", () -> "master2");
+        tokenHolder.createMasterTokenIfAbsent("session3", () -> "master3");
+        tokenHolder.getToken("session1");
+        tokenHolder.createMasterTokenIfAbsent("session4", () -> "master4");
+
+        assertEquals(3, tokenHolder.size());
+        assertEquals(1, tokenHolder.getEvictionCount());
+        assertNull(tokenHolder.getToken("session2"));
+        assertNotNull(tokenHolder.getToken("session1"));
+    }
+
+    @Test
+    void testIdleSessionsExpire() throws InterruptedException {
+        final ShardedTokenHolder tokenHolder = createTokenHolder(1, 100, 20, 60_000);
+
+        tokenHolder.createMasterTokenIfAbsent("session1", () -> "master1");
+        tokenHolder.createMasterTokenIfAbsent("session2", () -> "master2");
+        Thread.sleep(50);
+
+        assertEquals("new", tokenHolder.createMasterTokenIfAbsent("session3", () -> "new"));
+        assertEquals(1, tokenHolder.size());
+        assertEquals(2, tokenHolder.getExpirationCount());
+    }
+
+    @Test
+    void testRequestIsRejectedIfTheSessionIsEvictedDuringVerification() {
+        final ShardedTokenHolder tokenHolder = createTokenHolder(1, 1, 60_000, 60_000);
+
+        final CsrfGuard csrfGuard = mock(CsrfGuard.class);
+        when(csrfGuard.getTokenHolder()).thenReturn(tokenHolder);
+        when(csrfGuard.isTokenPerPageEnabled()).thenReturn(true);
+        when(csrfGuard.getTokenName()).thenReturn("OWASP-CSRFTOKEN");
+        when(csrfGuard.getTokenLength()).thenReturn(32);
+        when(csrfGuard.getTokenFormat()).thenReturn(TokenFormat.DASHED);
+        when(csrfGuard.getPrng()).thenReturn(new SecureRandom());
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("OWASP-CSRFTOKEN")).thenReturn("page1");
+
+        try (final MockedStatic<CsrfGuard> csrfGuardMockedStatic = mockStatic(CsrfGuard.class)) {
+            csrfGuardMockedStatic.when(CsrfGuard::getInstance).thenReturn(csrfGuard);
+
+            final TokenService tokenService = new TokenService(csrfGuard);
+            tokenHolder.createPageTokenIfAbsent("session1", "/page", () -> "page1");
+            final String masterToken = tokenService.getMasterToken("session1");
+
+            /* another session evicts the first one after its master token was read */
+            tokenHolder.createMasterTokenIfAbsent("session2", () -> "master2");
+
+            final CsrfGuardException verificationException = assertThrows(CsrfGuardException.class,
+                                                                          () -> tokenService.verifyToken(request, "/page", "session1", masterToken));
+            assertEquals(MessageConstants.TOKEN_MISSING_FROM_STORAGE_MSG, verificationException.getMessage());
+
+            final CsrfGuardException rotationException = assertThrows(CsrfGuardException.class,
+                                                                      () -> tokenService.rotateUsedToken("session1", "/page", new TokenBO().setUsedPageToken("page1")));
+            assertEquals(MessageConstants.TOKEN_MISSING_FROM_STORAGE_MSG, rotationException.getMessage());
+        }
+    }
+
+    private static ShardedTokenHolder createTokenHolder(final int shards, final int maxEntries, final long idleTimeout, final long absoluteTimeout) {
+        final Properties properties = new Properties();
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_SHARDS.getName(), String.valueOf(shards));
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_MAX_ENTRIES.getName(), String.valueOf(maxEntries));
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_IDLE_TIMEOUT.getName(), String.valueOf(idleTimeout));
+        properties.setProperty(ConfigParameters.TOKEN_HOLDER_ABSOLUTE_TIMEOUT.getName(), String.valueOf(absoluteTimeout));
+
+        final ShardedTokenHolder tokenHolder = new ShardedTokenHolder();
+        tokenHolder.configure(properties);
+        return tokenHolder;
+    }
+}
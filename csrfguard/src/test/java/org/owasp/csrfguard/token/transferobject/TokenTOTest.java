@@ -29,9 +29,16 @@
 
 package org.owasp.csrfguard.token.transferobject;
 
+import com.google.gson.Gson;
 import org.junit.jupiter.api.Test;
+import org.owasp.csrfguard.util.RandomGenerator;
 
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -74,4 +81,30 @@ class TokenTOTest {
                                       "\"/start\":\"start-Page-Token-Value\"}}";
         assertEquals(tokenTO.toString(), expectedResult);
     }
+
+    @Test
+    void testDeltaToJson() {
+        final TokenTO tokenTO = new TokenTO(null, Collections.singletonMap("/start", "value"), "1f.42", true);
+        assertEquals("{\"pageTokens\":{\"/start\":\"value\"},\"version\":\"1f.42\",\"delta\":true}", tokenTO.toString());
+    }
+
+    @Test
+    void testJsonIsIdenticalToGson() {
+        final SecureRandom secureRandom = new SecureRandom();
+        final Map<String, String> pageTokens = new LinkedHashMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            pageTokens.put("/page" + i, RandomGenerator.generateRandomId(secureRandom, 32));
+        }
+        pageTokens.put("/escaped?a=1&b=<2>", "\"quoted\" \\ 'value'\t\n\u0001\u2028");
+        pageTokens.put("/null", null);
+        pageTokens.put(null, "null-key");
+
+        final Gson gson = new Gson();
+        for (final TokenTO tokenTO : Arrays.asList(new TokenTO("AAAA-BBBB-CCCC-DDDD", pageTokens), new TokenTO(pageTokens),
+                                                   new TokenTO(Collections.singletonMap("/index.html", "value")), new TokenTO("master", null),
+                                                   new TokenTO(null, pageTokens, "2020-02-20T20:20:20.202"), new TokenTO(null, null, "2020-02-20T20:20"),
+                                                   new TokenTO(null, pageTokens, "1f.42", true), new TokenTO(null, null, null, true))) {
+            assertEquals(gson.toJson(tokenTO), tokenTO.toString());
+        }
+    }
 }
\ No newline at end of file
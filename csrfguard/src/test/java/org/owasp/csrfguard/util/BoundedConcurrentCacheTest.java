@@ -0,0 +1,93 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedConcurrentCacheTest {
+
+    @Test
+    void testSizeIsBoundedAcrossGenerationSwaps() {
+        final BoundedConcurrentCache<Integer, String> cache = new BoundedConcurrentCache<>(10);
+
+        IntStream.range(0, 1_000).forEach(i -> {
+            assertEquals("value" + i, cache.computeIfAbsent(i, key -> "value" + key));
+            assertTrue(cache.size() <= 10);
+        });
+
+        assertEquals(1_000 - cache.size(), cache.getEvictionCount());
+        assertEquals(1_000, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void testOldGenerationHitsArePromoted() {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(4);
+        final AtomicInteger computations = new AtomicInteger();
+
+        /* the young generation holds 2 entries, so "used" and "unused" move to the old generation */
+        cache.computeIfAbsent("used", key -> key + computations.incrementAndGet());
+        cache.computeIfAbsent("unused", key -> key + computations.incrementAndGet());
+
+        /* found in the old generation and promoted, then the next swap drops the old generation */
+        assertEquals("used1", cache.computeIfAbsent("used", key -> key + computations.incrementAndGet()));
+        cache.computeIfAbsent("new", key -> key + computations.incrementAndGet());
+        assertEquals(2, cache.getEvictionCount());
+
+        assertEquals("used1", cache.computeIfAbsent("used", key -> key + computations.incrementAndGet()));
+        assertEquals("unused4", cache.computeIfAbsent("unused", key -> key + computations.incrementAndGet()));
+        assertEquals(4, computations.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    void testClearEvictsEveryEntry() {
+        final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(100);
+        cache.computeIfAbsent("first", key -> key);
+        cache.computeIfAbsent("second", key -> key);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals("recomputed", cache.computeIfAbsent("first", key -> "recomputed"));
+    }
+
+    @Test
+    void testMaximumSizeBelowTwoIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedConcurrentCache<>(1));
+    }
+}
@@ -36,9 +36,12 @@ import org.owasp.csrfguard.MandatoryProperties;
 import org.owasp.csrfguard.config.PropertiesConfigurationProvider;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class RandomGeneratorTest {
 
@@ -60,4 +63,30 @@ class RandomGeneratorTest {
         Assertions.assertEquals(randomToken.charAt(4), '-');
         assertEquals(randomToken.length(), 6);
     }
+
+    @Test
+    void testBulkGeneratedTokensHaveTheSameFormat() {
+        final String[] randomTokens = RandomGenerator.generateRandomIds(this.secureRandom, 32, 100);
+
+        assertEquals(100, randomTokens.length);
+        assertEquals(100, Stream.of(randomTokens).distinct().count());
+        for (final String randomToken : randomTokens) {
+            assertTrue(randomToken.matches("([A-Z0-9]{4}-){7}[A-Z0-9]{4}"), randomToken);
+        }
+    }
+
+    @Test
+    void testTokenFormats() {
+        assertTrue(RandomGenerator.generateRandomId(this.secureRandom, 10, TokenFormat.DASHED).matches("[A-Z0-9]{4}-[A-Z0-9]{4}-[A-Z0-9]{2}"));
+        assertTrue(RandomGenerator.generateRandomId(this.secureRandom, 10, TokenFormat.DASHLESS).matches("[A-Z0-9]{10}"));
+        assertTrue(RandomGenerator.generateRandomId(this.secureRandom, 128, TokenFormat.BASE64URL).matches("[A-Za-z0-9_-]{128}"));
+    }
+
+    @Test
+    void testRejectedBytesAreSkipped() {
+        final byte[] bytes = {(byte) 255, (byte) 252, 0, 1, 37};
+
+        assertEquals("ABB", RandomGenerator.encode(bytes.clone(), b -> Arrays.fill(b, (byte) 2), 3, TokenFormat.DASHLESS));
+        assertEquals("ABBC-C", RandomGenerator.encode(bytes.clone(), b -> Arrays.fill(b, (byte) 2), 5, TokenFormat.DASHED));
+    }
 }
\ No newline at end of file
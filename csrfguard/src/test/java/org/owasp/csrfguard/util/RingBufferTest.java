@@ -0,0 +1,105 @@
+/*
+ * The OWASP CSRFGuard Project, BSD License
+ * Copyright (c) 2011, Eric Sheridan (eric@infraredsecurity.com)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     1. Redistributions of source code must retain the above copyright notice,
+ *        this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. Neither the name of OWASP nor the names of its contributors may be used
+ *        to endorse or promote products derived from this software without specific
+ *        prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.csrfguard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    @Test
+    void testFirstInFirstOutUpToCapacity() {
+        final RingBuffer<Integer> ringBuffer = new RingBuffer<>(3);
+        assertEquals(4, ringBuffer.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(i));
+        }
+        assertFalse(ringBuffer.offer(4));
+        assertEquals(4, ringBuffer.size());
+
+        assertEquals(0, ringBuffer.poll());
+        assertTrue(ringBuffer.offer(4));
+        for (int i = 1; i < 5; i++) {
+            assertEquals(i, ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+    }
+
+    @Test
+    void testConcurrentProducersAndConsumers() throws Exception {
+        final RingBuffer<Long> ringBuffer = new RingBuffer<>(64);
+        final int threads = 4;
+        final long elementsPerProducer = 10_000;
+        final AtomicLong consumedSum = new AtomicLong();
+        final AtomicLong consumedCount = new AtomicLong();
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads * 2);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (long i = 1; i <= elementsPerProducer; i++) {
+                        while (!ringBuffer.offer(i)) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+                futures.add(executorService.submit(() -> {
+                    while (consumedCount.get() < threads * elementsPerProducer) {
+                        final Long element = ringBuffer.poll();
+                        if (element == null) {
+                            Thread.yield();
+                        } else {
+                            consumedSum.addAndGet(element);
+                            consumedCount.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(threads * elementsPerProducer * (elementsPerProducer + 1) / 2, consumedSum.get());
+        assertNull(ringBuffer.poll());
+    }
+}